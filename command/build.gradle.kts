@@ -8,6 +8,7 @@ plugins {
     id("org.jetbrains.dokka") version "0.9.18"
     id("com.jfrog.bintray") version "1.8.4"
     id("com.jfrog.artifactory") version "4.9.6"
+    id("me.champeau.gradle.jmh") version "0.4.8"
     kotlin("jvm") version "1.3.11"
     `maven-publish`
     java
@@ -34,6 +35,10 @@ dependencies {
 
 }
 
+jmh {
+    jmhVersion = "1.21"
+}
+
 val sourcesJar by tasks.creating(Jar::class)
 val dokkaJar by tasks.creating(Jar::class)
 
@@ -0,0 +1,71 @@
+import me.schlaubi.regnumutils.command.util.ArgumentTokenizer
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Compares the [ArgumentTokenizer] with the regex split previously used to parse commands.
+ * Run it using `gradle :command:jmh`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class TokenizerBenchmark {
+
+    @Param(
+        "!ping",
+        "!ban 416902379598774273 spamming in general",
+        "!tag create greeting Hello and welcome to our server, please read the rules before chatting"
+    )
+    lateinit var content: String
+
+    private val prefixLength = 1
+
+    /**
+     * The old implementation.
+     */
+    @Benchmark
+    fun regex(blackhole: Blackhole) {
+        val rawArgs = content.substring(prefixLength).split("\\s+".toRegex())
+        blackhole.consume(rawArgs[0].toLowerCase())
+        blackhole.consume(rawArgs)
+    }
+
+    /**
+     * Finds the invoke only, like it is done for messages that turn out not to be a command.
+     */
+    @Benchmark
+    fun tokenizerInvoke(): Long = ArgumentTokenizer.nextToken(content, prefixLength)
+
+    /**
+     * Finds the invoke and tokenizes the remaining arguments.
+     */
+    @Benchmark
+    fun tokenizer(blackhole: Blackhole) {
+        val invoke = ArgumentTokenizer.nextToken(content, prefixLength)
+        blackhole.consume(invoke)
+        blackhole.consume(ArgumentTokenizer.tokenize(content, ArgumentTokenizer.next(invoke)))
+    }
+}
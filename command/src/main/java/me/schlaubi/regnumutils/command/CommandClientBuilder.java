@@ -19,19 +19,27 @@
 
 package me.schlaubi.regnumutils.command;
 
-import cc.hawkbot.regnum.util.DefaultThreadFactory;
 import com.google.common.base.Preconditions;
 import me.schlaubi.regnumutils.command.configuration.CommandClientConfiguration;
 import me.schlaubi.regnumutils.command.configuration.MutableCommandClientConfiguration;
+import me.schlaubi.regnumutils.command.execution.CommandScheduler;
+import me.schlaubi.regnumutils.command.execution.CommandTask;
+import me.schlaubi.regnumutils.command.execution.FairCommandScheduler;
+import me.schlaubi.regnumutils.command.execution.VirtualThreadCommandExecutor;
 import me.schlaubi.regnumutils.command.internal.CommandClientImpl;
 import me.schlaubi.regnumutils.command.listener.CommandListenerBase;
 import me.schlaubi.regnumutils.command.listener.MessageEditCommandListener;
 import me.schlaubi.regnumutils.command.listener.MessageReceivedCommandListener;
+import me.schlaubi.regnumutils.command.spi.AsyncInformationProvider;
+import me.schlaubi.regnumutils.command.spi.Blocklist;
+import me.schlaubi.regnumutils.command.spi.CachingInformationProvider;
 import me.schlaubi.regnumutils.command.spi.Command;
 import me.schlaubi.regnumutils.command.spi.Context;
 import me.schlaubi.regnumutils.command.spi.InformationProvider;
+import me.schlaubi.regnumutils.command.spi.MessageFilter;
 import me.schlaubi.regnumutils.command.spi.permission.DefaultPermissionHandler;
 import me.schlaubi.regnumutils.command.spi.permission.PermissionHandler;
+import me.schlaubi.regnumutils.common.event.JDAListenerAdapter;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.MessageChannel;
@@ -45,13 +53,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 @SuppressWarnings("unused")
 public class CommandClientBuilder {
 
-    private ExecutorService executor = Executors.newCachedThreadPool(new DefaultThreadFactory("Command"));
+    private ExecutorService executor = new CommandScheduler();
 
     private List<Command> commands = new ArrayList<>();
 
@@ -63,6 +71,14 @@ public class CommandClientBuilder {
 
     private InformationProvider informationProvider;
 
+    private int prefixCacheSize = 0;
+
+    private long prefixCacheExpiry;
+
+    private TimeUnit prefixCacheUnit;
+
+    private List<MessageFilter> messageFilters = new ArrayList<>();
+
     private final EventRegistry eventRegistry;
 
     private CommandClientBuilder(EventRegistry eventRegistry) {
@@ -129,6 +145,11 @@ public class CommandClientBuilder {
 
     /**
      * Sets the executor used to execute {@link Command }s.
+     * Defaults to a {@link CommandScheduler} with its default bounds: twice the amount of processors as workers
+     * and up to 512 waiting commands, further commands get a busy reply.
+     * This used to be an unbounded cached thread pool, pass {@code Executors.newCachedThreadPool()} to keep that behavior.
+     * Commands are submitted as {@link CommandTask}s.
+     * Use a {@link FairCommandScheduler} to share the workers fairly between guilds or users.
      *
      * @param executor the {@link ExecutorService}
      * @return the {@link CommandClientBuilder}
@@ -200,6 +221,7 @@ public class CommandClientBuilder {
 
     /**
      * Sets the permission handler to check if a user is allowed to execute a command.
+     * Handlers extending {@link JDAListenerAdapter} also get registered as event listeners.
      *
      * @param permissionHandler the {@link PermissionHandler}
      * @return the {@link CommandClientBuilder}
@@ -295,11 +317,13 @@ public class CommandClientBuilder {
 
     /**
      * Sets the list of bot owners.
+     * The list gets copied, later changes to it are not reflected.
      *
      * @param owners a {@link List} containing all bot owner ids
      * @return the {@link CommandClientBuilder}
      * @throws IllegalStateException if the stored {@link CommandClientConfiguration} is a {@link me.schlaubi.regnumutils.command.configuration.ImmutableCommandClientConfiguration}
      * @see CommandClientConfiguration#getOwners()
+     * @see CommandClientConfiguration#getOwnerIds()
      */
     @NotNull
     public CommandClientBuilder setOwners(List<Long> owners) {
@@ -315,6 +339,7 @@ public class CommandClientBuilder {
      * @return the {@link CommandClientBuilder}
      * @throws IllegalStateException if the stored {@link CommandClientConfiguration} is a {@link me.schlaubi.regnumutils.command.configuration.ImmutableCommandClientConfiguration}
      * @see CommandClientConfiguration#getOwners()
+     * @see CommandClientConfiguration#getOwnerIds()
      * @see me.schlaubi.regnumutils.command.spi.permission.DefaultPermissionHandler
      */
     @NotNull
@@ -331,6 +356,7 @@ public class CommandClientBuilder {
      * @return the {@link CommandClientBuilder}
      * @throws IllegalStateException if the stored {@link CommandClientConfiguration} is a {@link me.schlaubi.regnumutils.command.configuration.ImmutableCommandClientConfiguration}
      * @see CommandClientConfiguration#getOwners()
+     * @see CommandClientConfiguration#getOwnerIds()
      * @see me.schlaubi.regnumutils.command.spi.permission.DefaultPermissionHandler
      */
     @NotNull
@@ -397,10 +423,12 @@ public class CommandClientBuilder {
 
     /**
      * Sets the information provider.
+     * Use an {@link AsyncInformationProvider} if looking up information requires I/O.
      *
      * @param informationProvider the {@link InformationProvider}
      * @return the {@link CommandClientBuilder}
      * @see InformationProvider for more information
+     * @see AsyncInformationProvider
      */
     @NotNull
     public CommandClientBuilder setInformationProvider(InformationProvider informationProvider) {
@@ -408,6 +436,88 @@ public class CommandClientBuilder {
         return this;
     }
 
+    /**
+     * Returns the filters a message has to pass before it gets parsed.
+     *
+     * @return a {@link List} of {@link MessageFilter}s
+     */
+    @NotNull
+    public List<MessageFilter> getMessageFilters() {
+        return messageFilters;
+    }
+
+    /**
+     * Adds filters a message has to pass before it gets parsed.
+     * Filters run in the order they were added before the prefix is resolved.
+     *
+     * @param messageFilters the {@link MessageFilter}s
+     * @return the {@link CommandClientBuilder}
+     * @see Blocklist
+     */
+    @NotNull
+    public CommandClientBuilder addMessageFilters(@NotNull MessageFilter... messageFilters) {
+        Collections.addAll(this.messageFilters, messageFilters);
+        return this;
+    }
+
+    /**
+     * Executes every {@link Command} on its own virtual thread.
+     * Invocations exceeding the timeout get interrupted.
+     * This requires a Java runtime supporting virtual threads.
+     *
+     * @param timeout the maximum duration of an invocation or {@code 0} for no timeout
+     * @param unit    the {@link TimeUnit} of the timeout
+     * @return the {@link CommandClientBuilder}
+     * @throws IllegalArgumentException      when the timeout is negative
+     * @throws UnsupportedOperationException when the runtime does not support virtual threads
+     * @see VirtualThreadCommandExecutor
+     */
+    @NotNull
+    public CommandClientBuilder useVirtualThreads(long timeout, @NotNull TimeUnit unit) {
+        Preconditions.checkArgument(timeout >= 0, "Timeout must not be negative");
+        this.executor = new VirtualThreadCommandExecutor(timeout, unit);
+        return this;
+    }
+
+    /**
+     * Executes every {@link Command} on its own virtual thread without a timeout.
+     *
+     * @return the {@link CommandClientBuilder}
+     * @throws UnsupportedOperationException when the runtime does not support virtual threads
+     * @see #useVirtualThreads(long, TimeUnit)
+     */
+    @NotNull
+    public CommandClientBuilder useVirtualThreads() {
+        return useVirtualThreads(0, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Caches the prefixes of the information provider per guild.
+     * Make sure to call {@link CachingInformationProvider#invalidate(long)} whenever the prefix of a guild changes.
+     *
+     * @param maximumSize the maximum amount of cached guilds
+     * @param expireAfter the time after which a prefix gets reloaded or {@code 0} if it should never be reloaded
+     * @param unit        the {@link TimeUnit} of expireAfter
+     * @return the {@link CommandClientBuilder}
+     * @throws IllegalArgumentException when the maximumSize is not greater than 0
+     * @see CachingInformationProvider
+     */
+    @NotNull
+    public CommandClientBuilder enablePrefixCache(int maximumSize, long expireAfter, @NotNull TimeUnit unit) {
+        Preconditions.checkArgument(maximumSize > 0, "Maximum size must be greater than 0");
+        this.prefixCacheSize = maximumSize;
+        this.prefixCacheExpiry = expireAfter;
+        this.prefixCacheUnit = unit;
+        return this;
+    }
+
+    private InformationProvider buildInformationProvider() {
+        if (prefixCacheSize == 0 || informationProvider instanceof CachingInformationProvider) {
+            return informationProvider;
+        }
+        return new CachingInformationProvider(informationProvider, prefixCacheSize, prefixCacheExpiry, prefixCacheUnit);
+    }
+
     private void checkMutability() {
         Preconditions.checkState(configuration instanceof MutableCommandClientConfiguration,
                 "CommandClientConfiguration must be mutable for helper methods!");
@@ -416,6 +526,10 @@ public class CommandClientBuilder {
     private CommandClient activate(CommandClient commandClient) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, InstantiationException {
         var listener = commandListener.getConstructor(CommandClient.class).newInstance(commandClient);
         eventRegistry.addEventListeners(listener);
+        // Handlers caching permissions need to listen for permission changes
+        if (permissionHandler instanceof JDAListenerAdapter) {
+            eventRegistry.addEventListeners(permissionHandler);
+        }
         return commandClient;
     }
 
@@ -447,7 +561,8 @@ public class CommandClientBuilder {
                             ((MutableCommandClientConfiguration) configuration).toImmutableCommandClientConfiguration() : configuration,
                     commands,
                     permissionHandler,
-                    informationProvider
+                    buildInformationProvider(),
+                    List.copyOf(messageFilters)
             ));
         } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException | InstantiationException e) {
             throw new RuntimeException("Could not build listener!", e);
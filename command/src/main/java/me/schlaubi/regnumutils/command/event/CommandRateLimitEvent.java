@@ -0,0 +1,68 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.event;
+
+import me.schlaubi.regnumutils.command.spi.Context;
+import me.schlaubi.regnumutils.command.spi.RateLimit;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Event that is getting fired whenever someone tries to execute a command more often than its {@link RateLimit} allows.
+ */
+@SuppressWarnings("unused")
+public class CommandRateLimitEvent extends GenericCommandContextEvent {
+
+    private final long retryAfter;
+
+    /**
+     * Constructs an {@link CommandRateLimitEvent}.
+     *
+     * @param api            the {@link JDA} instance
+     * @param responseNumber the response number
+     * @param guild          the {@link Guild} on which the command was rate limited
+     * @param context        the {@link Context} of the rate limited invocation
+     * @param retryAfter     the milliseconds after which the command can be used again
+     */
+    public CommandRateLimitEvent(@Nonnull JDA api, long responseNumber, @Nonnull Guild guild, @Nonnull Context context, long retryAfter) {
+        super(api, responseNumber, guild, context);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns the exceeded rate limit.
+     * @return the {@link RateLimit}
+     */
+    @Nonnull
+    public RateLimit getRateLimit() {
+        //noinspection ConstantConditions
+        return getCommand().getRateLimit();
+    }
+
+    /**
+     * Returns the milliseconds after which the command can be used again.
+     * @return the milliseconds
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -46,6 +46,9 @@ public class ListenerAdapter extends JDAListenerAdapter {
                 if (event instanceof CommandFailEvent) {
                     this.onCommandFail((CommandFailEvent) event);
                 }
+                if (event instanceof CommandRateLimitEvent) {
+                    this.onCommandRateLimit((CommandRateLimitEvent) event);
+                }
             }
         }
         super.onEvent(event);
@@ -71,4 +74,8 @@ public class ListenerAdapter extends JDAListenerAdapter {
 
     }
 
+    public void onCommandRateLimit(CommandRateLimitEvent event) {
+
+    }
+
 }
@@ -22,6 +22,7 @@ package me.schlaubi.regnumutils.command
 import me.schlaubi.regnumutils.command.configuration.CommandClientConfiguration
 import me.schlaubi.regnumutils.command.spi.Command
 import me.schlaubi.regnumutils.command.spi.InformationProvider
+import me.schlaubi.regnumutils.command.spi.MessageFilter
 import me.schlaubi.regnumutils.command.spi.permission.PermissionHandler
 import net.dv8tion.jda.api.JDA
 import net.dv8tion.jda.api.entities.Message
@@ -71,6 +72,14 @@ interface CommandClient {
      */
     val informationProvider: InformationProvider
 
+    /**
+     * The filters a message has to pass before it gets parsed.
+     * Defaults to no filters so existing implementations keep compiling.
+     * @see MessageFilter
+     */
+    val messageFilters: List<MessageFilter>
+        get() = emptyList()
+
     /**
      * Registers the [command].
      */
@@ -20,6 +20,7 @@
 package me.schlaubi.regnumutils.command.configuration
 
 import me.schlaubi.regnumutils.command.spi.Context
+import me.schlaubi.regnumutils.common.collections.LongSet
 import net.dv8tion.jda.api.entities.Message
 
 /**
@@ -46,6 +47,13 @@ interface CommandClientConfiguration {
      */
     val owners: List<Long>
 
+    /**
+     * The bot-owner's id's as a [LongSet] for lookups without boxing.
+     * This is read for every permission check, so implementations should cache it instead of copying [owners] each time.
+     * @see owners
+     */
+    val ownerIds: LongSet
+
     /**
      * Whether the bot should send typing before executing the command or not.
      */
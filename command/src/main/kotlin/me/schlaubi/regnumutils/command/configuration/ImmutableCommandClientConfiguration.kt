@@ -20,6 +20,7 @@
 package me.schlaubi.regnumutils.command.configuration
 
 import me.schlaubi.regnumutils.command.spi.Context
+import me.schlaubi.regnumutils.common.collections.LongSet
 import net.dv8tion.jda.api.entities.Message
 
 /**
@@ -36,5 +37,7 @@ class ImmutableCommandClientConfiguration(
     override val alwaysDefaultPrefix: Boolean, override val owners: List<Long>
 ) : CommandClientConfiguration {
 
+    override val ownerIds = LongSet.copyOf(owners)
+
     override fun buildPermissionErrorMessage(context: Context) = messageBuilder(context)
 }
\ No newline at end of file
@@ -20,6 +20,7 @@
 package me.schlaubi.regnumutils.command.configuration
 
 import me.schlaubi.regnumutils.command.spi.Context
+import me.schlaubi.regnumutils.common.collections.LongSet
 import net.dv8tion.jda.api.MessageBuilder
 import net.dv8tion.jda.api.entities.Message
 import java.util.function.Function
@@ -43,6 +44,9 @@ class MutableCommandClientConfiguration : CommandClientConfiguration {
     override val owners: MutableList<Long>
         get() = _owners
 
+    override val ownerIds: LongSet
+        get() = _owners.ids
+
     private var _sendTyping = true
 
     private var _acceptMentionPrefix = true
@@ -53,7 +57,7 @@ class MutableCommandClientConfiguration : CommandClientConfiguration {
 
     private var _alwaysDefaultPrefix = false
 
-    private var _owners = mutableListOf<Long>()
+    private var _owners = OwnerList(mutableListOf())
 
     /**
      * A function that build a permission error message
@@ -89,8 +93,13 @@ class MutableCommandClientConfiguration : CommandClientConfiguration {
         this._alwaysDefaultPrefix = alwaysAcceptDefaultPrefix
     }
 
+    /**
+     * Sets the bot owners.
+     * The list gets copied, changes have to be made through [owners] afterwards.
+     * @param owners the ids of the bot owners
+     */
     fun setOwners(owners: MutableList<Long>) {
-        this._owners = owners
+        this._owners = OwnerList(ArrayList(owners))
     }
 
     /**
@@ -108,4 +117,28 @@ class MutableCommandClientConfiguration : CommandClientConfiguration {
     fun toImmutableCommandClientConfiguration() = ImmutableCommandClientConfiguration(
         sendTyping, acceptMentionPrefix, messageBuilder, ownerPermission, defaultPrefix, alwaysDefaultPrefix, owners
     )
+
+    // Caches the owner ids until the list gets modified
+    private class OwnerList(private val delegate: MutableList<Long>) : AbstractMutableList<Long>() {
+
+        @Volatile
+        private var cachedIds: LongSet? = null
+
+        val ids: LongSet
+            get() = cachedIds ?: LongSet.copyOf(delegate).also { cachedIds = it }
+
+        override val size: Int
+            get() = delegate.size
+
+        override fun get(index: Int) = delegate[index]
+
+        override fun set(index: Int, element: Long) = delegate.set(index, element).also { cachedIds = null }
+
+        override fun add(index: Int, element: Long) {
+            delegate.add(index, element)
+            cachedIds = null
+        }
+
+        override fun removeAt(index: Int) = delegate.removeAt(index).also { cachedIds = null }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.execution
+
+import cc.hawkbot.regnum.util.DefaultThreadFactory
+import me.schlaubi.regnumutils.command.spi.Command
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Bounded executor for commands.
+ * Commands are executed by at most [workers] threads and at most [queueCapacity] commands can wait for a free worker.
+ * Commands that do not fit in anymore are handled according to the [rejectionPolicy].
+ * Other tasks are never dropped: they run on the submitting thread if the scheduler is saturated
+ * and are rejected with a [RejectedExecutionException] once it got shut down.
+ *
+ * This is the default executor of the command client. It replaced an unbounded cached thread pool,
+ * so commands are now limited to twice the amount of processors running at once and 512 waiting ones by default.
+ * Pass `Executors.newCachedThreadPool()` to the builder to restore the old unbounded behavior.
+ *
+ * Additionally the amount of concurrent executions of a single command can be limited.
+ * @param workers the maximum amount of threads executing commands
+ * @param queueCapacity the maximum amount of commands waiting for execution
+ * @property rejectionPolicy what happens with commands that cannot be executed
+ * @property busyMessage the message sent by [RejectionPolicy.REPLY_BUSY]
+ * @param threadFactory the [ThreadFactory] for the workers
+ * @see CommandTask
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class CommandScheduler @JvmOverloads constructor(
+    workers: Int = Runtime.getRuntime().availableProcessors() * 2,
+    queueCapacity: Int = 512,
+    val rejectionPolicy: RejectionPolicy = RejectionPolicy.REPLY_BUSY,
+    val busyMessage: String = "I am a little busy at the moment, please try again in a few seconds!",
+    threadFactory: ThreadFactory = DefaultThreadFactory("Command")
+) : ThreadPoolExecutor(
+    workers,
+    workers,
+    60,
+    TimeUnit.SECONDS,
+    ArrayBlockingQueue(queueCapacity),
+    threadFactory
+) {
+
+    private val concurrencyLimits = ConcurrentHashMap<Command, Int>()
+    private val runningCommands = ConcurrentHashMap<Command, AtomicInteger>()
+
+    private val rejected = LongAdder()
+    private val waitedTasks = LongAdder()
+    private val totalWaitTime = LongAdder()
+    private val longestWaitTime = AtomicLong()
+
+    /**
+     * The concurrency limit of commands which do not have their own limit or `0` for no limit.
+     * @see setConcurrencyLimit
+     */
+    @Volatile
+    var defaultConcurrencyLimit = 0
+
+    /**
+     * The amount of commands waiting for a free worker.
+     */
+    val queueDepth: Int
+        get() = queue.size
+
+    /**
+     * The amount of workers currently executing a command.
+     */
+    val activeWorkers: Int
+        get() = activeCount
+
+    /**
+     * The amount of commands that got rejected and were handled by the [rejectionPolicy].
+     * Other tasks running on the submitting thread are not counted.
+     */
+    val rejectedCount: Long
+        get() = rejected.sum()
+
+    /**
+     * The average time in nanoseconds commands waited for a free worker.
+     */
+    val averageWaitTime: Long
+        get() = waitedTasks.sum().let { if (it == 0L) 0L else totalWaitTime.sum() / it }
+
+    /**
+     * The longest time in nanoseconds a command waited for a free worker.
+     */
+    val maxWaitTime: Long
+        get() = longestWaitTime.get()
+
+    init {
+        allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * Limits the amount of concurrent executions of the [command] to [limit] or removes the limit if [limit] is `0`.
+     */
+    fun setConcurrencyLimit(command: Command, limit: Int) {
+        require(limit >= 0) { "Limit must not be negative" }
+        if (limit == 0) {
+            concurrencyLimits.remove(command)
+        } else {
+            concurrencyLimits[command] = limit
+        }
+    }
+
+    override fun execute(task: Runnable) {
+        if (task is CommandTask && !acquire(task)) {
+            reject(task, false)
+            return
+        }
+        try {
+            super.execute(task)
+        } catch (e: RejectedExecutionException) {
+            reject(task, true)
+        }
+    }
+
+    override fun beforeExecute(thread: Thread?, task: Runnable?) {
+        if (task is CommandTask) {
+            val waited = System.nanoTime() - task.submittedAt
+            waitedTasks.increment()
+            totalWaitTime.add(waited)
+            longestWaitTime.accumulateAndGet(waited, Math::max)
+        }
+        super.beforeExecute(thread, task)
+    }
+
+    override fun afterExecute(task: Runnable?, throwable: Throwable?) {
+        super.afterExecute(task, throwable)
+        if (task is CommandTask) {
+            release(task)
+        }
+    }
+
+    private fun acquire(task: CommandTask): Boolean {
+        val command = task.command
+        val limit = concurrencyLimits[command] ?: defaultConcurrencyLimit
+        if (limit <= 0) {
+            return true
+        }
+        val running = runningCommands.computeIfAbsent(command) { AtomicInteger() }
+        while (true) {
+            val current = running.get()
+            if (current >= limit) {
+                return false
+            }
+            if (running.compareAndSet(current, current + 1)) {
+                task.holdsPermit = true
+                return true
+            }
+        }
+    }
+
+    private fun release(task: CommandTask) {
+        if (task.holdsPermit) {
+            task.holdsPermit = false
+            runningCommands[task.command]?.decrementAndGet()
+        }
+    }
+
+    private fun reject(task: Runnable, saturated: Boolean) {
+        // The policies only apply to commands, anything else must not get lost
+        if (task !is CommandTask) {
+            if (isShutdown) {
+                throw RejectedExecutionException("Scheduler has been shut down")
+            }
+            return task.run()
+        }
+        rejected.increment()
+        val policy = if (!saturated && rejectionPolicy == RejectionPolicy.CALLER_RUNS) {
+            RejectionPolicy.REPLY_BUSY
+        } else {
+            rejectionPolicy
+        }
+        try {
+            when (policy) {
+                RejectionPolicy.DROP -> Unit
+                RejectionPolicy.REPLY_BUSY -> task.context.respond(busyMessage).queue()
+                RejectionPolicy.CALLER_RUNS -> if (!isShutdown) task.run()
+            }
+        } finally {
+            // Also reached by commands that did not run because the scheduler got shut down
+            release(task)
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.execution
+
+import me.schlaubi.regnumutils.command.spi.Command
+import me.schlaubi.regnumutils.command.spi.Context
+
+/**
+ * A [Runnable] executing a [Command] which is submitted to the command executor.
+ * Executors can use the [context] to schedule or reject commands depending on their invocation.
+ * @property context the [Context] of the command invocation
+ * @param action the actual execution of the command
+ * @see me.schlaubi.regnumutils.command.CommandClient.executor
+ */
+class CommandTask(val context: Context, private val action: Runnable) : Runnable {
+
+    /**
+     * The [Command] which is executed by this task.
+     */
+    val command: Command
+        get() = context.command
+
+    /**
+     * The [System.nanoTime] at which the task was created.
+     */
+    val submittedAt = System.nanoTime()
+
+    // Whether the task holds a permit of the per command concurrency limit of a CommandScheduler
+    internal var holdsPermit = false
+
+    override fun run() = action.run()
+}
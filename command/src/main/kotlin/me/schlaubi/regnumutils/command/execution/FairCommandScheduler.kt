@@ -0,0 +1,300 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.execution
+
+import cc.hawkbot.regnum.util.DefaultThreadFactory
+import cc.hawkbot.regnum.util.logging.Logger
+import me.schlaubi.regnumutils.common.collections.LongObjectMap
+import java.util.ArrayDeque
+import java.util.concurrent.AbstractExecutorService
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.LongAdder
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Executor which shares its workers fairly between guilds or users.
+ * Every [FairnessKey] gets its own queue and the workers serve the queues round-robin,
+ * so a burst of commands in one guild only delays the commands of that guild.
+ * Runnables which are no [CommandTask]s are not subject to any limit, they are queued separately and served first.
+ * The workers are started when the first task is submitted.
+ * @property workers the amount of threads executing commands
+ * @property fairnessKey decides which commands share a queue
+ * @property maxInFlightPerKey the maximum amount of commands of one queue that are executed at the same time
+ * @property maxQueuedPerKey the maximum amount of commands waiting in one queue
+ * @property rejectionPolicy what happens with commands exceeding [maxQueuedPerKey],
+ * [RejectionPolicy.CALLER_RUNS] is not supported because it would let a single key block the dispatching thread for everyone
+ * @throws IllegalArgumentException if the [rejectionPolicy] is [RejectionPolicy.CALLER_RUNS]
+ * @property busyMessage the message sent by [RejectionPolicy.REPLY_BUSY]
+ * @param threadFactory the [ThreadFactory] for the workers
+ * @see CommandTask
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class FairCommandScheduler @JvmOverloads constructor(
+    val workers: Int = Runtime.getRuntime().availableProcessors() * 2,
+    val fairnessKey: FairnessKey = FairnessKey.GUILD,
+    val maxInFlightPerKey: Int = 2,
+    val maxQueuedPerKey: Int = 32,
+    val rejectionPolicy: RejectionPolicy = RejectionPolicy.REPLY_BUSY,
+    val busyMessage: String = "I am a little busy at the moment, please try again in a few seconds!",
+    threadFactory: ThreadFactory = DefaultThreadFactory("Command")
+) : AbstractExecutorService() {
+
+    private val log = Logger.getLogger()
+    private val lock = ReentrantLock()
+    private val available = lock.newCondition()
+    private val termination = lock.newCondition()
+    // Queues by key and sub key, only FairnessKey.MEMBER has more than one sub key per key
+    private val queues = LongObjectMap<LongObjectMap<KeyQueue>>()
+    private val ready = ArrayDeque<KeyQueue>()
+    private val unthrottled = ArrayDeque<Runnable>()
+    private val threadFactory = threadFactory
+    private val threads = mutableListOf<Thread>()
+    private var aliveWorkers = 0
+    private var shutdown = false
+    private var queued = 0
+    private var activeQueues = 0
+
+    private val rejected = LongAdder()
+    private val waitedTasks = LongAdder()
+    private val totalWaitTime = LongAdder()
+    private val longestWaitTime = AtomicLong()
+
+    init {
+        require(workers > 0) { "Workers must be greater than 0" }
+        require(maxInFlightPerKey > 0) { "Max in flight per key must be greater than 0" }
+        require(maxQueuedPerKey > 0) { "Max queued per key must be greater than 0" }
+        require(rejectionPolicy != RejectionPolicy.CALLER_RUNS) { "Caller runs is not supported by the fair scheduler" }
+    }
+
+    /**
+     * The amount of commands waiting for a worker.
+     */
+    val queueDepth: Int
+        get() = lock.withLock { queued }
+
+    /**
+     * The amount of keys which have commands waiting or in flight.
+     */
+    val activeKeys: Int
+        get() = lock.withLock { activeQueues }
+
+    /**
+     * The amount of commands that got rejected because their queue was full.
+     */
+    val rejectedCount: Long
+        get() = rejected.sum()
+
+    /**
+     * The average time in nanoseconds commands waited for a free worker.
+     */
+    val averageWaitTime: Long
+        get() = waitedTasks.sum().let { if (it == 0L) 0L else totalWaitTime.sum() / it }
+
+    /**
+     * The longest time in nanoseconds a command waited for a free worker.
+     */
+    val maxWaitTime: Long
+        get() = longestWaitTime.get()
+
+    override fun execute(task: Runnable) {
+        if (task !is CommandTask) {
+            return lock.withLock {
+                checkRunning()
+                unthrottled.add(task)
+                available.signal()
+            }
+        }
+        val key = fairnessKey.of(task)
+        val subKey = fairnessKey.subKeyOf(task)
+        lock.withLock {
+            checkRunning()
+            val subQueues = queues[key] ?: LongObjectMap<KeyQueue>(1).also { queues[key] = it }
+            val queue = subQueues[subKey] ?: KeyQueue(key, subKey).also {
+                subQueues[subKey] = it
+                activeQueues++
+            }
+            if (queue.tasks.size < maxQueuedPerKey) {
+                queue.tasks.add(task)
+                queued++
+                schedule(queue)
+                return
+            }
+        }
+        reject(task)
+    }
+
+    override fun shutdown() {
+        lock.withLock {
+            shutdown = true
+            available.signalAll()
+        }
+    }
+
+    override fun shutdownNow(): List<Runnable> {
+        val pending = mutableListOf<Runnable>()
+        lock.withLock {
+            shutdown = true
+            queues.forEach { _, subQueues ->
+                subQueues.forEach { _, queue ->
+                    pending.addAll(queue.tasks)
+                    queue.tasks.clear()
+                }
+            }
+            pending.addAll(unthrottled)
+            unthrottled.clear()
+            ready.clear()
+            queued = 0
+            available.signalAll()
+        }
+        lock.withLock { threads.toList() }.forEach(Thread::interrupt)
+        return pending
+    }
+
+    override fun isShutdown() = lock.withLock { shutdown }
+
+    override fun isTerminated() = lock.withLock { shutdown && aliveWorkers == 0 }
+
+    override fun awaitTermination(timeout: Long, unit: TimeUnit): Boolean {
+        var remaining = unit.toNanos(timeout)
+        lock.withLock {
+            while (!(shutdown && aliveWorkers == 0)) {
+                if (remaining <= 0) {
+                    return false
+                }
+                remaining = termination.awaitNanos(remaining)
+            }
+        }
+        return true
+    }
+
+    private fun work() {
+        try {
+            while (true) {
+                val queue: KeyQueue?
+                val task: Runnable
+                lock.lock()
+                try {
+                    while (ready.isEmpty() && unthrottled.isEmpty()) {
+                        if (shutdown) {
+                            return
+                        }
+                        available.awaitUninterruptibly()
+                    }
+                    if (unthrottled.isNotEmpty()) {
+                        queue = null
+                        task = unthrottled.poll()
+                    } else {
+                        queue = ready.poll()
+                        queue.scheduled = false
+                        task = queue.tasks.poll()
+                        queued--
+                        queue.inFlight++
+                        schedule(queue)
+                    }
+                } finally {
+                    lock.unlock()
+                }
+                if (task is CommandTask) {
+                    val waited = System.nanoTime() - task.submittedAt
+                    waitedTasks.increment()
+                    totalWaitTime.add(waited)
+                    longestWaitTime.accumulateAndGet(waited, Math::max)
+                }
+                try {
+                    task.run()
+                } catch (e: Throwable) {
+                    log.error("An error occurred while executing a command", e)
+                } finally {
+                    Thread.interrupted()
+                    if (queue != null) {
+                        lock.withLock {
+                            queue.inFlight--
+                            if (queue.tasks.isEmpty() && queue.inFlight == 0) {
+                                remove(queue)
+                            } else {
+                                schedule(queue)
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.withLock {
+                if (--aliveWorkers == 0) {
+                    termination.signalAll()
+                }
+            }
+        }
+    }
+
+    // Has to be called while holding the lock, starts the workers on the first submission
+    private fun checkRunning() {
+        if (shutdown) {
+            throw RejectedExecutionException("Scheduler has been shut down")
+        }
+        if (threads.isEmpty()) {
+            repeat(workers) {
+                val thread = threadFactory.newThread(Runnable { work() })
+                threads.add(thread)
+                aliveWorkers++
+                thread.start()
+            }
+        }
+    }
+
+    // Has to be called while holding the lock
+    private fun schedule(queue: KeyQueue) {
+        if (!queue.scheduled && queue.tasks.isNotEmpty() && queue.inFlight < maxInFlightPerKey) {
+            queue.scheduled = true
+            ready.add(queue)
+            available.signal()
+        }
+    }
+
+    // Has to be called while holding the lock
+    private fun remove(queue: KeyQueue) {
+        val subQueues = queues[queue.key] ?: return
+        if (subQueues.remove(queue.subKey) != null) {
+            activeQueues--
+        }
+        if (subQueues.isEmpty()) {
+            queues.remove(queue.key)
+        }
+    }
+
+    private fun reject(task: CommandTask) {
+        rejected.increment()
+        when (rejectionPolicy) {
+            RejectionPolicy.DROP -> Unit
+            RejectionPolicy.REPLY_BUSY -> task.context.respond(busyMessage).queue()
+            RejectionPolicy.CALLER_RUNS -> throw IllegalStateException("Caller runs is not supported")
+        }
+    }
+
+    private class KeyQueue(val key: Long, val subKey: Long) {
+        val tasks = ArrayDeque<Runnable>()
+        var inFlight = 0
+        var scheduled = false
+    }
+}
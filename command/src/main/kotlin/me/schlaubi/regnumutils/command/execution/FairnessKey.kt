@@ -0,0 +1,50 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.execution
+
+/**
+ * Decides which commands share a queue of the [FairCommandScheduler].
+ * @see FairCommandScheduler
+ */
+enum class FairnessKey {
+    /**
+     * Commands invoked in the same guild share a queue.
+     */
+    GUILD,
+
+    /**
+     * Commands invoked by the same user share a queue.
+     */
+    USER,
+
+    /**
+     * Commands invoked by the same user in the same guild share a queue.
+     * A single user can therefore neither delay other guilds nor other users of the same guild.
+     */
+    MEMBER;
+
+    internal fun of(task: CommandTask) = when (this) {
+        GUILD, MEMBER -> task.context.guild.idLong
+        USER -> task.context.author.idLong
+    }
+
+    // Together with of() this forms the composite key of the queue, so two members never share one
+    internal fun subKeyOf(task: CommandTask) = if (this == MEMBER) task.context.author.idLong else 0L
+}
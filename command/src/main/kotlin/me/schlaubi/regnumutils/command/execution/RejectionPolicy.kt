@@ -0,0 +1,44 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.execution
+
+/**
+ * Decides what happens to a command that cannot be executed right now because the [CommandScheduler] is saturated.
+ * @see CommandScheduler
+ */
+enum class RejectionPolicy {
+    /**
+     * Silently drops the command.
+     */
+    DROP,
+
+    /**
+     * Drops the command and tells the user that the bot is busy.
+     * @see CommandScheduler.busyMessage
+     */
+    REPLY_BUSY,
+
+    /**
+     * Executes the command on the thread which dispatched it.
+     * This slows down event processing and therefore the rate at which new commands arrive.
+     * Commands exceeding their concurrency limit are handled like [REPLY_BUSY] because running them would violate the limit.
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,212 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.execution
+
+import cc.hawkbot.regnum.util.DefaultThreadFactory
+import me.schlaubi.regnumutils.command.spi.Command
+import me.schlaubi.regnumutils.command.spi.Context
+import java.lang.reflect.InvocationTargetException
+import java.util.concurrent.*
+import java.util.concurrent.atomic.LongAdder
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Executor running every command on its own virtual thread.
+ * Blocking calls like [net.dv8tion.jda.api.requests.RestAction.complete] only park the virtual thread, so a lot of commands can be in flight without spawning a platform thread for each of them.
+ *
+ * Invocations running longer than [timeout] get interrupted and running invocations can be cancelled using [cancel].
+ * Virtual threads require Java 21, use [isSupported] to check whether the current runtime supports them.
+ * @property timeout the maximum duration of an invocation or `0` for no timeout
+ * @property unit the [TimeUnit] of [timeout]
+ * @param namePrefix the prefix of the thread names
+ * @throws UnsupportedOperationException if the runtime does not support virtual threads
+ * @see CommandTask
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class VirtualThreadCommandExecutor @JvmOverloads constructor(
+    val timeout: Long = 0,
+    val unit: TimeUnit = TimeUnit.SECONDS,
+    namePrefix: String = "Command-"
+) : AbstractExecutorService() {
+
+    private val threadFactory = virtualThreadFactory(namePrefix)
+    // Without a timeout there is nothing to schedule, so no platform thread is started for it
+    private val timer = if (timeout > 0) {
+        ScheduledThreadPoolExecutor(1, DefaultThreadFactory("CommandTimeout")).apply {
+            removeOnCancelPolicy = true
+        }
+    } else {
+        null
+    }
+    private val running = ConcurrentHashMap.newKeySet<Invocation>()
+    private val terminationLock = ReentrantLock()
+    private val termination = terminationLock.newCondition()
+    private val timedOut = LongAdder()
+
+    @Volatile
+    private var shutdown = false
+
+    init {
+        require(timeout >= 0) { "Timeout must not be negative" }
+    }
+
+    /**
+     * The amount of currently running invocations.
+     */
+    val inFlight: Int
+        get() = running.size
+
+    /**
+     * The amount of invocations which got interrupted because they exceeded the [timeout].
+     */
+    val timedOutCount: Long
+        get() = timedOut.sum()
+
+    override fun execute(task: Runnable) {
+        val invocation = Invocation(task)
+        running.add(invocation)
+        if (shutdown) {
+            finish(invocation)
+            throw RejectedExecutionException("Executor has been shut down")
+        }
+        threadFactory.newThread(invocation).start()
+    }
+
+    /**
+     * Interrupts the invocation of the [context].
+     * @return whether the invocation was running
+     */
+    fun cancel(context: Context) = running.filter { (it.task as? CommandTask)?.context === context }
+        .onEach { it.cancel() }
+        .isNotEmpty()
+
+    /**
+     * Interrupts all running invocations of the [command].
+     * @return the amount of cancelled invocations
+     */
+    fun cancelAll(command: Command) = running.filter { (it.task as? CommandTask)?.command == command }
+        .onEach { it.cancel() }
+        .size
+
+    override fun shutdown() {
+        shutdown = true
+        signalIfTerminated()
+    }
+
+    override fun shutdownNow(): List<Runnable> {
+        shutdown()
+        running.forEach { it.cancel() }
+        return emptyList()
+    }
+
+    override fun isShutdown() = shutdown
+
+    override fun isTerminated() = shutdown && running.isEmpty()
+
+    override fun awaitTermination(timeout: Long, unit: TimeUnit): Boolean {
+        var remaining = unit.toNanos(timeout)
+        terminationLock.withLock {
+            while (!isTerminated) {
+                if (remaining <= 0) {
+                    return false
+                }
+                remaining = termination.awaitNanos(remaining)
+            }
+        }
+        return true
+    }
+
+    private fun finish(invocation: Invocation) {
+        running.remove(invocation)
+        signalIfTerminated()
+    }
+
+    private fun signalIfTerminated() {
+        if (isTerminated) {
+            timer?.shutdownNow()
+            terminationLock.withLock {
+                termination.signalAll()
+            }
+        }
+    }
+
+    private inner class Invocation(val task: Runnable) : Runnable {
+
+        @Volatile
+        private var thread: Thread? = null
+
+        override fun run() {
+            thread = Thread.currentThread()
+            val timer = timer
+            val timeout = if (timer != null && !timer.isShutdown) {
+                timer.schedule(Runnable {
+                    timedOut.increment()
+                    cancel()
+                }, this@VirtualThreadCommandExecutor.timeout, unit)
+            } else {
+                null
+            }
+            try {
+                task.run()
+            } finally {
+                thread = null
+                timeout?.cancel(false)
+                finish(this)
+            }
+        }
+
+        fun cancel() {
+            thread?.interrupt()
+        }
+    }
+
+    companion object {
+
+        /**
+         * Whether the current runtime supports virtual threads.
+         */
+        @JvmStatic
+        val isSupported by lazy {
+            try {
+                virtualThreadFactory("")
+                true
+            } catch (e: UnsupportedOperationException) {
+                false
+            }
+        }
+
+        private fun virtualThreadFactory(namePrefix: String): ThreadFactory {
+            try {
+                val builder = Thread::class.java.getMethod("ofVirtual").invoke(null)
+                val builderClass = Class.forName("java.lang.Thread\$Builder")
+                builderClass.getMethod("name", String::class.java, Long::class.javaPrimitiveType)
+                    .invoke(builder, namePrefix, 0L)
+                return builderClass.getMethod("factory").invoke(builder) as ThreadFactory
+            } catch (e: ReflectiveOperationException) {
+                val cause = (e as? InvocationTargetException)?.targetException ?: e
+                throw UnsupportedOperationException(
+                    "Virtual threads are not supported by Java ${System.getProperty("java.version")}",
+                    cause
+                )
+            }
+        }
+    }
+}
@@ -20,10 +20,102 @@
 package me.schlaubi.regnumutils.command.internal
 
 import me.schlaubi.regnumutils.command.spi.Arguments
+import me.schlaubi.regnumutils.command.util.ArgumentTokenizer
 
-internal class ArgumentsImpl(override val list: List<String>) : Arguments {
+/**
+ * [Arguments] backed by the offsets of the tokens in the raw message content.
+ * Arguments are sliced out of the content when they are read and [string] joins them with a single substring if possible.
+ */
+internal class ArgumentsImpl(private val tokens: ArgumentTokenizer.Tokens) : Arguments {
+
+    override val list: List<String> = tokens.asList()
+
+    override val array: Array<String> by lazy { Array(tokens.size) { tokens[it] } }
+
+    override val size: Int
+        get() = tokens.size
+
+    override operator fun get(index: Int) = tokens[index]
+
+    override fun isEmpty() = tokens.size == 0
+
+    override fun raw(from: Int, to: Int): String {
+        checkRange(from, to)
+        return if (from == to) "" else tokens.content.substring(tokens.rawStart(from), tokens.rawEnd(to - 1))
+    }
+
+    override fun string(
+        separator: CharSequence,
+        prefix: CharSequence,
+        postfix: CharSequence,
+        limit: Int,
+        truncated: CharSequence
+    ) = string(0, tokens.size, separator, prefix, postfix, limit, truncated)
+
+    override fun string(
+        to: Int,
+        separator: CharSequence,
+        prefix: CharSequence,
+        postfix: CharSequence,
+        limit: Int,
+        truncated: CharSequence
+    ) = string(0, to, separator, prefix, postfix, limit, truncated)
+
+    override fun string(
+        from: Int,
+        to: Int,
+        separator: CharSequence,
+        prefix: CharSequence,
+        postfix: CharSequence,
+        limit: Int,
+        truncated: CharSequence
+    ): String {
+        checkRange(from, to)
+        // The user already separated the arguments the way we want them so we can just cut them out
+        val plain = prefix.isEmpty() && postfix.isEmpty() && (limit < 0 || limit >= to - from)
+        if (plain && isSeparatedBy(from, to, separator)) {
+            return if (from == to) "" else tokens.content.substring(tokens.start(from), tokens.end(to - 1))
+        }
+        // Same behavior as joinToString() but without creating a list of strings first
+        val content = tokens.content
+        val buffer = StringBuilder().append(prefix)
+        var count = 0
+        for (i in from until to) {
+            if (++count > 1) {
+                buffer.append(separator)
+            }
+            if (limit >= 0 && count > limit) {
+                break
+            }
+            buffer.append(content, tokens.start(i), tokens.end(i))
+        }
+        if (limit >= 0 && count > limit) {
+            buffer.append(truncated)
+        }
+        return buffer.append(postfix).toString()
+    }
+
+    override fun toString() = tokens.toString()
 
-    override val array: Array<String> by lazy { list.toTypedArray() }
+    private fun isSeparatedBy(from: Int, to: Int, separator: CharSequence): Boolean {
+        val content = tokens.content
+        for (i in from until to - 1) {
+            val gapStart = tokens.end(i)
+            if (tokens.start(i + 1) - gapStart != separator.length) {
+                return false
+            }
+            for (j in 0 until separator.length) {
+                if (content[gapStart + j] != separator[j]) {
+                    return false
+                }
+            }
+        }
+        return true
+    }
 
-    override fun toString() = list.toString()
-}
\ No newline at end of file
+    private fun checkRange(from: Int, to: Int) {
+        if (from < 0 || to > tokens.size || from > to) {
+            throw IndexOutOfBoundsException("fromIndex: $from, toIndex: $to, size: ${tokens.size}")
+        }
+    }
+}
@@ -19,17 +19,28 @@
 
 package me.schlaubi.regnumutils.command.internal
 
+import cc.hawkbot.regnum.util.logging.Logger
 import me.schlaubi.regnumutils.command.CommandClient
 import me.schlaubi.regnumutils.command.configuration.CommandClientConfiguration
 import me.schlaubi.regnumutils.command.event.CommandFailEvent
 import me.schlaubi.regnumutils.command.event.CommandPermissionViolationEvent
+import me.schlaubi.regnumutils.command.event.CommandRateLimitEvent
+import me.schlaubi.regnumutils.command.execution.CommandTask
+import me.schlaubi.regnumutils.command.spi.AsyncInformationProvider
+import me.schlaubi.regnumutils.command.spi.CachingInformationProvider
 import me.schlaubi.regnumutils.command.spi.Command
 import me.schlaubi.regnumutils.command.spi.InformationProvider
+import me.schlaubi.regnumutils.command.spi.MessageFilter
+import me.schlaubi.regnumutils.command.spi.PrefixIndex
+import me.schlaubi.regnumutils.command.spi.permission.AsyncPermissionHandler
 import me.schlaubi.regnumutils.command.spi.permission.PermissionHandler
-import me.schlaubi.regnumutils.command.util.put
+import me.schlaubi.regnumutils.command.util.ArgumentTokenizer
 import net.dv8tion.jda.api.JDA
 import net.dv8tion.jda.api.entities.Message
 import net.dv8tion.jda.api.events.GenericEvent
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
 import java.util.concurrent.ExecutorService
 
 internal class CommandClientImpl(
@@ -37,22 +48,35 @@ internal class CommandClientImpl(
     override val config: CommandClientConfiguration,
     commands: List<Command>,
     override val permissionHandler: PermissionHandler,
-    override val informationProvider: InformationProvider
+    override val informationProvider: InformationProvider,
+    override val messageFilters: List<MessageFilter>
     ) : CommandClient {
 
-    private val _commandAssociations = mutableMapOf<String, Command>()
+    private val _commandAssociations = CommandRegistry()
 
     override val commandAssociations: Map<String, Command>
         get() = _commandAssociations
 
+    private val log = Logger.getLogger()
+    private val rateLimiter = RateLimiter()
+
+    @Volatile
+    private var prefixMatcher: PrefixMatcher? = null
+
+    private val prefixIndex = informationProvider as? PrefixIndex
+        ?: (informationProvider as? CachingInformationProvider)?.delegate as? PrefixIndex
+
     init {
         registerCommands(commands)
     }
 
-    override fun registerCommand(command: Command) = _commandAssociations.put(command)
+    override fun registerCommand(command: Command) = _commandAssociations.register(command)
 
-    override fun unregisterCommand(command: Command) =
-        _commandAssociations.forEach { (alias, _) -> if (alias in command.aliases) _commandAssociations.remove(alias) }
+    override fun registerCommands(vararg commands: Command) = _commandAssociations.registerAll(commands.asList())
+
+    override fun registerCommands(commands: Collection<Command>) = _commandAssociations.registerAll(commands)
+
+    override fun unregisterCommand(command: Command) = _commandAssociations.unregister(command)
 
     override fun unregisterAlias(alias: String) = _commandAssociations.remove(alias).run { Unit }
 
@@ -64,25 +88,69 @@ internal class CommandClientImpl(
             return
         }
 
+        for (filter in messageFilters) {
+            if (!filter.accept(message)) {
+                return
+            }
+        }
+
         parseCommand(message)
     }
 
     private fun parseCommand(message: Message) {
-        // Check for prefix
-        val prefix = resolvePrefix(message) ?: return
-        // Cut of prefix
-        val input = message.contentRaw.substring(prefix.length)
+        val content = message.contentRaw
+        val guild = message.guild
+        val matcher = prefixMatcher(guild.selfMember.idLong)
+        val matched = matcher.match(content)
 
-        // Split arguments
-        val rawArgs = input.split("\\s+".toRegex())
+        // The guild prefix cannot take precedence over the default prefix so there is no need to look it up
+        if (config.alwaysDefaultPrefix and (matched and PrefixMatcher.DEFAULT != 0)) {
+            return parseCommand(message, config.defaultPrefix)
+        }
 
-        // Just in case someone just sends the prefix
-        if (rawArgs.isEmpty()) {
+        // Neither a static nor any known guild prefix matched so the lookup cannot yield a prefix either
+        if ((matched == 0) and (prefixIndex != null)) {
             return
         }
 
-        // Find (sub)command
-        val commandPair = resolveCommand(args = rawArgs) ?: return
+        val provider = informationProvider
+        if (provider !is AsyncInformationProvider) {
+            val prefix = resolvePrefix(content, matcher, matched, provider.getPrefix(guild)) ?: return
+            return parseCommand(message, prefix)
+        }
+
+        val lookup = provider.getPrefixAsync(guild).toCompletableFuture()
+        if (lookup.isDone) {
+            return continueWithPrefix(message, matcher, matched, lookup)
+        }
+        // Continue on the thread completing the lookup, the executor might reject anything but the command itself
+        lookup.whenComplete { _, _ -> continueWithPrefix(message, matcher, matched, lookup) }
+    }
+
+    private fun continueWithPrefix(
+        message: Message,
+        matcher: PrefixMatcher,
+        matched: Int,
+        lookup: CompletableFuture<String?>
+    ) {
+        val guildPrefix = try {
+            lookup.join()
+        } catch (e: CompletionException) {
+            log.error("Could not resolve prefix for guild ${message.guild.id}", e.cause)
+            return
+        } catch (e: CancellationException) {
+            log.warn("Prefix lookup for guild ${message.guild.id} got cancelled")
+            return
+        }
+        val prefix = resolvePrefix(message.contentRaw, matcher, matched, guildPrefix) ?: return
+        parseCommand(message, prefix)
+    }
+
+    private fun parseCommand(message: Message, prefix: String) {
+        val content = message.contentRaw
+
+        // Find (sub)command, this also handles messages only containing the prefix
+        val commandPair = resolveCommand(content, prefix.length) ?: return
 
         // Send typing
         if (config.sendTyping) {
@@ -90,64 +158,120 @@ internal class CommandClientImpl(
         }
 
         val command = commandPair.first
-        val args = commandPair.second
+        val argumentsStart = commandPair.second
 
-        val arguments = ArgumentsImpl(args)
+        val arguments = ArgumentsImpl(ArgumentTokenizer.tokenize(content, argumentsStart))
         val context = ContextImpl(command, arguments, message, this)
 
         // Check permissions
-        if (!permissionHandler.isCovered(context)) {
+        val handler = permissionHandler
+        if (handler !is AsyncPermissionHandler) {
+            return dispatchIfCovered(command, arguments, context, handler.isCovered(context))
+        }
+        val check = handler.isCoveredAsync(context).toCompletableFuture()
+        if (check.isDone) {
+            return continueWithPermission(command, arguments, context, check)
+        }
+        check.whenComplete { _, _ -> continueWithPermission(command, arguments, context, check) }
+    }
+
+    private fun continueWithPermission(
+        command: Command,
+        arguments: ArgumentsImpl,
+        context: ContextImpl,
+        check: CompletableFuture<Boolean>
+    ) {
+        val covered = try {
+            check.join()
+        } catch (e: CompletionException) {
+            log.error("Could not check permissions for command ${command.name}", e.cause)
+            return
+        } catch (e: CancellationException) {
+            log.warn("Permission check for command ${command.name} got cancelled")
+            return
+        }
+        dispatchIfCovered(command, arguments, context, covered)
+    }
+
+    private fun dispatchIfCovered(command: Command, arguments: ArgumentsImpl, context: ContextImpl, covered: Boolean) {
+        val message = context.message
+        if (!covered) {
             val jda = message.jda
             fireEvent(jda, CommandPermissionViolationEvent(jda, 403, message.guild, command))
             return
         }
 
+        // Check rate limit
+        val retryAfter = rateLimiter.acquire(context)
+        if (retryAfter > 0) {
+            val jda = message.jda
+            fireEvent(jda, CommandRateLimitEvent(jda, 429, message.guild, context, retryAfter))
+            return
+        }
+
         // run command
         processCommand(command, arguments, context)
     }
 
     private fun processCommand(command: Command, arguments: ArgumentsImpl, context: ContextImpl) {
-        executor.execute {
+        executor.execute(CommandTask(context, Runnable {
             try {
                 command.process(arguments, context)
             } catch (everything: Throwable) {
                 val jda = context.jda
                 fireEvent(jda, CommandFailEvent(jda, 200, context.guild, context, everything))
             }
-        }
+        }))
     }
 
-    private fun resolvePrefix(message: Message): String? {
-        val guildPrefix = informationProvider.getPrefix(message.guild)
-        val content = message.contentRaw
-        val mention = message.guild.selfMember.asMention
-        val defaultPrefix = config.defaultPrefix
-        return when {
-            ((guildPrefix == null) or config.alwaysDefaultPrefix) and content.startsWith(defaultPrefix) -> defaultPrefix
+    private fun resolvePrefix(content: String, matcher: PrefixMatcher, matched: Int, guildPrefix: String?) =
+        when {
+            (guildPrefix == null) and (matched and PrefixMatcher.DEFAULT != 0) -> config.defaultPrefix
             (guildPrefix != null) && content.startsWith(guildPrefix) -> guildPrefix
-            config.acceptMentionPrefix and content.startsWith(mention) -> mention
+            matched and PrefixMatcher.MENTION != 0 -> matcher.mention
+            matched and PrefixMatcher.NICK_MENTION != 0 -> matcher.nickMention
             else -> null
         }
+
+    private fun prefixMatcher(selfId: Long): PrefixMatcher {
+        val matcher = prefixMatcher
+        // Read the version before the prefixes so a concurrent change always leads to another recompilation
+        val version = prefixIndex?.prefixVersion ?: 0L
+        if (matcher != null && matcher.selfId == selfId && matcher.prefixVersion == version) {
+            return matcher
+        }
+        val guildPrefixes = prefixIndex?.knownPrefixes ?: emptyList()
+        return PrefixMatcher(config.defaultPrefix, selfId, config.acceptMentionPrefix, guildPrefixes, version)
+            .also { prefixMatcher = it }
     }
 
     private tailrec fun resolveCommand(
+        content: String,
+        from: Int,
         command: Command? = null,
-        associations: Map<String, Command> = commandAssociations,
-        args: List<String>
-    ): Pair<Command, List<String>>? {
+        associations: Map<String, Command> = commandAssociations
+    ): Pair<Command, Int>? {
         // Find the invoke
-        val invoke = args[0].toLowerCase()
+        val token = ArgumentTokenizer.nextToken(content, from)
+        if (token == ArgumentTokenizer.NO_TOKEN) {
+            return command?.to(from)
+        }
         // Search for a command
-        val foundCommand = associations[invoke] ?: return command?.to(args)
+        val foundCommand =
+            associations.find(content, ArgumentTokenizer.start(token), ArgumentTokenizer.end(token))
+                ?: return command?.to(from)
         // Cut off invoke
-        val newArgs = if (args.size > 1) args.subList(1, args.size) else emptyList()
+        val next = ArgumentTokenizer.next(token)
         // Look for sub commands
-        if (foundCommand.hasSubCommands() and newArgs.isNotEmpty())
-            return resolveCommand(foundCommand, foundCommand.subCommandAssociations, newArgs)
+        if (foundCommand.hasSubCommands())
+            return resolveCommand(content, next, foundCommand, foundCommand.subCommandAssociations)
         // Return command if there are no more sub commands
-        return foundCommand to newArgs
+        return foundCommand to next
     }
 
+    private fun Map<String, Command>.find(content: String, from: Int, to: Int) =
+        if (this is CommandRegistry) find(content, from, to) else this[content.substring(from, to).toLowerCase()]
+
     private fun fireEvent(jda: JDA, event: GenericEvent) = jda.eventManager.handle(event)
 
 }
\ No newline at end of file
@@ -0,0 +1,218 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.internal
+
+import me.schlaubi.regnumutils.command.spi.Command
+import java.util.AbstractMap.SimpleEntry
+
+/**
+ * [MutableMap] of aliases and their [Command]s which can also look up an invoke case-insensitively
+ * directly inside the message content.
+ *
+ * The registry is copy-on-write: Every modification copies the associations, builds a new open-addressing table
+ * over the case-folded aliases and publishes both atomically.
+ * Lookups read a single volatile snapshot without any locking so commands can be (un)registered while dispatching.
+ * Register many commands with [registerAll] so the table only gets rebuilt once.
+ *
+ * Aliases are folded with [Character.toLowerCase] per char, so unlike the old `invoke.toLowerCase()` lookup
+ * mixed-case aliases match and the lookup does not depend on the default locale.
+ * @see CommandRegistry.find
+ */
+internal class CommandRegistry : AbstractMutableMap<String, Command>() {
+
+    @Volatile
+    private var snapshot = Snapshot(emptyMap())
+
+    // Iterates a snapshot, removals and value changes go through the registry so the index stays up to date
+    override val entries: MutableSet<MutableMap.MutableEntry<String, Command>> = EntrySet()
+
+    override val size: Int
+        get() = snapshot.associations.size
+
+    override fun containsKey(key: String) = snapshot.associations.containsKey(key)
+
+    override fun get(key: String) = snapshot.associations[key]
+
+    @Synchronized
+    override fun put(key: String, value: Command) = update { it.put(key, value) }
+
+    @Synchronized
+    override fun putAll(from: Map<out String, Command>) = update { it.putAll(from) }
+
+    @Synchronized
+    override fun remove(key: String) = update { it.remove(key) }
+
+    @Synchronized
+    override fun clear() = update { it.clear() }
+
+    /**
+     * Adds all aliases of the [command] at once.
+     */
+    @Synchronized
+    fun register(command: Command) = update { associations ->
+        command.aliases.forEach { associations[it] = command }
+    }
+
+    /**
+     * Adds all aliases of all [commands] with a single copy of the table.
+     */
+    @Synchronized
+    fun registerAll(commands: Collection<Command>) = update { associations ->
+        commands.forEach { command -> command.aliases.forEach { associations[it] = command } }
+    }
+
+    /**
+     * Removes all aliases that are still pointing to the [command] at once.
+     */
+    @Synchronized
+    fun unregister(command: Command) = update { associations ->
+        command.aliases.forEach { associations.remove(it, command) }
+    }
+
+    /**
+     * Finds the command whose alias equals the chars of [content] [from] [to] ignoring case.
+     * @return the [Command] or `null` if there is none
+     */
+    fun find(content: CharSequence, from: Int, to: Int) = snapshot.index.find(content, from, to)
+
+    // Callers have to hold the lock of the registry
+    private inline fun <T> update(modification: (MutableMap<String, Command>) -> T): T {
+        val associations = LinkedHashMap(snapshot.associations)
+        val result = modification(associations)
+        snapshot = Snapshot(associations)
+        return result
+    }
+
+    @Synchronized
+    private fun removeIfMapped(key: String, value: Command) {
+        if (snapshot.associations[key] === value) {
+            remove(key)
+        }
+    }
+
+    private inner class EntrySet : AbstractMutableSet<MutableMap.MutableEntry<String, Command>>() {
+
+        override val size: Int
+            get() = this@CommandRegistry.size
+
+        override fun add(element: MutableMap.MutableEntry<String, Command>) = throw UnsupportedOperationException()
+
+        override fun iterator() = object : MutableIterator<MutableMap.MutableEntry<String, Command>> {
+            private val delegate = snapshot.associations.entries.iterator()
+            private var current: MutableMap.MutableEntry<String, Command>? = null
+
+            override fun hasNext() = delegate.hasNext()
+
+            override fun next(): MutableMap.MutableEntry<String, Command> {
+                val (key, value) = delegate.next()
+                return RegistryEntry(key, value).also { current = it }
+            }
+
+            override fun remove() {
+                val entry = checkNotNull(current) { "next() has not been called" }
+                current = null
+                removeIfMapped(entry.key, entry.value)
+            }
+        }
+    }
+
+    private inner class RegistryEntry(key: String, value: Command) : SimpleEntry<String, Command>(key, value) {
+
+        override fun setValue(value: Command): Command {
+            put(key, value)
+            return super.setValue(value)
+        }
+    }
+
+    private class Snapshot(val associations: Map<String, Command>) {
+        val index = Index(associations)
+    }
+
+    private class Index(associations: Map<String, Command>) {
+
+        private val mask: Int
+        private val keys: Array<CharArray?>
+        private val hashes: IntArray
+        private val commands: Array<Command?>
+
+        init {
+            // Keep the load factor below 0.5 so there is always an empty slot terminating a probe
+            var capacity = 4
+            while (capacity < associations.size * 2) {
+                capacity = capacity shl 1
+            }
+            mask = capacity - 1
+            keys = arrayOfNulls(capacity)
+            hashes = IntArray(capacity)
+            commands = arrayOfNulls(capacity)
+            associations.forEach { (alias, command) ->
+                val folded = CharArray(alias.length) { fold(alias[it]) }
+                val hash = hash(folded)
+                var slot = mix(hash) and mask
+                while (true) {
+                    val key = keys[slot]
+                    if (key == null || (hashes[slot] == hash && key.contentEquals(folded))) {
+                        break
+                    }
+                    slot = (slot + 1) and mask
+                }
+                keys[slot] = folded
+                hashes[slot] = hash
+                commands[slot] = command
+            }
+        }
+
+        fun find(content: CharSequence, from: Int, to: Int): Command? {
+            var hash = 0
+            for (i in from until to) {
+                hash = 31 * hash + fold(content[i]).toInt()
+            }
+            var slot = mix(hash) and mask
+            while (true) {
+                val key = keys[slot] ?: return null
+                if (hashes[slot] == hash && matches(key, content, from, to)) {
+                    return commands[slot]
+                }
+                slot = (slot + 1) and mask
+            }
+        }
+
+        private fun matches(key: CharArray, content: CharSequence, from: Int, to: Int): Boolean {
+            if (key.size != to - from) {
+                return false
+            }
+            for (i in key.indices) {
+                if (key[i] != fold(content[from + i])) {
+                    return false
+                }
+            }
+            return true
+        }
+
+        private fun hash(chars: CharArray) = chars.fold(0) { hash, char -> 31 * hash + char.toInt() }
+
+        private fun mix(hash: Int): Int {
+            val h = hash * -0x61c88647
+            return h xor (h ushr 16)
+        }
+
+        private fun fold(char: Char) = Character.toLowerCase(char)
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.internal
+
+import me.schlaubi.regnumutils.common.collections.LongLongMap
+import me.schlaubi.regnumutils.common.collections.LongObjectMap
+import net.dv8tion.jda.api.Permission
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Member
+import net.dv8tion.jda.api.entities.TextChannel
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Caches the effective permissions of members in text channels as raw bitmasks.
+ * The cache has to be invalidated whenever roles, permission overrides or the roles of a member change.
+ * Events can get lost while a shard reconnects, so cached permissions additionally expire [expireAfter] nanoseconds
+ * after the first permissions of their channel got cached.
+ *
+ * At most [maximumChannels] channels are cached, the least recently used channel gets evicted once a stripe is full.
+ * The members of a channel are kept in two generations, once the newer one is full the older one gets dropped,
+ * so members which are still active survive while inactive ones are evicted.
+ * @property expireAfter the time in nanoseconds after which cached permissions need to be recomputed
+ * @property maximumChannels the maximum amount of cached channels
+ * @property maximumMembersPerChannel the maximum amount of cached members per channel
+ * @property clock the source of the current time in nanoseconds
+ */
+internal class PermissionCache(
+    val expireAfter: Long = TimeUnit.MINUTES.toNanos(5),
+    val maximumChannels: Int = 4096,
+    val maximumMembersPerChannel: Int = 1024,
+    private val clock: () -> Long = { System.nanoTime() }
+) {
+
+    private val channelsPerStripe = Math.max(1, maximumChannels / STRIPES)
+    private val stripes = Array(STRIPES) { Stripe() }
+    private val invalidations = AtomicLong()
+
+    init {
+        require(expireAfter > 0) { "Expiry must be greater than 0" }
+        require(maximumMembersPerChannel > 1) { "Maximum members per channel must be greater than 1" }
+    }
+
+    /**
+     * The amount of cached channels.
+     */
+    val channelCount: Int
+        get() = stripes.sumBy { synchronized(it) { it.channelCount } }
+
+    /**
+     * Returns the raw effective permissions of the [member] in the [channel].
+     */
+    fun effectivePermissions(member: Member, channel: TextChannel): Long {
+        val channelId = channel.idLong
+        val memberId = member.user.idLong
+        val stripe = stripe(channelId)
+        synchronized(stripe) {
+            val cached = stripe.get(channelId, memberId, clock())
+            if (cached != MISSING) {
+                return cached
+            }
+        }
+        val generation = invalidations.get()
+        val permissions = Permission.getRaw(member.getPermissions(channel))
+        synchronized(stripe) {
+            // Do not cache permissions which could have been computed before an invalidation
+            if (generation == invalidations.get()) {
+                stripe.put(channelId, memberId, permissions, clock())
+            }
+        }
+        return permissions
+    }
+
+    /**
+     * Invalidates the permissions of all members in the [channel].
+     */
+    fun invalidate(channel: TextChannel) = invalidateChannel(channel.idLong)
+
+    /**
+     * Invalidates the permissions of all members in all channels of the [guild].
+     */
+    fun invalidate(guild: Guild) = guild.textChannels.forEach { invalidateChannel(it.idLong) }
+
+    /**
+     * Invalidates the permissions of the [member] in all channels of its guild.
+     */
+    fun invalidate(member: Member) {
+        invalidations.incrementAndGet()
+        val memberId = member.user.idLong
+        member.guild.textChannels.forEach {
+            val channelId = it.idLong
+            val stripe = stripe(channelId)
+            synchronized(stripe) {
+                stripe.remove(channelId, memberId)
+            }
+        }
+    }
+
+    /**
+     * Invalidates all cached permissions.
+     */
+    fun invalidateAll() {
+        invalidations.incrementAndGet()
+        stripes.forEach { synchronized(it) { it.clear() } }
+    }
+
+    private fun invalidateChannel(channelId: Long) {
+        invalidations.incrementAndGet()
+        val stripe = stripe(channelId)
+        synchronized(stripe) {
+            stripe.remove(channelId)
+        }
+    }
+
+    private fun stripe(channelId: Long) = stripes[((channelId * -7046029254386353131L) ushr 60).toInt()]
+
+    // Callers have to hold the lock of the stripe
+    private inner class Stripe {
+        private val channels = LongObjectMap<ChannelPermissions>()
+
+        val channelCount: Int
+            get() = channels.size
+
+        fun get(channelId: Long, memberId: Long, now: Long): Long {
+            val channel = channels[channelId] ?: return MISSING
+            if (now - channel.cachedAt >= expireAfter) {
+                channels.remove(channelId)
+                return MISSING
+            }
+            channel.lastAccess = now
+            return channel[memberId]
+        }
+
+        fun put(channelId: Long, memberId: Long, permissions: Long, now: Long) {
+            var channel = channels[channelId]
+            if (channel == null || now - channel.cachedAt >= expireAfter) {
+                if (channel == null && channels.size >= channelsPerStripe) {
+                    evictLeastRecentlyUsed()
+                }
+                channel = ChannelPermissions(now)
+                channels[channelId] = channel
+            }
+            channel.lastAccess = now
+            channel.put(memberId, permissions)
+        }
+
+        fun remove(channelId: Long) = channels.remove(channelId).run { Unit }
+
+        fun remove(channelId: Long, memberId: Long) = channels[channelId]?.remove(memberId)
+
+        fun clear() = channels.clear()
+
+        private fun evictLeastRecentlyUsed() {
+            var eldest = 0L
+            var eldestAccess = Long.MAX_VALUE
+            channels.forEach { id, channel ->
+                if (channel.lastAccess - eldestAccess < 0) {
+                    eldest = id
+                    eldestAccess = channel.lastAccess
+                }
+            }
+            channels.remove(eldest)
+        }
+    }
+
+    private inner class ChannelPermissions(val cachedAt: Long) {
+        var lastAccess = cachedAt
+        private var current = LongLongMap(16, MISSING)
+        private var previous = LongLongMap(4, MISSING)
+
+        operator fun get(memberId: Long): Long {
+            val permissions = current[memberId]
+            if (permissions != MISSING) {
+                return permissions
+            }
+            // Members which are still active move back into the current generation
+            val old = previous.remove(memberId)
+            if (old != MISSING) {
+                put(memberId, old)
+            }
+            return old
+        }
+
+        fun put(memberId: Long, permissions: Long) {
+            if (memberId !in current && current.size >= maximumMembersPerChannel / 2) {
+                previous = current
+                current = LongLongMap(16, MISSING)
+            }
+            current[memberId] = permissions
+        }
+
+        fun remove(memberId: Long) {
+            current.remove(memberId)
+            previous.remove(memberId)
+        }
+    }
+
+    private companion object {
+        const val STRIPES = 16
+
+        // Raw permissions are never negative
+        const val MISSING = -1L
+    }
+}
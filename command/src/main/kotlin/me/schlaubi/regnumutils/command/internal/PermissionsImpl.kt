@@ -28,4 +28,7 @@ open class PermissionsImpl(
     override val serverOwnerExclusive: Boolean,
     override val node: String,
     override val discordPermission: Permission?
-) : Permissions
\ No newline at end of file
+) : Permissions {
+
+    override val requiredPermissions = super.requiredPermissions
+}
\ No newline at end of file
@@ -0,0 +1,151 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.internal
+
+/**
+ * Precompiled char trie over the prefixes of a [CommandClientImpl] (the default prefix, both mention forms and the known guild prefixes).
+ * Messages which do not start with the first char of any of those prefixes are rejected by a single bitmap lookup.
+ * @param defaultPrefix the configured default prefix
+ * @property selfId the id of the bot the mention prefixes have been compiled for
+ * @param acceptMentionPrefix whether the mention forms should be compiled into the trie or not
+ * @param guildPrefixes the custom prefixes of all guilds
+ * @property prefixVersion the [me.schlaubi.regnumutils.command.spi.PrefixIndex.prefixVersion] of the [guildPrefixes]
+ * @see me.schlaubi.regnumutils.command.spi.PrefixIndex
+ */
+internal class PrefixMatcher(
+    defaultPrefix: String,
+    val selfId: Long,
+    acceptMentionPrefix: Boolean,
+    guildPrefixes: Collection<String> = emptyList(),
+    val prefixVersion: Long = 0L
+) {
+
+    /**
+     * The mention of the bot (`<@id>`).
+     */
+    val mention = "<@$selfId>"
+
+    /**
+     * The nickname mention of the bot (`<@!id>`).
+     */
+    val nickMention = "<@!$selfId>"
+
+    private val root = Node()
+
+    // One bit for every possible first char
+    private val firstChars = LongArray(1024)
+
+    init {
+        insert(defaultPrefix, DEFAULT)
+        if (acceptMentionPrefix) {
+            insert(mention, MENTION)
+            insert(nickMention, NICK_MENTION)
+        }
+        guildPrefixes.forEach { insert(it, GUILD) }
+    }
+
+    /**
+     * Matches the beginning of the [content] against all compiled prefixes without allocating.
+     * @return the flags of all prefixes the content starts with or `0` if none matched
+     * @see DEFAULT
+     * @see MENTION
+     * @see NICK_MENTION
+     * @see GUILD
+     */
+    fun match(content: CharSequence): Int {
+        var matched = root.flags
+        if (content.isEmpty() || !mightStartWith(content[0])) {
+            return matched
+        }
+        var node = root
+        for (i in 0 until content.length) {
+            node = node.child(content[i]) ?: break
+            matched = matched or node.flags
+        }
+        return matched
+    }
+
+    /**
+     * Whether any of the compiled prefixes starts with [char] or not.
+     */
+    fun mightStartWith(char: Char): Boolean {
+        val code = char.toInt()
+        return firstChars[code ushr 6] and (1L shl code) != 0L
+    }
+
+    private fun insert(prefix: String, flag: Int) {
+        if (prefix.isNotEmpty()) {
+            val code = prefix[0].toInt()
+            firstChars[code ushr 6] = firstChars[code ushr 6] or (1L shl code)
+        }
+        var node = root
+        prefix.forEach { node = node.childOrCreate(it) }
+        node.flags = node.flags or flag
+    }
+
+    private class Node {
+        private var keys = CharArray(0)
+        private var children = arrayOfNulls<Node>(0)
+        var flags = 0
+
+        fun child(char: Char): Node? {
+            // Nodes rarely have more than one child so a linear scan beats any lookup structure
+            for (i in keys.indices) {
+                if (keys[i] == char) {
+                    return children[i]
+                }
+            }
+            return null
+        }
+
+        fun childOrCreate(char: Char): Node {
+            val existing = child(char)
+            if (existing != null) {
+                return existing
+            }
+            val node = Node()
+            keys = keys.copyOf(keys.size + 1).also { it[keys.size] = char }
+            children = children.copyOf(children.size + 1).also { it[children.size] = node }
+            return node
+        }
+    }
+
+    companion object {
+        /**
+         * Flag for the default prefix.
+         */
+        const val DEFAULT = 1
+
+        /**
+         * Flag for the `<@id>` mention prefix.
+         */
+        const val MENTION = 1 shl 1
+
+        /**
+         * Flag for the `<@!id>` mention prefix.
+         */
+        const val NICK_MENTION = 1 shl 2
+
+        /**
+         * Flag for any of the known guild prefixes.
+         */
+        const val GUILD = 1 shl 3
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.internal
+
+import me.schlaubi.regnumutils.command.spi.Command
+import me.schlaubi.regnumutils.command.spi.Context
+import me.schlaubi.regnumutils.command.spi.RateLimit
+import me.schlaubi.regnumutils.common.collections.LongObjectMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Enforces the [RateLimit]s of commands using token buckets.
+ * Buckets are refilled lazily when they are accessed. Every [SWEEP_INTERVAL] acquisitions the next stripe of all commands
+ * is swept and its idle buckets get evicted, so no background thread is needed,
+ * a single acquisition never sweeps all buckets at once and buckets of rarely hit stripes or commands do not stay around forever.
+ */
+internal class RateLimiter {
+
+    private val origin = System.nanoTime()
+    private val buckets = ConcurrentHashMap<Command, Array<Stripe>>()
+    private val acquisitions = AtomicInteger()
+    private val sweepCursor = AtomicInteger()
+
+    /**
+     * The amount of buckets currently held by all commands.
+     */
+    val bucketCount: Int
+        get() = buckets.values.sumBy { stripes -> stripes.sumBy { it.size } }
+
+    /**
+     * Takes one use of the [RateLimit] of the command of the [context].
+     * @return `0` if the command can be executed or the milliseconds after which the next use is available
+     */
+    fun acquire(context: Context): Long {
+        val command = context.command
+        val rateLimit = command.rateLimit ?: return 0
+        val key = when (rateLimit.scope) {
+            RateLimit.Scope.USER -> context.author.idLong
+            RateLimit.Scope.GUILD -> context.guild.idLong
+            RateLimit.Scope.CHANNEL -> context.channel.idLong
+            RateLimit.Scope.GLOBAL -> 0L
+        }
+        val now = now()
+        if (acquisitions.incrementAndGet() and (SWEEP_INTERVAL - 1) == 0) {
+            sweepStripe(sweepCursor.getAndIncrement() and (STRIPES - 1), now)
+        }
+        val stripe = buckets.computeIfAbsent(command) { Array(STRIPES) { Stripe() } }[stripe(key)]
+        while (true) {
+            val wait = stripe.bucket(key, rateLimit, now).acquire(rateLimit, now)
+            // The bucket got evicted concurrently, its replacement holds the uses from now on
+            if (wait != EVICTED) {
+                return wait
+            }
+        }
+    }
+
+    /**
+     * Evicts the idle buckets of all commands.
+     */
+    fun sweep() {
+        val now = now()
+        repeat(STRIPES) { sweepStripe(it, now) }
+    }
+
+    /**
+     * Resets all uses of the [command].
+     */
+    fun reset(command: Command) {
+        buckets.remove(command)
+    }
+
+    /**
+     * Resets the uses of all commands.
+     */
+    fun resetAll() = buckets.clear()
+
+    private fun now() = (System.nanoTime() - origin) / 1_000_000
+
+    private fun sweepStripe(stripe: Int, now: Long) {
+        buckets.forEach { (command, stripes) ->
+            val rateLimit = command.rateLimit
+            if (rateLimit == null) {
+                buckets.remove(command)
+            } else {
+                stripes[stripe].evictIdle(rateLimit, now)
+            }
+        }
+    }
+
+    private class Stripe {
+        private val buckets = LongObjectMap<Bucket>()
+
+        val size: Int
+            @Synchronized get() = buckets.size
+
+        @Synchronized
+        fun bucket(key: Long, rateLimit: RateLimit, now: Long) =
+            buckets[key] ?: Bucket(rateLimit.uses, now).also { buckets[key] = it }
+
+        // A bucket that got completely refilled behaves like a new one
+        @Synchronized
+        fun evictIdle(rateLimit: RateLimit, now: Long) {
+            if (buckets.isEmpty()) {
+                return
+            }
+            buckets.keys().forEach { key ->
+                if (buckets[key]!!.evictIfIdle(rateLimit.periodMillis, now)) {
+                    buckets.remove(key)
+                }
+            }
+        }
+    }
+
+    // Packs the time of the last refill in the upper 48 and the available uses in the lower 16 bits
+    private class Bucket(uses: Int, now: Long) : AtomicLong(pack(now, uses)) {
+
+        // Only succeeds if no acquisition took a use in the meantime, later acquisitions see the bucket as evicted
+        fun evictIfIdle(periodMillis: Long, now: Long): Boolean {
+            val state = get()
+            return state != EVICTED && now - (state ushr 16) >= periodMillis && compareAndSet(state, EVICTED)
+        }
+
+        /**
+         * @return `0` if a use got taken, the milliseconds until the next use or [EVICTED] if the bucket got evicted
+         */
+        fun acquire(rateLimit: RateLimit, now: Long): Long {
+            val capacity = rateLimit.uses
+            val interval = Math.max(1, rateLimit.periodMillis / capacity)
+            while (true) {
+                val state = get()
+                if (state == EVICTED) {
+                    return EVICTED
+                }
+                var uses = (state and 0xFFFF).toInt()
+                var last = state ushr 16
+                val refilled = (now - last) / interval
+                if (refilled > 0) {
+                    uses = Math.min(capacity.toLong(), uses + refilled).toInt()
+                    last = if (uses == capacity) now else last + refilled * interval
+                }
+                if (uses == 0) {
+                    return last + interval - now
+                }
+                if (compareAndSet(state, pack(last, uses - 1))) {
+                    return 0
+                }
+            }
+        }
+    }
+
+    private companion object {
+        const val STRIPES = 16
+        // Every stripe is swept once per 4096 acquisitions
+        const val SWEEP_INTERVAL = 4096 / STRIPES
+
+        // A state no bucket can reach as the time of the last refill would overflow
+        const val EVICTED = -1L
+
+        fun pack(lastRefill: Long, uses: Int) = (lastRefill shl 16) or uses.toLong()
+
+        fun stripe(key: Long) = ((key * -7046029254386353131L) ushr 60).toInt()
+    }
+}
@@ -19,6 +19,7 @@
 
 package me.schlaubi.regnumutils.command.spi
 
+import me.schlaubi.regnumutils.command.internal.CommandRegistry
 import me.schlaubi.regnumutils.command.spi.permission.Permissions
 import me.schlaubi.regnumutils.command.util.put
 
@@ -29,6 +30,7 @@ import me.schlaubi.regnumutils.command.util.put
  * @property aliases the command's aliases
  * @property description the command's description
  * @property exampleUsage the command's example usage
+ * @property rateLimit the command's [RateLimit]
  */
 abstract class AbstractCommand @JvmOverloads constructor(
     override val displayName: String,
@@ -36,10 +38,11 @@ abstract class AbstractCommand @JvmOverloads constructor(
     override val aliases: Array<String>,
     override val description: String,
     override val usage: String = "",
-    override val exampleUsage: String = ""
+    override val exampleUsage: String = "",
+    override val rateLimit: RateLimit? = null
 ) : Command {
 
-    final override val subCommandAssociations = mutableMapOf<String, Command>()
+    final override val subCommandAssociations: MutableMap<String, Command> = CommandRegistry()
 
     /**
      * Normal command interface.
@@ -66,6 +66,24 @@ interface Arguments : Iterable<String> {
      */
     fun array(to: Int) = array.slice(0..to)
 
+    /**
+     * Returns the arguments [from] [to] exactly like the user typed them, including the whitespace and quotes in between.
+     * This is the cheapest way of getting the "rest of the message".
+     */
+    fun raw(from: Int, to: Int) = string(from, to, " ")
+
+    /**
+     * Returns the arguments starting at [from] exactly like the user typed them.
+     * @see Arguments.raw
+     */
+    fun raw(from: Int) = raw(from, size)
+
+    /**
+     * Returns all arguments exactly like the user typed them.
+     * @see Arguments.raw
+     */
+    fun raw() = raw(0, size)
+
     /**
      * Creates a string from all the elements separated using [separator] and using the given [prefix] and [postfix] if supplied.
      *
@@ -0,0 +1,54 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.spi
+
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Member
+import java.util.concurrent.CompletionStage
+
+/**
+ * [InformationProvider] for I/O backed information like prefixes stored in a database.
+ * The command client does not block the event thread while waiting for [getPrefixAsync] or [isOwnerAsync],
+ * the message gets parsed by the thread completing the lookup instead and only the command itself is submitted to the executor.
+ * Lookups should therefore be completed on a thread which can afford parsing a message, e.g. the I/O thread of a driver.
+ * Lookups that are already completed, e.g. cached ones, are processed directly.
+ */
+interface AsyncInformationProvider : InformationProvider {
+
+    /**
+     * Whether the [member] is a bot owner or not.
+     */
+    fun isOwnerAsync(member: Member): CompletionStage<Boolean>
+
+    /**
+     * The custom prefix for the [guild] or `null` if there is no custom prefix.
+     */
+    fun getPrefixAsync(guild: Guild): CompletionStage<String?>
+
+    /**
+     * Blocks until [isOwnerAsync] completed.
+     */
+    override fun isOwner(member: Member): Boolean = isOwnerAsync(member).toCompletableFuture().join()
+
+    /**
+     * Blocks until [getPrefixAsync] completed.
+     */
+    override fun getPrefix(guild: Guild): String? = getPrefixAsync(guild).toCompletableFuture().join()
+}
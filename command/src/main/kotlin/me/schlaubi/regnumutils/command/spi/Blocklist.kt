@@ -0,0 +1,146 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.spi
+
+import net.dv8tion.jda.api.entities.Message
+import java.util.Arrays
+
+/**
+ * [MessageFilter] dropping messages of blocked users and guilds.
+ * The ids are kept in sorted arrays which are replaced on every change, so checks never need a lock.
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class Blocklist @JvmOverloads constructor(users: Collection<Long> = emptyList(), guilds: Collection<Long> = emptyList()) :
+    MessageFilter {
+
+    @Volatile
+    private var snapshot = Snapshot(sorted(users), sorted(guilds))
+
+    /**
+     * The amount of blocked users.
+     */
+    val blockedUsers: Int
+        get() = snapshot.users.size
+
+    /**
+     * The amount of blocked guilds.
+     */
+    val blockedGuilds: Int
+        get() = snapshot.guilds.size
+
+    override fun accept(message: Message): Boolean {
+        val snapshot = snapshot
+        return Arrays.binarySearch(snapshot.users, message.author.idLong) < 0 &&
+                Arrays.binarySearch(snapshot.guilds, message.guild.idLong) < 0
+    }
+
+    /**
+     * Whether the user with the [userId] is blocked.
+     */
+    fun isUserBlocked(userId: Long) = Arrays.binarySearch(snapshot.users, userId) >= 0
+
+    /**
+     * Whether the guild with the [guildId] is blocked.
+     */
+    fun isGuildBlocked(guildId: Long) = Arrays.binarySearch(snapshot.guilds, guildId) >= 0
+
+    /**
+     * Replaces all blocked [users] and [guilds].
+     */
+    @Synchronized
+    fun reload(users: Collection<Long>, guilds: Collection<Long>) {
+        snapshot = Snapshot(sorted(users), sorted(guilds))
+    }
+
+    /**
+     * Blocks the user with the [userId].
+     */
+    @Synchronized
+    fun blockUser(userId: Long) {
+        snapshot = snapshot.run { Snapshot(insert(users, userId), guilds) }
+    }
+
+    /**
+     * Unblocks the user with the [userId].
+     */
+    @Synchronized
+    fun unblockUser(userId: Long) {
+        snapshot = snapshot.run { Snapshot(delete(users, userId), guilds) }
+    }
+
+    /**
+     * Blocks the guild with the [guildId].
+     */
+    @Synchronized
+    fun blockGuild(guildId: Long) {
+        snapshot = snapshot.run { Snapshot(users, insert(guilds, guildId)) }
+    }
+
+    /**
+     * Unblocks the guild with the [guildId].
+     */
+    @Synchronized
+    fun unblockGuild(guildId: Long) {
+        snapshot = snapshot.run { Snapshot(users, delete(guilds, guildId)) }
+    }
+
+    private class Snapshot(val users: LongArray, val guilds: LongArray)
+
+    private companion object {
+        fun sorted(ids: Collection<Long>) = ids.toLongArray().apply { sort() }.withoutDuplicates()
+
+        fun LongArray.withoutDuplicates(): LongArray {
+            if (size < 2) {
+                return this
+            }
+            var length = 1
+            for (i in 1 until size) {
+                if (this[i] != this[length - 1]) {
+                    this[length++] = this[i]
+                }
+            }
+            return copyOf(length)
+        }
+
+        fun insert(ids: LongArray, id: Long): LongArray {
+            val index = Arrays.binarySearch(ids, id)
+            if (index >= 0) {
+                return ids
+            }
+            val position = -(index + 1)
+            val result = LongArray(ids.size + 1)
+            System.arraycopy(ids, 0, result, 0, position)
+            result[position] = id
+            System.arraycopy(ids, position, result, position + 1, ids.size - position)
+            return result
+        }
+
+        fun delete(ids: LongArray, id: Long): LongArray {
+            val index = Arrays.binarySearch(ids, id)
+            if (index < 0) {
+                return ids
+            }
+            val result = LongArray(ids.size - 1)
+            System.arraycopy(ids, 0, result, 0, index)
+            System.arraycopy(ids, index + 1, result, index, ids.size - index - 1)
+            return result
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.spi
+
+import me.schlaubi.regnumutils.common.collections.LongObjectMap
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Member
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionStage
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * [InformationProvider] which caches the prefixes of the [delegate] per guild.
+ * Once more than [maximumSize] guilds are cached the least recently used entry gets evicted.
+ * Entries are reloaded from the [delegate] after they have been cached longer than the specified expiry.
+ *
+ * Call [invalidate] whenever the prefix of a guild changes.
+ * If the [delegate] is an [AsyncInformationProvider] cache misses are loaded asynchronously and hits complete immediately.
+ * This provider does not implement [PrefixIndex] as it only knows the cached prefixes,
+ * the command client reads the known prefixes from the [delegate] if it implements [PrefixIndex].
+ * @param expireAfter the time after which an entry needs to be reloaded or `0` if entries should never expire
+ * @param unit the [TimeUnit] of [expireAfter]
+ * @see me.schlaubi.regnumutils.command.CommandClientBuilder.enablePrefixCache
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class CachingInformationProvider @JvmOverloads constructor(
+    val delegate: InformationProvider,
+    val maximumSize: Int = 10_000,
+    expireAfter: Long = 10,
+    unit: TimeUnit = TimeUnit.MINUTES
+) : AsyncInformationProvider {
+
+    private val expireAfterNanos = if (expireAfter > 0) unit.toNanos(expireAfter) else Long.MAX_VALUE
+
+    private val entries = LongObjectMap<Entry>()
+
+    // Sentinel of the LRU list, head.next is the most recently used entry
+    private val head = Entry(0L, null, 0L)
+
+    @Volatile
+    private var invalidations = 0L
+
+    private val hits = LongAdder()
+    private val misses = LongAdder()
+    private val evictions = LongAdder()
+    private val loadTime = LongAdder()
+
+    /**
+     * The amount of prefixes that were served from the cache.
+     */
+    val hitCount: Long
+        get() = hits.sum()
+
+    /**
+     * The amount of prefixes that had to be loaded from the [delegate].
+     */
+    val missCount: Long
+        get() = misses.sum()
+
+    /**
+     * The amount of entries that got evicted because the cache was full.
+     */
+    val evictionCount: Long
+        get() = evictions.sum()
+
+    /**
+     * The total time in nanoseconds spent loading prefixes from the [delegate].
+     */
+    val totalLoadTime: Long
+        get() = loadTime.sum()
+
+    /**
+     * The average time in nanoseconds it took to load a prefix from the [delegate].
+     */
+    val averageLoadPenalty: Double
+        get() = misses.sum().let { if (it == 0L) 0.0 else loadTime.sum().toDouble() / it }
+
+    /**
+     * The ratio of requests that were served from the cache.
+     */
+    val hitRate: Double
+        get() {
+            val served = hits.sum()
+            val requests = served + misses.sum()
+            return if (requests == 0L) 1.0 else served.toDouble() / requests
+        }
+
+    /**
+     * The amount of currently cached guilds.
+     */
+    val size: Int
+        get() = synchronized(entries) { entries.size }
+
+    init {
+        require(maximumSize > 0) { "Maximum size must be greater than 0" }
+        head.previous = head
+        head.next = head
+    }
+
+    override fun isOwner(member: Member) = delegate.isOwner(member)
+
+    override fun isOwnerAsync(member: Member): CompletionStage<Boolean> =
+        if (delegate is AsyncInformationProvider) delegate.isOwnerAsync(member)
+        else CompletableFuture.completedFuture(delegate.isOwner(member))
+
+    override fun getPrefix(guild: Guild): String? {
+        val id = guild.idLong
+        val start = System.nanoTime()
+        val entry = lookup(id, start)
+        if (entry != null) {
+            return entry.prefix
+        }
+        val generation = invalidations
+        // Load outside of the lock so a slow delegate does not block cache hits for other guilds
+        val prefix = delegate.getPrefix(guild)
+        loaded(id, prefix, start, generation)
+        return prefix
+    }
+
+    override fun getPrefixAsync(guild: Guild): CompletionStage<String?> {
+        if (delegate !is AsyncInformationProvider) {
+            return CompletableFuture.completedFuture(getPrefix(guild))
+        }
+        val id = guild.idLong
+        val start = System.nanoTime()
+        val entry = lookup(id, start)
+        if (entry != null) {
+            return CompletableFuture.completedFuture(entry.prefix)
+        }
+        val generation = invalidations
+        return delegate.getPrefixAsync(guild).thenApply {
+            loaded(id, it, start, generation)
+            it
+        }
+    }
+
+    /**
+     * Removes the cached prefix of the guild with the specified [guildId] so it gets reloaded on the next message.
+     */
+    fun invalidate(guildId: Long) = synchronized(entries) {
+        invalidations++
+        entries.remove(guildId)?.unlink()
+        Unit
+    }
+
+    /**
+     * Removes the cached prefix of the [guild].
+     * @see CachingInformationProvider.invalidate
+     */
+    fun invalidate(guild: Guild) = invalidate(guild.idLong)
+
+    /**
+     * Removes all cached prefixes.
+     */
+    fun invalidateAll() = synchronized(entries) {
+        invalidations++
+        entries.clear()
+        head.previous = head
+        head.next = head
+    }
+
+    private fun lookup(id: Long, now: Long): Entry? {
+        synchronized(entries) {
+            val entry = entries[id]
+            if (entry != null && now - entry.loadedAt < expireAfterNanos) {
+                entry.unlink()
+                entry.linkAfter(head)
+                hits.increment()
+                return entry
+            }
+        }
+        misses.increment()
+        return null
+    }
+
+    private fun loaded(id: Long, prefix: String?, start: Long, generation: Long) {
+        val loadedAt = System.nanoTime()
+        loadTime.add(loadedAt - start)
+        synchronized(entries) {
+            // Do not cache a value which might have been loaded before the prefix changed
+            if (generation == invalidations) {
+                store(id, prefix, loadedAt)
+            }
+        }
+    }
+
+    // Callers have to hold the lock of entries
+    private fun store(id: Long, prefix: String?, loadedAt: Long) {
+        val entry = Entry(id, prefix, loadedAt)
+        entries.put(id, entry)?.unlink()
+        entry.linkAfter(head)
+        if (entries.size > maximumSize) {
+            val eldest = head.previous
+            eldest.unlink()
+            entries.remove(eldest.guildId)
+            evictions.increment()
+        }
+    }
+
+    private class Entry(val guildId: Long, val prefix: String?, val loadedAt: Long) {
+        lateinit var previous: Entry
+        lateinit var next: Entry
+
+        fun linkAfter(node: Entry) {
+            previous = node
+            next = node.next
+            node.next.previous = this
+            node.next = this
+        }
+
+        fun unlink() {
+            previous.next = next
+            next.previous = previous
+        }
+    }
+}
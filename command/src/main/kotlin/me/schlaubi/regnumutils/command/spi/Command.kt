@@ -45,6 +45,8 @@ interface Command {
 
     /**
      * All aliases of this command.
+     * Invokes are matched against the aliases ignoring case, char by char as [Character.toLowerCase] folds them.
+     * Aliases therefore no longer have to be lower case, but aliases only differing in case collide.
      */
     val aliases: Array<String>
 
@@ -63,6 +65,12 @@ interface Command {
      */
     val exampleUsage: String
 
+    /**
+     * The [RateLimit] of the command or `null` if it is not rate limited.
+     */
+    val rateLimit: RateLimit?
+        get() = null
+
     /**
      * The commands sub-commands.
      */
@@ -0,0 +1,35 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.spi
+
+import net.dv8tion.jda.api.entities.Message
+
+/**
+ * Filter deciding whether a message should be parsed as a command at all.
+ * Filters run before the prefix is resolved, so they should be cheap.
+ * @see Blocklist
+ */
+interface MessageFilter {
+
+    /**
+     * Whether the [message] should be parsed or dropped.
+     */
+    fun accept(message: Message): Boolean
+}
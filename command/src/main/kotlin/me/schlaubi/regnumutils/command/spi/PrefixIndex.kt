@@ -0,0 +1,45 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.spi
+
+/**
+ * Optional extension of an [InformationProvider] which knows every custom prefix that is currently in use.
+ * If the information provider implements this interface the command client compiles those prefixes into its prefix matcher
+ * and rejects messages which cannot start with any prefix without calling [InformationProvider.getPrefix].
+ * Otherwise the prefix of the guild has to be looked up for every message.
+ *
+ * A [CachingInformationProvider] does not implement this interface itself as it only knows the prefixes of the cached guilds,
+ * the command client uses the [CachingInformationProvider.delegate] instead if it is a prefix index.
+ * Any other wrapper around a prefix index needs to implement this interface itself.
+ */
+interface PrefixIndex {
+
+    /**
+     * All custom prefixes which are currently in use by any guild.
+     * This is only read when the [prefixVersion] changed.
+     */
+    val knownPrefixes: Collection<String>
+
+    /**
+     * Version of the [knownPrefixes] which has to be incremented whenever a prefix is added or removed.
+     * This is read for every message, the prefix matcher is only recompiled when the version changes.
+     */
+    val prefixVersion: Long
+}
@@ -0,0 +1,82 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.spi
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Limits how often a [Command] can be used.
+ * Every [scope] can use the command [uses] times per [period], used up uses are refilled continuously.
+ * @property uses the maximum amount of uses per [period]
+ * @property period the duration in which all uses are refilled
+ * @property unit the [TimeUnit] of [period]
+ * @property scope the [Scope] sharing the uses
+ * @see Command.rateLimit
+ */
+data class RateLimit @JvmOverloads constructor(
+    val uses: Int,
+    val period: Long,
+    val unit: TimeUnit = TimeUnit.SECONDS,
+    val scope: Scope = Scope.USER
+) {
+
+    init {
+        require(uses in 1..MAX_USES) { "Uses must be between 1 and $MAX_USES" }
+        require(period > 0) { "Period must be greater than 0" }
+    }
+
+    /**
+     * The period in milliseconds.
+     */
+    val periodMillis: Long
+        get() = unit.toMillis(period)
+
+    /**
+     * Decides who shares the uses of a [RateLimit].
+     */
+    enum class Scope {
+        /**
+         * Every user has its own uses.
+         */
+        USER,
+
+        /**
+         * Every guild has its own uses.
+         */
+        GUILD,
+
+        /**
+         * Every channel has its own uses.
+         */
+        CHANNEL,
+
+        /**
+         * All invocations share the same uses.
+         */
+        GLOBAL
+    }
+
+    companion object {
+        /**
+         * The maximum amount of uses of a [RateLimit].
+         */
+        const val MAX_USES = 0xFFFF
+    }
+}
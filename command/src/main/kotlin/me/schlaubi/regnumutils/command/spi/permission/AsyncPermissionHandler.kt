@@ -0,0 +1,42 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.spi.permission
+
+import me.schlaubi.regnumutils.command.spi.Context
+import java.util.concurrent.CompletionStage
+
+/**
+ * [PermissionHandler] which might need I/O to decide, e.g. to ask an async information provider whether a member is a bot owner.
+ * The command client does not block while waiting for [isCoveredAsync], the command is dispatched by the thread
+ * completing the check instead.
+ * @see me.schlaubi.regnumutils.command.spi.AsyncInformationProvider
+ */
+interface AsyncPermissionHandler : PermissionHandler {
+
+    /**
+     * @return Whether the command can be executed in this [context] or not
+     */
+    fun isCoveredAsync(context: Context): CompletionStage<Boolean>
+
+    /**
+     * Blocks until [isCoveredAsync] completed.
+     */
+    override fun isCovered(context: Context): Boolean = isCoveredAsync(context).toCompletableFuture().join()
+}
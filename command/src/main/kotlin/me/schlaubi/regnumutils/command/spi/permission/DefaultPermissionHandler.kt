@@ -19,45 +19,177 @@
 
 package me.schlaubi.regnumutils.command.spi.permission
 
+import cc.hawkbot.regnum.client.event.EventSubscriber
+import me.schlaubi.regnumutils.command.internal.PermissionCache
+import me.schlaubi.regnumutils.command.spi.AsyncInformationProvider
 import me.schlaubi.regnumutils.command.spi.Context
 import me.schlaubi.regnumutils.command.util.isBotOwner
+import me.schlaubi.regnumutils.common.event.JDAListenerAdapter
 import net.dv8tion.jda.api.Permission
+import net.dv8tion.jda.api.events.ReconnectedEvent
+import net.dv8tion.jda.api.events.ResumedEvent
+import net.dv8tion.jda.api.events.channel.category.CategoryDeleteEvent
+import net.dv8tion.jda.api.events.channel.category.update.CategoryUpdatePermissionsEvent
+import net.dv8tion.jda.api.events.channel.text.TextChannelDeleteEvent
+import net.dv8tion.jda.api.events.channel.text.update.TextChannelUpdateParentEvent
+import net.dv8tion.jda.api.events.channel.text.update.TextChannelUpdatePermissionsEvent
+import net.dv8tion.jda.api.events.guild.GuildAvailableEvent
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent
+import net.dv8tion.jda.api.events.guild.GuildUnavailableEvent
+import net.dv8tion.jda.api.events.guild.member.GuildMemberLeaveEvent
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleRemoveEvent
+import net.dv8tion.jda.api.events.guild.update.GuildUpdateOwnerEvent
+import net.dv8tion.jda.api.events.role.RoleDeleteEvent
+import net.dv8tion.jda.api.events.role.update.RoleUpdatePermissionsEvent
+import net.dv8tion.jda.api.hooks.SubscribeEvent
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionStage
+import java.util.concurrent.TimeUnit
 
 /**
  * Default implementation of [PermissionHandler]
+ * The effective permissions of members are cached per channel, so this handler needs to be registered as an event listener to invalidate them.
+ * Cached permissions additionally expire after the configured time and are dropped completely when a shard reconnects or resumes,
+ * because events could have been missed in the meantime.
+ * Owners are the [configured owners][me.schlaubi.regnumutils.command.configuration.CommandClientConfiguration.ownerIds] only.
+ * If [askInformationProvider] is enabled, members which are not configured as owners are additionally checked with the
+ * [InformationProvider][me.schlaubi.regnumutils.command.spi.InformationProvider], asynchronously if it is an [AsyncInformationProvider].
+ * Server owner exclusive commands are checked with the guild wide [Permission.MANAGE_SERVER] permission like before,
+ * all other required permissions with the cached effective permissions in the channel.
+ * @param expireAfter the time after which cached permissions get recomputed
+ * @param unit the [TimeUnit] of [expireAfter]
+ * @property askInformationProvider whether the information provider decides about members which are not configured as owners
+ * @see Permissions.requiredPermissions
  */
-class DefaultPermissionHandler : PermissionHandler {
+class DefaultPermissionHandler @JvmOverloads constructor(
+    expireAfter: Long = 5,
+    unit: TimeUnit = TimeUnit.MINUTES,
+    val askInformationProvider: Boolean = false
+) : JDAListenerAdapter(), AsyncPermissionHandler {
 
-    override fun isCovered(context: Context): Boolean {
+    private val cache = PermissionCache(unit.toNanos(expireAfter))
+
+    override fun isCoveredAsync(context: Context): CompletionStage<Boolean> {
         val permissions = context.command.permissions
 
         // Public command
         if (permissions.public) {
-            return true
+            return COVERED
         }
 
-        // Owner permission
-        val member = context.member
-        val commandClient = context.commandClient
-        if (commandClient.config.ownerPermission and member.isBotOwner(commandClient)) {
-            return true
+        // Only ask whether the member is an owner if the decision depends on it
+        val ownerPermission = context.commandClient.config.ownerPermission
+        if (!ownerPermission and !permissions.ownerExclusive) {
+            return CompletableFuture.completedFuture(hasRequiredPermissions(context))
         }
-
-        // Check bot owner
-        if (permissions.ownerExclusive) {
-            return member.isBotOwner(commandClient)
+        return isOwner(context).thenApply { owner ->
+            when {
+                // Owner permission
+                owner and ownerPermission -> true
+                // Check bot owner
+                permissions.ownerExclusive -> owner
+                else -> hasRequiredPermissions(context)
+            }
         }
+    }
 
-        // Check server owner
+    // Check server owner and discord permission
+    private fun hasRequiredPermissions(context: Context): Boolean {
+        val permissions = context.command.permissions
         if (permissions.serverOwnerExclusive) {
             return context.member.hasPermission(Permission.MANAGE_SERVER)
         }
-
-        // Check for discord permission
-        val discordPermission = permissions.discordPermission
-        if (discordPermission != null) {
-            return member.hasPermission(context.channel, discordPermission)
+        val required = permissions.requiredPermissions
+        if (required != 0L) {
+            return cache.effectivePermissions(context.member, context.channel) and required == required
         }
         return false // Just in case of a misconfiguration
     }
+
+    // Configured owners are known without asking the information provider
+    private fun isOwner(context: Context): CompletionStage<Boolean> {
+        val member = context.member
+        val commandClient = context.commandClient
+        if (member.isBotOwner(commandClient)) {
+            return COVERED
+        }
+        if (!askInformationProvider) {
+            return NOT_COVERED
+        }
+        val provider = commandClient.informationProvider
+        return if (provider is AsyncInformationProvider) provider.isOwnerAsync(member)
+        else CompletableFuture.completedFuture(provider.isOwner(member))
+    }
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onRoleUpdatePermissions(event: RoleUpdatePermissionsEvent) = cache.invalidate(event.guild)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onRoleDelete(event: RoleDeleteEvent) = cache.invalidate(event.guild)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onGuildUpdateOwner(event: GuildUpdateOwnerEvent) = cache.invalidate(event.guild)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onGuildLeave(event: GuildLeaveEvent) = cache.invalidate(event.guild)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onGuildAvailable(event: GuildAvailableEvent) = cache.invalidate(event.guild)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onGuildUnavailable(event: GuildUnavailableEvent) = cache.invalidate(event.guild)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onReconnect(event: ReconnectedEvent) = cache.invalidateAll()
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onResume(event: ResumedEvent) = cache.invalidateAll()
+
+    // Channels which are synced with their category inherit its overrides
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onCategoryUpdatePermissions(event: CategoryUpdatePermissionsEvent) = cache.invalidate(event.guild)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onCategoryDelete(event: CategoryDeleteEvent) = cache.invalidate(event.guild)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onTextChannelUpdateParent(event: TextChannelUpdateParentEvent) = cache.invalidate(event.channel)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onTextChannelUpdatePermissions(event: TextChannelUpdatePermissionsEvent) =
+        cache.invalidate(event.channel)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onTextChannelDelete(event: TextChannelDeleteEvent) = cache.invalidate(event.channel)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onGuildMemberRoleAdd(event: GuildMemberRoleAddEvent) = cache.invalidate(event.member)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onGuildMemberRoleRemove(event: GuildMemberRoleRemoveEvent) = cache.invalidate(event.member)
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onGuildMemberLeave(event: GuildMemberLeaveEvent) = cache.invalidate(event.member)
+
+    private companion object {
+        val COVERED: CompletionStage<Boolean> = CompletableFuture.completedFuture(true)
+        val NOT_COVERED: CompletionStage<Boolean> = CompletableFuture.completedFuture(false)
+    }
 }
\ No newline at end of file
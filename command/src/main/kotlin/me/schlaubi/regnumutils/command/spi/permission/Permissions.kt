@@ -51,6 +51,16 @@ interface Permissions {
      */
     val discordPermission: Permission?
 
+    /**
+     * The raw Discord permissions a member needs to execute the command or `0` if there are none.
+     * @see Permission.getRawValue
+     */
+    val requiredPermissions: Long
+        get() = when {
+            serverOwnerExclusive -> Permission.MANAGE_SERVER.rawValue
+            else -> discordPermission?.rawValue ?: 0L
+        }
+
     companion object {
         private val publicPermission =
             PermissionsImpl(true, false, false, "public", null)
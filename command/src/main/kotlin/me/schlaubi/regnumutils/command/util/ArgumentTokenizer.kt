@@ -0,0 +1,205 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.command.util
+
+import java.nio.CharBuffer
+
+/**
+ * Splits user input into whitespace separated arguments without compiling any regex.
+ * A token starting with `"` spans until the next `"` and can therefore contain whitespace.
+ * If there is no closing quote the quote is treated like any other char.
+ *
+ * Tokens are represented as a [Long] packing the start and the end offset so looking for an invoke does not allocate.
+ * @see Tokens
+ */
+@Suppress("MemberVisibilityCanBePrivate")
+object ArgumentTokenizer {
+
+    /**
+     * Returned by [nextToken] if there is no token left.
+     */
+    const val NO_TOKEN = -1L
+
+    private const val QUOTE = '"'
+
+    /**
+     * Finds the next token in [content] starting at [from].
+     * @return the packed token or [NO_TOKEN] if there are no more tokens
+     * @see start
+     * @see end
+     * @see next
+     */
+    @JvmStatic
+    fun nextToken(content: CharSequence, from: Int): Long {
+        val length = content.length
+        var start = from
+        while (start < length && isWhitespace(content[start])) {
+            start++
+        }
+        if (start >= length) {
+            return NO_TOKEN
+        }
+        if (content[start] == QUOTE) {
+            for (closing in start + 1 until length) {
+                if (content[closing] == QUOTE) {
+                    return pack(start + 1, closing)
+                }
+            }
+        }
+        var end = start + 1
+        while (end < length && !isWhitespace(content[end])) {
+            end++
+        }
+        return pack(start, end)
+    }
+
+    /**
+     * The offset of the first char of the [token].
+     */
+    @JvmStatic
+    fun start(token: Long) = (token ushr 32).toInt()
+
+    /**
+     * The offset after the last char of the [token].
+     */
+    @JvmStatic
+    fun end(token: Long) = token.toInt()
+
+    /**
+     * The offset to continue scanning at after the [token].
+     */
+    @JvmStatic
+    fun next(token: Long) = end(token) + 1 // Skips the separator or the closing quote
+
+    /**
+     * Splits all of [content] starting at [from] into [Tokens].
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun tokenize(content: String, from: Int = 0): Tokens {
+        var bounds = IntArray(8)
+        var size = 0
+        var position = from
+        while (true) {
+            val token = nextToken(content, position)
+            if (token == NO_TOKEN) {
+                break
+            }
+            if (size * 2 == bounds.size) {
+                bounds = bounds.copyOf(bounds.size * 2)
+            }
+            val start = start(token)
+            // Unquoted tokens start at the scan position or after whitespace, so a quote in front marks a quoted token
+            val quoted = start > position && content[start - 1] == QUOTE
+            bounds[size * 2] = start
+            bounds[size * 2 + 1] = if (quoted) end(token) or QUOTED else end(token)
+            size++
+            position = next(token)
+        }
+        return Tokens(content, bounds, size)
+    }
+
+    /**
+     * Whether [char] separates two arguments or not.
+     * Matches the same chars as `\s` in a regex.
+     */
+    @JvmStatic
+    fun isWhitespace(char: Char) = char == ' ' || char in '\t'..'\r'
+
+    // Flags the end offset of quoted tokens, offsets can never be negative
+    private const val QUOTED = Int.MIN_VALUE
+
+    private fun pack(start: Int, end: Int) = (start.toLong() shl 32) or end.toLong()
+
+    /**
+     * The offsets of all tokens in [content].
+     * Strings are only created when a token is actually read.
+     * @property content the tokenized input
+     * @property size the amount of tokens
+     */
+    class Tokens internal constructor(
+        val content: String,
+        private val bounds: IntArray,
+        val size: Int
+    ) {
+
+        /**
+         * The offset of the first char of the token at [index].
+         */
+        fun start(index: Int): Int {
+            checkIndex(index)
+            return bounds[index * 2]
+        }
+
+        /**
+         * The offset after the last char of the token at [index].
+         */
+        fun end(index: Int): Int {
+            checkIndex(index)
+            return bounds[index * 2 + 1] and QUOTED.inv()
+        }
+
+        /**
+         * The offset of the first char of the token at [index] including its opening quote.
+         */
+        fun rawStart(index: Int) = if (isQuoted(index)) start(index) - 1 else start(index)
+
+        /**
+         * The offset after the last char of the token at [index] including its closing quote.
+         */
+        fun rawEnd(index: Int) = if (isQuoted(index)) end(index) + 1 else end(index)
+
+        /**
+         * Whether the token at [index] was enclosed in quotes or not.
+         */
+        fun isQuoted(index: Int): Boolean {
+            checkIndex(index)
+            return bounds[index * 2 + 1] and QUOTED != 0
+        }
+
+        /**
+         * Returns the token at [index] as a [String].
+         */
+        operator fun get(index: Int): String = content.substring(start(index), end(index))
+
+        /**
+         * Returns the token at [index] as a [CharSequence] without copying it.
+         */
+        fun view(index: Int): CharSequence = CharBuffer.wrap(content, start(index), end(index))
+
+        /**
+         * Returns a [List] view of the tokens.
+         */
+        fun asList(): List<String> = object : AbstractList<String>() {
+            override val size: Int
+                get() = this@Tokens.size
+
+            override fun get(index: Int) = this@Tokens[index]
+        }
+
+        override fun toString() = asList().toString()
+
+        private fun checkIndex(index: Int) {
+            if (index < 0 || index >= size) {
+                throw IndexOutOfBoundsException("Index: $index, Size: $size")
+            }
+        }
+    }
+}
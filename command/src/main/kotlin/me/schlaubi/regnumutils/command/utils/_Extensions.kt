@@ -20,18 +20,20 @@
 package me.schlaubi.regnumutils.command.utils
 
 import me.schlaubi.regnumutils.command.CommandClient
+import me.schlaubi.regnumutils.command.internal.CommandRegistry
 import me.schlaubi.regnumutils.command.spi.Command
 import net.dv8tion.jda.api.entities.ISnowflake
 
 /**
  * Adds all the aliases pointing to the [command] into the map.
  */
-fun MutableMap<String, Command>.put(command: Command) = command.aliases.forEach { put(it, command) }
+fun MutableMap<String, Command>.put(command: Command) =
+    if (this is CommandRegistry) register(command) else command.aliases.forEach { put(it, command) }
 
 /**
  * Checks whether the snowflakes id is in the [commandClient]'s bot owners list or not.
  */
-fun ISnowflake.isBotOwner(commandClient: CommandClient) = idLong in commandClient.config.owners
+fun ISnowflake.isBotOwner(commandClient: CommandClient) = idLong in commandClient.config.ownerIds
 
 /**
  * Extension wrapper.
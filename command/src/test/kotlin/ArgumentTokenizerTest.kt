@@ -0,0 +1,92 @@
+import me.schlaubi.regnumutils.command.internal.ArgumentsImpl
+import me.schlaubi.regnumutils.command.util.ArgumentTokenizer
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests whether the [ArgumentTokenizer] splits like the old `\s+` regex and supports quoted arguments.
+ */
+class ArgumentTokenizerTest {
+
+    /**
+     * Tests plain whitespace separated input.
+     */
+    @Test
+    fun whitespace() {
+        assertEquals(listOf("ban", "someone", "now"), tokenize("ban  someone\tnow"))
+        assertEquals(listOf("ban"), tokenize("  ban  "))
+        assertEquals(emptyList<String>(), tokenize("   "))
+        assertEquals(emptyList<String>(), tokenize(""))
+    }
+
+    /**
+     * Tests quoted arguments.
+     */
+    @Test
+    fun quotes() {
+        assertEquals(listOf("tag", "hello world", "x"), tokenize("tag \"hello world\" x"))
+        assertEquals(listOf("tag", ""), tokenize("tag \"\""))
+        assertEquals(listOf("tag", "\"unclosed", "quote"), tokenize("tag \"unclosed quote"))
+    }
+
+    /**
+     * Tests that tokens know their offsets in the original content.
+     */
+    @Test
+    fun offsets() {
+        val content = "!ban someone"
+        val invoke = ArgumentTokenizer.nextToken(content, 1)
+        assertEquals(1, ArgumentTokenizer.start(invoke))
+        assertEquals(4, ArgumentTokenizer.end(invoke))
+        val tokens = ArgumentTokenizer.tokenize(content, ArgumentTokenizer.next(invoke))
+        assertEquals(1, tokens.size)
+        assertEquals(5, tokens.start(0))
+        assertEquals("someone", tokens.view(0).toString())
+        assertEquals(ArgumentTokenizer.NO_TOKEN, ArgumentTokenizer.nextToken(content, content.length + 1))
+    }
+
+    /**
+     * Tests that raw ranges keep the quotes and whitespace exactly like the user typed them.
+     */
+    @Test
+    fun rawRanges() {
+        val quoted = arguments("\"a b\"  \"c d\" e")
+        assertEquals("\"a b\"  \"c d\"", quoted.raw(0, 2))
+        assertEquals("\"c d\" e", quoted.raw(1))
+        assertEquals("\"a b\"", quoted.raw(0, 1))
+        assertEquals("a b", quoted.string(0, 1, " "))
+        assertEquals("a b c d e", quoted.string(" "))
+        assertEquals("", quoted.raw(1, 1))
+
+        val unquoted = arguments("ban  someone now")
+        assertEquals("ban  someone", unquoted.raw(0, 2))
+        assertEquals("someone now", unquoted.raw(1))
+        assertEquals("ban someone now", unquoted.string(" "))
+
+        val unclosed = arguments("say \"hi there")
+        assertEquals("\"hi there", unclosed.raw(1))
+    }
+
+    private fun arguments(content: String) = ArgumentsImpl(ArgumentTokenizer.tokenize(content))
+
+    private fun tokenize(content: String) = ArgumentTokenizer.tokenize(content).asList()
+}
@@ -0,0 +1,168 @@
+import me.schlaubi.regnumutils.command.CommandClient
+import me.schlaubi.regnumutils.command.CommandClientBuilder
+import me.schlaubi.regnumutils.command.execution.CommandScheduler
+import me.schlaubi.regnumutils.command.execution.RejectionPolicy
+import me.schlaubi.regnumutils.command.spi.AbstractCommand
+import me.schlaubi.regnumutils.command.spi.Arguments
+import me.schlaubi.regnumutils.command.spi.AsyncInformationProvider
+import me.schlaubi.regnumutils.command.spi.Context
+import me.schlaubi.regnumutils.command.spi.permission.AsyncPermissionHandler
+import me.schlaubi.regnumutils.command.spi.permission.PermissionHandler
+import me.schlaubi.regnumutils.command.spi.permission.Permissions
+import net.dv8tion.jda.api.JDA
+import net.dv8tion.jda.api.entities.*
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.mockito.Mockito
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionStage
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeUnit
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests how the [CommandClient] continues dispatching once asynchronous lookups complete.
+ */
+class AsyncDispatchTest {
+
+    private val jda = Mockito.mock(JDA::class.java)
+    private val channel = Mockito.mock(TextChannel::class.java)
+    private val message = Mockito.mock(Message::class.java)
+    private val executed = CompletableFuture<Thread>()
+    private val release = CountDownLatch(1)
+    private var scheduler: CommandScheduler? = null
+
+    init {
+        val author = Mockito.mock(User::class.java)
+        val selfMember = Mockito.mock(Member::class.java)
+        Mockito.`when`(selfMember.idLong).thenReturn(1L)
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.selfMember).thenReturn(selfMember)
+        Mockito.`when`(message.author).thenReturn(author)
+        Mockito.`when`(message.guild).thenReturn(guild)
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.contentRaw).thenReturn("!test")
+    }
+
+    /**
+     * Releases the workers blocked by a test.
+     */
+    @After
+    fun after() {
+        release.countDown()
+        scheduler?.shutdown()
+    }
+
+    /**
+     * Tests that the message is parsed by the thread completing the prefix lookup even if the executor is saturated,
+     * so only the command itself is subject to the rejection policy.
+     */
+    @Test
+    fun saturatedExecutor() {
+        val scheduler = CommandScheduler(1, 1, RejectionPolicy.DROP).also { scheduler = it }
+        // One task blocks the only worker, the other one fills the queue
+        repeat(2) { scheduler.execute(Runnable { release.await() }) }
+        val lookup = CompletableFuture<String?>()
+        var checkedOn: Thread? = null
+        val client = client(scheduler, provider(lookup), object : PermissionHandler {
+            override fun isCovered(context: Context): Boolean {
+                checkedOn = Thread.currentThread()
+                return true
+            }
+        })
+
+        dispatch(client)
+        assertNull(checkedOn)
+        assertEquals(0L, scheduler.rejectedCount)
+
+        lookup.complete(null)
+        assertSame(Thread.currentThread(), checkedOn)
+        assertEquals(1L, scheduler.rejectedCount)
+    }
+
+    /**
+     * Tests that the command is executed once an asynchronous permission check completes.
+     */
+    @Test
+    fun asyncPermissionCheck() {
+        val executor = CommandScheduler().also { scheduler = it }
+        val check = CompletableFuture<Boolean>()
+        val client = client(executor, provider(CompletableFuture.completedFuture(null)), object : AsyncPermissionHandler {
+            override fun isCoveredAsync(context: Context): CompletionStage<Boolean> = check
+        })
+
+        dispatch(client)
+        assertFalse(executed.isDone)
+
+        check.complete(true)
+        executed.get(5, TimeUnit.SECONDS)
+    }
+
+    /**
+     * Tests that a cancelled prefix lookup drops the message instead of failing.
+     */
+    @Test
+    fun cancelledLookup() {
+        val executor = CommandScheduler().also { scheduler = it }
+        val lookup = CompletableFuture<String?>()
+        var checked = false
+        val client = client(executor, provider(lookup), object : PermissionHandler {
+            override fun isCovered(context: Context): Boolean {
+                checked = true
+                return true
+            }
+        })
+
+        dispatch(client)
+        lookup.cancel(false)
+        assertFalse(checked)
+    }
+
+    private fun dispatch(client: CommandClient) =
+        client.dispatchCommand(CommandClient.CommandEvent(jda, 200, 1, channel, message))
+
+    private fun client(executor: ExecutorService, provider: AsyncInformationProvider, handler: PermissionHandler) =
+        CommandClientBuilder(jda)
+            .registerCommands(TestCommand())
+            .setPrefix("!")
+            .sendTyping(false)
+            .setExecutor(executor)
+            .setInformationProvider(provider)
+            .setPermissionHandler(handler)
+            .build()
+
+    private fun provider(lookup: CompletableFuture<String?>) = object : AsyncInformationProvider {
+        override fun isOwnerAsync(member: Member): CompletionStage<Boolean> = CompletableFuture.completedFuture(false)
+
+        override fun getPrefixAsync(guild: Guild): CompletionStage<String?> = lookup
+    }
+
+    private inner class TestCommand : AbstractCommand("Test", Permissions.public(), "test", "Test command") {
+        override fun process(args: Arguments, context: Context) {
+            executed.complete(Thread.currentThread())
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import me.schlaubi.regnumutils.command.internal.CommandRegistry
+import me.schlaubi.regnumutils.command.spi.AbstractCommand
+import me.schlaubi.regnumutils.command.spi.Arguments
+import me.schlaubi.regnumutils.command.spi.Context
+import me.schlaubi.regnumutils.command.spi.SubCommand
+import me.schlaubi.regnumutils.command.spi.permission.Permissions
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests the alias lookup of the [CommandRegistry].
+ */
+class CommandRegistryTest {
+
+    private val ban = TestCommand("ban", "b")
+    private val kick = TestCommand("Kick")
+
+    /**
+     * Tests that invokes are found inside the message content ignoring case.
+     */
+    @Test
+    fun find() {
+        val registry = CommandRegistry()
+        registry.registerAll(listOf(ban, kick))
+        val content = "!BAN someone"
+        assertSame(ban, registry.find(content, 1, 4))
+        assertSame(ban, registry.find("!b", 1, 2))
+        assertSame(kick, registry.find("!kick", 1, 5))
+        assertSame(kick, registry.find("!KICK", 1, 5))
+        assertNull(registry.find(content, 1, 3))
+        assertNull(registry.find("!", 1, 1))
+    }
+
+    /**
+     * Tests that unregistering only removes the aliases still pointing to the command.
+     */
+    @Test
+    fun unregister() {
+        val registry = CommandRegistry()
+        registry.registerAll(listOf(ban, kick))
+        val other = TestCommand("b")
+        registry.register(other)
+        registry.unregister(ban)
+        assertNull(registry.find("ban", 0, 3))
+        assertSame(other, registry.find("b", 0, 1))
+        assertEquals(setOf("b", "Kick"), registry.keys)
+    }
+
+    /**
+     * Tests that the table keeps working while it grows and that map operations update the index.
+     */
+    @Test
+    fun growAndMapOperations() {
+        val registry = CommandRegistry()
+        val commands = (0 until 200).map { TestCommand("command$it") }
+        registry.registerAll(commands)
+        commands.forEachIndexed { index, command ->
+            assertSame(command, registry.find("COMMAND$index", 0, "command$index".length))
+        }
+        assertEquals(200, registry.size)
+        registry.remove("command7")
+        assertNull(registry.find("command7", 0, 8))
+        registry["alias"] = ban
+        assertSame(ban, registry.find("Alias", 0, 5))
+        registry.clear()
+        assertNull(registry.find("alias", 0, 5))
+    }
+
+    /**
+     * Tests that removing through the views of the map updates the index.
+     */
+    @Test
+    fun removeThroughViews() {
+        val registry = CommandRegistry()
+        registry.registerAll(listOf(ban, kick))
+        registry.keys.remove("b")
+        assertNull(registry.find("b", 0, 1))
+        val iterator = registry.entries.iterator()
+        while (iterator.hasNext()) {
+            if (iterator.next().key == "Kick") {
+                iterator.remove()
+            }
+        }
+        assertNull(registry.find("kick", 0, 4))
+        registry.entries.first().setValue(kick)
+        assertSame(kick, registry.find("ban", 0, 3))
+        assertEquals(setOf("ban"), registry.keys)
+    }
+
+    /**
+     * Tests that sub commands are registered in a registry as well.
+     */
+    @Test
+    fun subCommands() {
+        val parent = TestCommand("parent")
+        val sub = object : SubCommand("Sub", Permissions.public(), "sub", "") {
+            override fun process(args: Arguments, context: Context) = Unit
+        }
+        parent.registerSubCommand(sub)
+        val associations = parent.subCommandAssociations as CommandRegistry
+        assertSame(sub, associations.find("SUB", 0, 3))
+    }
+
+    private class TestCommand(vararg aliases: String) :
+        AbstractCommand(aliases[0], Permissions.public(), arrayOf(*aliases), "") {
+        override fun process(args: Arguments, context: Context) = Unit
+    }
+}
@@ -0,0 +1,162 @@
+import me.schlaubi.regnumutils.command.execution.CommandScheduler
+import me.schlaubi.regnumutils.command.execution.CommandTask
+import me.schlaubi.regnumutils.command.execution.RejectionPolicy
+import me.schlaubi.regnumutils.command.spi.Command
+import me.schlaubi.regnumutils.command.spi.Context
+import net.dv8tion.jda.api.requests.restaction.MessageAction
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests how the [CommandScheduler] handles tasks it cannot execute right now.
+ */
+class CommandSchedulerTest {
+
+    private val release = CountDownLatch(1)
+    private val command = Mockito.mock(Command::class.java)
+    private val reply = Mockito.mock(MessageAction::class.java)
+    private val context = Mockito.mock(Context::class.java)
+    private lateinit var scheduler: CommandScheduler
+
+    init {
+        Mockito.`when`(context.command).thenReturn(command)
+        Mockito.`when`(context.respond(BUSY)).thenReturn(reply)
+    }
+
+    /**
+     * Releases the blocked worker.
+     */
+    @After
+    fun after() {
+        release.countDown()
+        scheduler.shutdown()
+    }
+
+    /**
+     * Tests that [RejectionPolicy.DROP] neither runs nor answers the command.
+     */
+    @Test
+    fun drop() {
+        saturate(RejectionPolicy.DROP)
+        var ran = false
+        scheduler.execute(CommandTask(context, Runnable { ran = true }))
+        assertFalse(ran)
+        assertEquals(1L, scheduler.rejectedCount)
+        Mockito.verify(context, Mockito.never()).respond(BUSY)
+    }
+
+    /**
+     * Tests that [RejectionPolicy.REPLY_BUSY] answers with the busy message instead of running the command.
+     */
+    @Test
+    fun replyBusy() {
+        saturate(RejectionPolicy.REPLY_BUSY)
+        var ran = false
+        scheduler.execute(CommandTask(context, Runnable { ran = true }))
+        assertFalse(ran)
+        assertEquals(1L, scheduler.rejectedCount)
+        Mockito.verify(reply).queue()
+    }
+
+    /**
+     * Tests that [RejectionPolicy.CALLER_RUNS] runs the command on the submitting thread.
+     */
+    @Test
+    fun callerRuns() {
+        saturate(RejectionPolicy.CALLER_RUNS)
+        var ranOn: Thread? = null
+        scheduler.execute(CommandTask(context, Runnable { ranOn = Thread.currentThread() }))
+        assertSame(Thread.currentThread(), ranOn)
+        assertEquals(1L, scheduler.rejectedCount)
+    }
+
+    /**
+     * Tests that [RejectionPolicy.CALLER_RUNS] replies busy if the concurrency limit of the command is exceeded.
+     */
+    @Test
+    fun callerRunsRespectsConcurrencyLimit() {
+        scheduler = CommandScheduler(2, 1, RejectionPolicy.CALLER_RUNS, BUSY)
+        scheduler.setConcurrencyLimit(command, 1)
+        scheduler.execute(CommandTask(context, Runnable { release.await() }))
+        var ran = false
+        scheduler.execute(CommandTask(context, Runnable { ran = true }))
+        assertFalse(ran)
+        Mockito.verify(reply).queue()
+    }
+
+    /**
+     * Tests that tasks which are not commands run on the submitting thread instead of being dropped.
+     */
+    @Test
+    fun otherTasksRunOnCaller() {
+        saturate(RejectionPolicy.DROP)
+        var ranOn: Thread? = null
+        scheduler.execute(Runnable { ranOn = Thread.currentThread() })
+        assertSame(Thread.currentThread(), ranOn)
+        assertEquals(0L, scheduler.rejectedCount)
+    }
+
+    /**
+     * Tests that [RejectionPolicy.CALLER_RUNS] releases the permit of a command it cannot run after a shutdown.
+     */
+    @Test
+    fun callerRunsAfterShutdown() {
+        scheduler = CommandScheduler(1, 1, RejectionPolicy.CALLER_RUNS, BUSY)
+        scheduler.setConcurrencyLimit(command, 1)
+        scheduler.shutdown()
+        var ran = false
+        val task = CommandTask(context, Runnable { ran = true })
+        scheduler.execute(task)
+        assertFalse(ran)
+        assertFalse(task.holdsPermit)
+        assertEquals(1L, scheduler.rejectedCount)
+    }
+
+    /**
+     * Tests that tasks which are not commands are rejected once the scheduler got shut down.
+     */
+    @Test(expected = RejectedExecutionException::class)
+    fun otherTasksAfterShutdown() {
+        scheduler = CommandScheduler(1, 1, RejectionPolicy.DROP, BUSY)
+        scheduler.shutdown()
+        assertTrue(scheduler.awaitTermination(1, TimeUnit.SECONDS))
+        scheduler.execute(Runnable { })
+    }
+
+    // Blocks the only worker and fills the queue
+    private fun saturate(policy: RejectionPolicy) {
+        scheduler = CommandScheduler(1, 1, policy, BUSY)
+        repeat(2) { scheduler.execute(Runnable { release.await() }) }
+    }
+
+    private companion object {
+        const val BUSY = "busy"
+    }
+}
@@ -59,7 +59,7 @@ class CommandTest {
         jda = Mockito.mock(JDA::class.java)
        val author = Mockito.mock(User::class.java)
         val selfMember = Mockito.mock(Member::class.java)
-        Mockito.`when`(selfMember.asMention).thenReturn("<@378321678416239>")
+        Mockito.`when`(selfMember.idLong).thenReturn(378321678416239L)
         val guild = Mockito.mock(Guild::class.java)
         message = Mockito.mock(Message::class.java)
         Mockito.`when`(message.author).thenReturn(author)
@@ -0,0 +1,190 @@
+import me.schlaubi.regnumutils.command.execution.CommandTask
+import me.schlaubi.regnumutils.command.execution.FairCommandScheduler
+import me.schlaubi.regnumutils.command.execution.FairnessKey
+import me.schlaubi.regnumutils.command.execution.RejectionPolicy
+import me.schlaubi.regnumutils.command.spi.Context
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.User
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests that the [FairCommandScheduler] keeps noisy guilds from delaying everybody else.
+ */
+class FairCommandSchedulerTest {
+
+    private val release = CountDownLatch(1)
+    private var scheduler: FairCommandScheduler? = null
+
+    /**
+     * Releases all blocked tasks.
+     */
+    @After
+    fun after() {
+        release.countDown()
+        scheduler?.shutdownNow()
+    }
+
+    /**
+     * Tests that a quiet guild gets a worker right away while two noisy guilds have lots of commands waiting.
+     */
+    @Test
+    fun twoNoisyGuilds() {
+        val scheduler = scheduler(3)
+        val finished = CountDownLatch(40)
+        repeat(20) {
+            scheduler.execute(task(NOISY, Runnable { release.await(); finished.countDown() }))
+            scheduler.execute(task(OTHER_NOISY, Runnable { release.await(); finished.countDown() }))
+        }
+        assertTrue(scheduler.queueDepth >= 38)
+
+        val quiet = CountDownLatch(1)
+        scheduler.execute(task(QUIET, Runnable { quiet.countDown() }))
+        assertTrue("Quiet guild was delayed by noisy guilds", quiet.await(5, TimeUnit.SECONDS))
+
+        release.countDown()
+        assertTrue(finished.await(5, TimeUnit.SECONDS))
+    }
+
+    /**
+     * Tests that a single worker serves the queues of the guilds round-robin.
+     */
+    @Test
+    fun roundRobin() {
+        val scheduler = scheduler(1)
+        val order = Collections.synchronizedList(mutableListOf<String>())
+        val finished = CountDownLatch(6)
+        fun submit(guild: Long, name: String, block: Boolean = false) =
+            scheduler.execute(task(guild, Runnable {
+                if (block) {
+                    release.await()
+                }
+                order.add(name)
+                finished.countDown()
+            }))
+        // The first task keeps the worker busy until everything is queued
+        submit(NOISY, "a1", true)
+        submit(NOISY, "a2")
+        submit(NOISY, "a3")
+        submit(OTHER_NOISY, "b1")
+        submit(OTHER_NOISY, "b2")
+        submit(OTHER_NOISY, "b3")
+        release.countDown()
+        assertTrue(finished.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf("a1", "b1", "a2", "b2", "a3", "b3"), order)
+        // Everything but the first task waited for the blocked worker
+        assertTrue(scheduler.maxWaitTime > 0)
+        assertTrue(scheduler.averageWaitTime <= scheduler.maxWaitTime)
+    }
+
+    /**
+     * Tests that tasks which are no commands neither share the limits of a key nor get dropped.
+     */
+    @Test
+    fun unthrottledLane() {
+        val scheduler = scheduler(2)
+        repeat(5) { scheduler.execute(task(NOISY, Runnable { release.await() })) }
+        val finished = CountDownLatch(100)
+        repeat(100) { scheduler.execute(Runnable { finished.countDown() }) }
+        assertTrue("Tasks which are no commands got throttled", finished.await(5, TimeUnit.SECONDS))
+    }
+
+    /**
+     * Tests that commands exceeding the queue of their key are dropped.
+     */
+    @Test
+    fun dropsOverflow() {
+        val scheduler = scheduler(1, maxQueuedPerKey = 2)
+        val ran = AtomicInteger()
+        val started = CountDownLatch(1)
+        scheduler.execute(task(NOISY, Runnable { started.countDown(); release.await(); ran.incrementAndGet() }))
+        assertTrue(started.await(5, TimeUnit.SECONDS))
+        repeat(4) { scheduler.execute(task(NOISY, Runnable { ran.incrementAndGet() })) }
+        release.countDown()
+        scheduler.shutdown()
+        assertTrue(scheduler.awaitTermination(5, TimeUnit.SECONDS))
+        // One in flight and two waiting, the rest got dropped
+        assertEquals(3, ran.get())
+        assertEquals(2L, scheduler.rejectedCount)
+    }
+
+    /**
+     * Tests that members of the same guild get their own queues with [FairnessKey.MEMBER].
+     */
+    @Test
+    fun memberKey() {
+        val scheduler = scheduler(1, FairnessKey.MEMBER)
+        scheduler.execute(task(NOISY, Runnable { release.await() }, 1L))
+        scheduler.execute(task(NOISY, Runnable { }, 2L))
+        scheduler.execute(task(OTHER_NOISY, Runnable { }, 1L))
+        assertEquals(3, scheduler.activeKeys)
+    }
+
+    /**
+     * Tests that the workers are not started before the first task is submitted.
+     */
+    @Test
+    fun lazyWorkers() {
+        val created = AtomicInteger()
+        val factory = ThreadFactory { created.incrementAndGet(); Thread(it) }
+        val scheduler = FairCommandScheduler(2, threadFactory = factory).also { scheduler = it }
+        assertEquals(0, created.get())
+        scheduler.execute(Runnable { })
+        assertEquals(2, created.get())
+    }
+
+    /**
+     * Tests that [RejectionPolicy.CALLER_RUNS] is rejected instead of being handled like another policy.
+     */
+    @Test(expected = IllegalArgumentException::class)
+    fun callerRunsUnsupported() {
+        FairCommandScheduler(rejectionPolicy = RejectionPolicy.CALLER_RUNS)
+    }
+
+    private fun scheduler(workers: Int, key: FairnessKey = FairnessKey.GUILD, maxQueuedPerKey: Int = 32) =
+        FairCommandScheduler(workers, key, 1, maxQueuedPerKey, RejectionPolicy.DROP).also { scheduler = it }
+
+    private fun task(guildId: Long, action: Runnable, userId: Long = 1L): CommandTask {
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.idLong).thenReturn(guildId)
+        val user = Mockito.mock(User::class.java)
+        Mockito.`when`(user.idLong).thenReturn(userId)
+        val context = Mockito.mock(Context::class.java)
+        Mockito.`when`(context.guild).thenReturn(guild)
+        Mockito.`when`(context.author).thenReturn(user)
+        return CommandTask(context, action)
+    }
+
+    private companion object {
+        const val NOISY = 1L
+        const val OTHER_NOISY = 2L
+        const val QUIET = 3L
+    }
+}
@@ -0,0 +1,184 @@
+import me.schlaubi.regnumutils.command.internal.PermissionCache
+import net.dv8tion.jda.api.Permission
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Member
+import net.dv8tion.jda.api.entities.TextChannel
+import net.dv8tion.jda.api.entities.User
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito
+import java.util.EnumSet
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests the expiry, bounds and invalidation of the [PermissionCache].
+ */
+class PermissionCacheTest {
+
+    private var now = 0L
+    private val guild = Mockito.mock(Guild::class.java)
+    private val channel = channel(1L)
+
+    /**
+     * Tests that permissions are computed once and returned from the cache afterwards.
+     */
+    @Test
+    fun cached() {
+        val cache = cache()
+        val member = member(1L)
+        assertEquals(Permission.MESSAGE_WRITE.rawValue, cache.effectivePermissions(member, channel))
+        assertEquals(Permission.MESSAGE_WRITE.rawValue, cache.effectivePermissions(member, channel))
+        Mockito.verify(member, Mockito.times(1)).getPermissions(channel)
+    }
+
+    /**
+     * Tests that cached permissions are recomputed once they expired.
+     */
+    @Test
+    fun expiry() {
+        val cache = cache()
+        val member = member(1L)
+        cache.effectivePermissions(member, channel)
+        now += 999
+        cache.effectivePermissions(member, channel)
+        Mockito.verify(member, Mockito.times(1)).getPermissions(channel)
+        now += 1
+        cache.effectivePermissions(member, channel)
+        Mockito.verify(member, Mockito.times(2)).getPermissions(channel)
+    }
+
+    /**
+     * Tests that all cached permissions are dropped after a reconnect.
+     */
+    @Test
+    fun invalidateAll() {
+        val cache = cache()
+        val member = member(1L)
+        cache.effectivePermissions(member, channel)
+        cache.invalidateAll()
+        assertEquals(0, cache.channelCount)
+        cache.effectivePermissions(member, channel)
+        Mockito.verify(member, Mockito.times(2)).getPermissions(channel)
+    }
+
+    /**
+     * Tests that invalidating a guild drops the permissions of all of its channels.
+     */
+    @Test
+    fun invalidateGuild() {
+        val cache = cache()
+        val member = member(1L)
+        val other = channel(2L)
+        Mockito.`when`(guild.textChannels).thenReturn(listOf(channel, other))
+        cache.effectivePermissions(member, channel)
+        cache.effectivePermissions(member, other)
+        cache.invalidate(guild)
+        assertEquals(0, cache.channelCount)
+    }
+
+    /**
+     * Tests that invalidating a member only drops its own permissions.
+     */
+    @Test
+    fun invalidateMember() {
+        val cache = cache()
+        val member = member(1L)
+        val other = member(2L)
+        Mockito.`when`(guild.textChannels).thenReturn(listOf(channel))
+        cache.effectivePermissions(member, channel)
+        cache.effectivePermissions(other, channel)
+        cache.invalidate(member)
+        cache.effectivePermissions(member, channel)
+        cache.effectivePermissions(other, channel)
+        Mockito.verify(member, Mockito.times(2)).getPermissions(channel)
+        Mockito.verify(other, Mockito.times(1)).getPermissions(channel)
+    }
+
+    /**
+     * Tests that permissions computed while an invalidation happened are not cached.
+     */
+    @Test
+    fun invalidationDuringComputation() {
+        val cache = cache()
+        val member = member(1L)
+        Mockito.`when`(member.getPermissions(channel)).thenAnswer {
+            cache.invalidateAll()
+            EnumSet.of(Permission.MESSAGE_WRITE)
+        }
+        cache.effectivePermissions(member, channel)
+        assertEquals(0, cache.channelCount)
+    }
+
+    /**
+     * Tests that the amount of cached channels is bounded.
+     */
+    @Test
+    fun channelBound() {
+        val cache = cache(maximumChannels = 16)
+        val member = member(1L)
+        for (id in 1L..100L) {
+            cache.effectivePermissions(member, channel(id))
+        }
+        val channels = cache.channelCount
+        assertTrue("$channels channels", channels in 1..16)
+    }
+
+    /**
+     * Tests that inactive members are evicted once a channel is full while active ones survive.
+     */
+    @Test
+    fun memberBound() {
+        val cache = cache(maximumMembersPerChannel = 4)
+        val members = (1L..5L).map { member(it) }
+        members.take(3).forEach { cache.effectivePermissions(it, channel) }
+        // Member 3 started a new generation, member 1 and 2 are in the old one
+        cache.effectivePermissions(members[1], channel)
+        cache.effectivePermissions(members[3], channel)
+        cache.effectivePermissions(members[4], channel)
+        // Member 1 got dropped with the old generation, member 2 was promoted before
+        cache.effectivePermissions(members[0], channel)
+        cache.effectivePermissions(members[1], channel)
+        Mockito.verify(members[0], Mockito.times(2)).getPermissions(channel)
+        Mockito.verify(members[1], Mockito.times(1)).getPermissions(channel)
+    }
+
+    private fun cache(maximumChannels: Int = 4096, maximumMembersPerChannel: Int = 1024) =
+        PermissionCache(1000, maximumChannels, maximumMembersPerChannel) { now }
+
+    private fun channel(id: Long): TextChannel {
+        val channel = Mockito.mock(TextChannel::class.java)
+        Mockito.`when`(channel.idLong).thenReturn(id)
+        Mockito.`when`(channel.guild).thenReturn(guild)
+        return channel
+    }
+
+    private fun member(id: Long): Member {
+        val user = Mockito.mock(User::class.java)
+        Mockito.`when`(user.idLong).thenReturn(id)
+        val member = Mockito.mock(Member::class.java)
+        Mockito.`when`(member.user).thenReturn(user)
+        Mockito.`when`(member.guild).thenReturn(guild)
+        Mockito.`when`(member.getPermissions(Mockito.any(TextChannel::class.java)))
+            .thenReturn(EnumSet.of(Permission.MESSAGE_WRITE))
+        return member
+    }
+}
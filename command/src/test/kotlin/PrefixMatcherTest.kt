@@ -0,0 +1,77 @@
+import me.schlaubi.regnumutils.command.internal.PrefixMatcher
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests the prefix trie of the command client.
+ */
+class PrefixMatcherTest {
+
+    private val matcher = PrefixMatcher("!", 42L, true, listOf("?", "hawk ", "!!"))
+
+    /**
+     * Tests the default prefix and both mention forms.
+     */
+    @Test
+    fun staticPrefixes() {
+        assertEquals(PrefixMatcher.DEFAULT, matcher.match("!help"))
+        assertEquals(PrefixMatcher.MENTION, matcher.match("<@42> help"))
+        assertEquals(PrefixMatcher.NICK_MENTION, matcher.match("<@!42> help"))
+        assertEquals(0, matcher.match("<@43> help"))
+    }
+
+    /**
+     * Tests that known guild prefixes are compiled into the trie.
+     */
+    @Test
+    fun guildPrefixes() {
+        assertEquals(PrefixMatcher.GUILD, matcher.match("?help"))
+        assertEquals(PrefixMatcher.GUILD, matcher.match("hawk help"))
+        assertEquals(0, matcher.match("hawkhelp"))
+        assertEquals(PrefixMatcher.DEFAULT or PrefixMatcher.GUILD, matcher.match("!!help"))
+    }
+
+    /**
+     * Tests that messages not starting with any known prefix are rejected by their first char.
+     */
+    @Test
+    fun rejectsByFirstChar() {
+        assertTrue(matcher.mightStartWith('!'))
+        assertTrue(matcher.mightStartWith('h'))
+        assertFalse(matcher.mightStartWith('a'))
+        assertEquals(0, matcher.match("just chatting"))
+        assertEquals(0, matcher.match(""))
+    }
+
+    /**
+     * Tests that mentions are not compiled if they are disabled and an empty prefix matches everything.
+     */
+    @Test
+    fun disabledMentionAndEmptyPrefix() {
+        val withoutMention = PrefixMatcher("!", 42L, false)
+        assertEquals(0, withoutMention.match("<@42> help"))
+        val empty = PrefixMatcher("!", 42L, false, listOf(""))
+        assertEquals(PrefixMatcher.GUILD, empty.match("help"))
+    }
+}
@@ -0,0 +1,160 @@
+import me.schlaubi.regnumutils.command.internal.RateLimiter
+import me.schlaubi.regnumutils.command.spi.Command
+import me.schlaubi.regnumutils.command.spi.Context
+import me.schlaubi.regnumutils.command.spi.RateLimit
+import net.dv8tion.jda.api.entities.User
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests the token buckets of the [RateLimiter].
+ */
+class RateLimiterTest {
+
+    private val limiter = RateLimiter()
+
+    /**
+     * Tests that used up uses are refilled continuously.
+     */
+    @Test
+    fun refill() {
+        val context = context(command(RateLimit(2, 200, TimeUnit.MILLISECONDS)), 1L)
+        assertEquals(0L, limiter.acquire(context))
+        assertEquals(0L, limiter.acquire(context))
+        val retryAfter = limiter.acquire(context)
+        assertTrue("Retry after $retryAfter", retryAfter in 1..100)
+        Thread.sleep(retryAfter + 20)
+        assertEquals(0L, limiter.acquire(context))
+        assertTrue(limiter.acquire(context) > 0)
+    }
+
+    /**
+     * Tests that every scope key has its own uses.
+     */
+    @Test
+    fun scopes() {
+        val command = command(RateLimit(1, 1, TimeUnit.HOURS))
+        assertEquals(0L, limiter.acquire(context(command, 1L)))
+        assertTrue(limiter.acquire(context(command, 1L)) > 0)
+        assertEquals(0L, limiter.acquire(context(command, 2L)))
+    }
+
+    /**
+     * Tests that concurrent invocations never get more uses than the limit allows.
+     */
+    @Test
+    fun contention() {
+        val uses = 100
+        val command = command(RateLimit(uses, 1, TimeUnit.HOURS, RateLimit.Scope.GLOBAL))
+        val threads = 8
+        val pool = Executors.newFixedThreadPool(threads)
+        val start = CountDownLatch(1)
+        val granted = AtomicInteger()
+        repeat(threads) {
+            val context = context(command, it.toLong())
+            pool.execute {
+                start.await()
+                repeat(50) {
+                    if (limiter.acquire(context) == 0L) {
+                        granted.incrementAndGet()
+                    }
+                }
+            }
+        }
+        start.countDown()
+        pool.shutdown()
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS))
+        assertEquals(uses, granted.get())
+    }
+
+    /**
+     * Tests that idle buckets are evicted by a sweep across all commands.
+     */
+    @Test
+    fun sweep() {
+        val first = command(RateLimit(1, 20, TimeUnit.MILLISECONDS))
+        val second = command(RateLimit(1, 1, TimeUnit.HOURS))
+        repeat(100) { limiter.acquire(context(first, it.toLong())) }
+        limiter.acquire(context(second, 1L))
+        assertEquals(101, limiter.bucketCount)
+        Thread.sleep(50)
+        limiter.sweep()
+        assertEquals(1, limiter.bucketCount)
+    }
+
+    /**
+     * Tests that evicting an idle bucket while it is being acquired never grants an additional use.
+     */
+    @Test
+    fun sweepDuringAcquire() {
+        val command = command(RateLimit(1, 10, TimeUnit.MILLISECONDS, RateLimit.Scope.GLOBAL))
+        val threads = 4
+        val pool = Executors.newFixedThreadPool(threads + 1)
+        repeat(50) {
+            // Wait until the bucket is idle, so the sweep is allowed to evict it
+            Thread.sleep(15)
+            val start = CountDownLatch(1)
+            val granted = AtomicInteger()
+            val done = CountDownLatch(threads + 1)
+            pool.execute {
+                start.await()
+                limiter.sweep()
+                done.countDown()
+            }
+            repeat(threads) {
+                val context = context(command, it.toLong())
+                pool.execute {
+                    start.await()
+                    if (limiter.acquire(context) == 0L) {
+                        granted.incrementAndGet()
+                    }
+                    done.countDown()
+                }
+            }
+            start.countDown()
+            assertTrue(done.await(5, TimeUnit.SECONDS))
+            assertEquals(1, granted.get())
+        }
+        pool.shutdown()
+    }
+
+    private fun command(rateLimit: RateLimit): Command {
+        val command = Mockito.mock(Command::class.java)
+        Mockito.`when`(command.rateLimit).thenReturn(rateLimit)
+        return command
+    }
+
+    private fun context(command: Command, userId: Long): Context {
+        val user = Mockito.mock(User::class.java)
+        Mockito.`when`(user.idLong).thenReturn(userId)
+        val context = Mockito.mock(Context::class.java)
+        Mockito.`when`(context.command).thenReturn(command)
+        Mockito.`when`(context.author).thenReturn(user)
+        return context
+    }
+}
@@ -0,0 +1,129 @@
+import me.schlaubi.regnumutils.command.execution.VirtualThreadCommandExecutor
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Assume.assumeFalse
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Load test of the [VirtualThreadCommandExecutor].
+ * Tests needing virtual threads are skipped on runtimes without them.
+ */
+class VirtualThreadCommandExecutorTest {
+
+    /**
+     * Bursts blocking invocations and checks that they run concurrently without a platform thread each
+     * and that every invocation starts without waiting for another one.
+     */
+    @Test
+    fun burst() {
+        assumeSupported()
+        val executor = VirtualThreadCommandExecutor()
+        val threads = ManagementFactory.getThreadMXBean()
+        val invocations = 20_000
+        val latch = CountDownLatch(invocations)
+        val baseline = threads.threadCount
+        val peakThreads = AtomicInteger(baseline)
+        val latencies = LongArray(invocations)
+        repeat(invocations) { index ->
+            val submittedAt = System.nanoTime()
+            executor.execute(Runnable {
+                latencies[index] = System.nanoTime() - submittedAt
+                // Sampled while the invocation is in flight, so the maximum covers the whole burst
+                peakThreads.accumulateAndGet(threads.threadCount, Math::max)
+                Thread.sleep(200)
+                latch.countDown()
+            })
+        }
+        assertTrue("Burst did not finish", latch.await(30, TimeUnit.SECONDS))
+        assertTrue("Too many platform threads: ${peakThreads.get()}", peakThreads.get() - baseline < 200)
+        // The latch orders the writes of the invocations before this read
+        latencies.sort()
+        val p99 = TimeUnit.NANOSECONDS.toMillis(latencies[invocations * 99 / 100])
+        // Invocations blocking their carrier would queue behind the sleeps of others for several seconds
+        assertTrue("Invocations waited for each other: p99 start latency ${p99}ms", p99 < 1000)
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS))
+    }
+
+    /**
+     * Checks that invocations exceeding the timeout get interrupted.
+     */
+    @Test
+    fun timeout() {
+        assumeSupported()
+        val executor = VirtualThreadCommandExecutor(100, TimeUnit.MILLISECONDS)
+        val interrupted = CountDownLatch(1)
+        executor.execute(Runnable {
+            try {
+                Thread.sleep(10_000)
+            } catch (e: InterruptedException) {
+                interrupted.countDown()
+            }
+        })
+        assertTrue("Invocation was not interrupted", interrupted.await(5, TimeUnit.SECONDS))
+        assertEquals(1L, executor.timedOutCount)
+        executor.shutdownNow()
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS))
+    }
+
+    /**
+     * Checks that no timer is created if there is no timeout.
+     */
+    @Test
+    fun noTimerWithoutTimeout() {
+        assumeSupported()
+        val executor = VirtualThreadCommandExecutor()
+        val done = CountDownLatch(1)
+        executor.execute(Runnable { done.countDown() })
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        // Other tests might still have a timer thread shutting down, so check this executor only
+        val timer = VirtualThreadCommandExecutor::class.java.getDeclaredField("timer")
+        timer.isAccessible = true
+        assertNull(timer.get(executor))
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS))
+    }
+
+    /**
+     * Checks that runtimes without virtual threads are rejected instead of falling back to platform threads.
+     */
+    @Test
+    fun unsupportedRuntime() {
+        assumeFalse(VirtualThreadCommandExecutor.isSupported)
+        try {
+            VirtualThreadCommandExecutor()
+            fail("Executor was created without virtual threads")
+        } catch (e: UnsupportedOperationException) {
+            // expected
+        }
+    }
+
+    private fun assumeSupported() =
+        assumeTrue("Virtual threads are not supported", VirtualThreadCommandExecutor.isSupported)
+}
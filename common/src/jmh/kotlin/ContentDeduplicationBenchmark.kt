@@ -0,0 +1,121 @@
+import me.schlaubi.regnumutils.common.cache.BoundedMessageCache
+import net.dv8tion.jda.api.EmbedBuilder
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import org.mockito.Mockito
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jol.info.GraphLayout
+import java.awt.Color
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Measures the heap footprint and the cost of filling a cache with and without deduplicated contents
+ * using a trace of a bot-heavy guild: most messages are bot replies with identical embeds and short repeated
+ * commands, the rest is regular chat.
+ * Run it using `gradle :common:jmh`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class ContentDeduplicationBenchmark {
+
+    @Param("false", "true")
+    var deduplicate = false
+
+    @Param("50000")
+    var messages: Int = 0
+
+    private lateinit var trace: List<Message>
+
+    /**
+     * Creates the trace and prints the footprint of a filled cache.
+     */
+    @Setup
+    fun setup() {
+        val random = Random(553636358283288589L)
+        val embeds = listOf(
+            EmbedBuilder()
+                .setTitle("Rank")
+                .setDescription("You are currently level 12 with 4 312 xp")
+                .setColor(Color.ORANGE)
+                .build(),
+            EmbedBuilder()
+                .setTitle("Now playing")
+                .setDescription("Never Gonna Give You Up - Rick Astley")
+                .addField("Duration", "3:33", true)
+                .build(),
+            EmbedBuilder()
+                .setTitle("Error")
+                .setDescription("You do not have the permission to use this command")
+                .setColor(Color.RED)
+                .build()
+        )
+        val commands = listOf("!rank", "!play never gonna give you up", "!skip", "gg", "lol")
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.idLong).thenReturn(553636358283288589L)
+        val channel = Mockito.mock(TextChannel::class.java)
+        Mockito.`when`(channel.idLong).thenReturn(553636382446223361L)
+        val message = Mockito.mock(Message::class.java)
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.guild).thenReturn(guild)
+
+        // Every message gets copied, so the mock can be reused
+        val recorder = BoundedMessageCache(messages)
+        for (i in 0 until messages) {
+            val kind = random.nextInt(10)
+            val content = when {
+                kind < 5 -> ""
+                kind < 8 -> commands[random.nextInt(commands.size)]
+                else -> "Did anyone see message ${random.nextInt()} in the announcements?"
+            }
+            Mockito.`when`(message.idLong).thenReturn(587624539553398795L + i * 4096L)
+            Mockito.`when`(message.contentRaw).thenReturn(content)
+            Mockito.`when`(message.contentDisplay).thenReturn(content)
+            Mockito.`when`(message.embeds)
+                .thenReturn(if (kind < 5) listOf(embeds[random.nextInt(embeds.size)]) else emptyList())
+            recorder += message
+        }
+        trace = recorder.values.sortedBy { it.idLong }
+
+        val cache = fill()
+        println()
+        println(
+            "Deduplicate: $deduplicate, footprint: ${GraphLayout.parseInstance(cache).totalSize()} bytes, " +
+                    "shared: ${cache.deduplicatedBytes} bytes"
+        )
+    }
+
+    /**
+     * Fills a cache with the trace.
+     */
+    @Benchmark
+    fun fill(): BoundedMessageCache {
+        val cache = BoundedMessageCache(messages, deduplicate = deduplicate)
+        trace.forEach { cache[it.idLong] = it }
+        return cache
+    }
+}
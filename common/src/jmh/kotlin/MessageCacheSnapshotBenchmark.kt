@@ -0,0 +1,107 @@
+import me.schlaubi.regnumutils.common.cache.ConcurrentMessageCache
+import me.schlaubi.regnumutils.common.cache.MessageCache
+import me.schlaubi.regnumutils.common.cache.MessageCacheSnapshot
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import org.mockito.Mockito
+import org.openjdk.jmh.annotations.*
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.TimeUnit
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Measures how fast a [MessageCache] can be exported to and imported from a [MessageCacheSnapshot].
+ * Run it using `gradle :common:jmh`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class MessageCacheSnapshotBenchmark {
+
+    @Param("10000", "100000")
+    var messages: Int = 0
+
+    private lateinit var cache: MessageCache
+    private lateinit var directory: Path
+    private lateinit var snapshot: Path
+
+    /**
+     * Fills the cache and writes the snapshot which is read by [read].
+     */
+    @Setup
+    fun setup() {
+        val contents = listOf(
+            "pong",
+            "Does anyone know how to get the bot to post the rules in the welcome channel?",
+            "Grüße aus München 👋 <@416902379598774273>",
+            "!rank"
+        )
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.idLong).thenReturn(553636358283288589L)
+        val channel = Mockito.mock(TextChannel::class.java)
+        Mockito.`when`(channel.idLong).thenReturn(553636382446223361L)
+        val message = Mockito.mock(Message::class.java)
+        Mockito.`when`(message.embeds).thenReturn(emptyList())
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.guild).thenReturn(guild)
+
+        cache = ConcurrentMessageCache()
+        for (i in 0 until messages) {
+            // Every message gets copied, so the mock can be reused
+            val content = "${contents[i % contents.size]} ${if (i % 3 == 0) i.toString() else ""}".trim()
+            Mockito.`when`(message.idLong).thenReturn(587624539553398795L + i * 4096L)
+            Mockito.`when`(message.contentRaw).thenReturn(content)
+            Mockito.`when`(message.contentDisplay).thenReturn(content)
+            cache += message
+        }
+        directory = Files.createTempDirectory("snapshot-benchmark")
+        snapshot = directory.resolve("read.snapshot")
+        cache.exportSnapshot(snapshot)
+        println()
+        println("Snapshot of $messages messages: ${Files.size(snapshot)} bytes")
+    }
+
+    /**
+     * Deletes the snapshots.
+     */
+    @TearDown
+    fun tearDown() {
+        Files.list(directory).use { files -> files.forEach { Files.delete(it) } }
+        Files.delete(directory)
+    }
+
+    /**
+     * Exports the cache.
+     */
+    @Benchmark
+    fun write() = MessageCacheSnapshot.write(cache, directory.resolve("write.snapshot"))
+
+    /**
+     * Imports the snapshot into an empty cache.
+     */
+    @Benchmark
+    fun read() = MessageCacheSnapshot.read(ConcurrentMessageCache(), snapshot)
+}
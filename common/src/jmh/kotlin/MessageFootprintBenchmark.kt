@@ -0,0 +1,127 @@
+import me.schlaubi.regnumutils.common.cache.BoundedMessageCache
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.MessageEmbed
+import net.dv8tion.jda.api.entities.TextChannel
+import net.dv8tion.jda.api.utils.MarkdownSanitizer
+import org.mockito.Mockito
+import org.openjdk.jmh.annotations.*
+import org.openjdk.jol.info.GraphLayout
+import java.time.OffsetDateTime
+import java.util.concurrent.TimeUnit
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Measures the heap footprint of cached messages using JOL and the cost of decoding their content.
+ * The footprint of the previous representation is printed for comparison.
+ * Run it using `gradle :common:jmh`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+open class MessageFootprintBenchmark {
+
+    @Param(
+        "pong",
+        "Does anyone know how to get the bot to post the rules in the welcome channel?",
+        "Grüße aus München 👋 <@416902379598774273>"
+    )
+    lateinit var content: String
+
+    private lateinit var message: Message
+    private lateinit var cached: Message
+
+    /**
+     * Creates the message and prints the footprints.
+     */
+    @Setup
+    fun setup() {
+        val channel = Mockito.mock(TextChannel::class.java)
+        Mockito.`when`(channel.idLong).thenReturn(553636382446223361L)
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.idLong).thenReturn(553636358283288589L)
+        message = Mockito.mock(Message::class.java)
+        Mockito.`when`(message.idLong).thenReturn(587624539553398795L)
+        Mockito.`when`(message.contentRaw).thenReturn(content)
+        Mockito.`when`(message.contentDisplay).thenReturn(content.replace("<@416902379598774273>", "@Schlaubi"))
+        Mockito.`when`(message.embeds).thenReturn(emptyList())
+        Mockito.`when`(message.isEdited).thenReturn(true)
+        Mockito.`when`(message.timeEdited).thenReturn(OffsetDateTime.now())
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.guild).thenReturn(guild)
+
+        val cache = BoundedMessageCache()
+        cache += message
+        cached = cache[message.idLong]!!
+
+        val legacy = GraphLayout.parseInstance(LegacyCachedMessage(message)).totalSize()
+        val compact = GraphLayout.parseInstance(cached).totalSize()
+        println()
+        println("Legacy: $legacy bytes, compact: $compact bytes (${"%.1f".format(legacy.toDouble() / compact)}x smaller)")
+    }
+
+    /**
+     * Decodes the raw content of the cached message.
+     */
+    @Benchmark
+    fun contentRaw(): String = cached.contentRaw
+
+    /**
+     * Decodes the display content of the cached message.
+     */
+    @Benchmark
+    fun contentDisplay(): String = cached.contentDisplay
+
+    // Field layout of the cached messages before they were packed
+    @Suppress("unused")
+    private data class LegacyCachedMessage(
+        private val edited: Boolean,
+        private val pinned: Boolean,
+        private val mentionsEveryone: Boolean,
+        private val contentRaw: String,
+        private val contentDisplay: String,
+        private val tts: Boolean,
+        private val _embeds: List<MessageEmbed>,
+        private val _idLong: Long,
+        private val _nonce: String?,
+        private val editedTime: OffsetDateTime?
+    ) {
+
+        constructor(message: Message) : this(
+            message.isEdited,
+            message.isPinned,
+            message.mentionsEveryone(),
+            // Copies so the strings are not shared with the cached message
+            String(message.contentRaw.toCharArray()),
+            String(message.contentDisplay.toCharArray()),
+            message.isTTS,
+            message.embeds,
+            message.idLong,
+            message.nonce,
+            message.timeEdited
+        )
+
+        private val contentStripped by lazy { MarkdownSanitizer.sanitize(contentDisplay) }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import me.schlaubi.regnumutils.common.collections.LongObjectMap
+import net.dv8tion.jda.api.entities.Message
+import java.util.concurrent.TimeUnit
+
+/**
+ * [MessageCache] holding at most [maximumSize] messages.
+ * Messages are evicted using a segmented LRU policy: new messages enter a probation segment and are promoted to a
+ * protected segment when they are accessed again, so a burst of new messages cannot flush frequently used ones.
+ * Additionally messages expire after a maximum age and every channel can be limited to [maximumSizePerChannel] messages.
+ *
+ * Messages are stored as compact copies, optionally sharing identical contents with each other.
+ * [keys] and [values] return snapshots of the cache.
+ * @property maximumSize the maximum amount of cached messages
+ * @param maxAge the time after which a message gets evicted or `0` if messages should never expire
+ * @param unit the [TimeUnit] of maxAge
+ * @property maximumSizePerChannel the maximum amount of cached messages per channel or `0` for no limit
+ * @param deduplicate whether identical contents of messages should be stored only once
+ * @see MessageCache.activate
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class BoundedMessageCache @JvmOverloads constructor(
+    val maximumSize: Int = 10_000,
+    maxAge: Long = 0,
+    unit: TimeUnit = TimeUnit.MINUTES,
+    val maximumSizePerChannel: Int = 0,
+    deduplicate: Boolean = false
+) : MessageCache {
+
+    private val maxAgeNanos = unit.toNanos(maxAge)
+    private val protectedCapacity = maximumSize * 4 / 5
+    private val index = LongObjectMap<Node>()
+    private val channels = LongObjectMap<NodeList>()
+    private val probation = NodeList(Order.ACCESS)
+    private val protectedSegment = NodeList(Order.ACCESS)
+    private val writeOrder = NodeList(Order.WRITE)
+    private val pool = if (deduplicate) ContentPool() else null
+
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+    @Volatile
+    private var metrics = MessageCacheMetrics.NONE
+
+    init {
+        require(maximumSize > 0) { "Maximum size must be greater than 0" }
+        require(maximumSizePerChannel >= 0) { "Maximum size per channel must not be negative" }
+    }
+
+    /**
+     * The amount of lookups which found a message.
+     */
+    val hitCount: Long
+        @Synchronized get() = hits
+
+    /**
+     * The amount of lookups which did not find a message.
+     */
+    val missCount: Long
+        @Synchronized get() = misses
+
+    /**
+     * The amount of messages which got evicted because of the size limits or their age.
+     */
+    val evictionCount: Long
+        @Synchronized get() = evictions
+
+    override val deduplicatedBytes: Long
+        @Synchronized get() = pool?.sharedBytes ?: 0L
+
+    /**
+     * The ratio of lookups which found a message.
+     */
+    val hitRate: Double
+        @Synchronized get() = (hits + misses).let { if (it == 0L) 1.0 else hits.toDouble() / it }
+
+    override val size: Int
+        @Synchronized get() {
+            expire(System.nanoTime())
+            return index.size
+        }
+
+    override val keys: MutableSet<Long>
+        @Synchronized get() = index.keys().toMutableSet()
+
+    override val values: MutableCollection<Message>
+        @Synchronized get() {
+            val values = ArrayList<Message>(index.size)
+            index.forEach { _, node -> values.add(node.message) }
+            return values
+        }
+
+    override fun isEmpty() = size == 0
+
+    override fun forEachMessage(action: (Message) -> Unit) {
+        val channelIds = synchronized(this) { channels.keys() }
+        channelIds.forEach { channelId ->
+            val messages = synchronized(this) {
+                val channel = channels[channelId] ?: return@forEach
+                val now = System.nanoTime()
+                val messages = ArrayList<CachedMessage>(channel.size)
+                var node = channel.head
+                while (node != null) {
+                    if (!isExpired(node, now)) {
+                        messages.add(node.message)
+                    }
+                    node = node.next(Order.CHANNEL)
+                }
+                messages
+            }
+            // Updates move messages to the end of the write order of their channel
+            messages.sortBy { it.idLong }
+            messages.forEach(action)
+        }
+    }
+
+    @Synchronized
+    override fun contains(id: Long): Boolean {
+        val node = index[id] ?: return false
+        return !isExpired(node, System.nanoTime())
+    }
+
+    @Synchronized
+    override fun get(key: Long): Message? {
+        val node = index[key]
+        if (node == null) {
+            misses++
+            return null
+        }
+        if (isExpired(node, System.nanoTime())) {
+            evict(node, MessageCacheMetrics.EvictionCause.EXPIRED)
+            misses++
+            return null
+        }
+        hits++
+        recordAccess(node)
+        return node.message
+    }
+
+    @Synchronized
+    override fun put(key: Long, value: Message): Message? {
+        val now = System.nanoTime()
+        expire(now)
+        val copy = value as? CachedMessage ?: CachedMessage(value)
+        val message = pool?.let { copy.intern(it) } ?: copy
+        val existing = index[key]
+        if (existing != null) {
+            val previous = existing.message
+            pool?.let { previous.release(it) }
+            existing.message = message
+            existing.writtenAt = now
+            writeOrder.remove(existing)
+            writeOrder.add(existing)
+            return previous
+        }
+
+        val node = Node(key, message.channelIdLong, message, now)
+        index[key] = node
+        probation.add(node)
+        writeOrder.add(node)
+        val channel = channels[node.channelId] ?: NodeList(Order.CHANNEL).also { channels[node.channelId] = it }
+        channel.add(node)
+
+        if (maximumSizePerChannel > 0 && channel.size > maximumSizePerChannel) {
+            evict(channel.head!!, MessageCacheMetrics.EvictionCause.CHANNEL_SIZE)
+        }
+        while (index.size > maximumSize) {
+            evict(probation.head ?: protectedSegment.head!!, MessageCacheMetrics.EvictionCause.SIZE)
+        }
+        return null
+    }
+
+    @Synchronized
+    override fun replaceMessage(message: Message) = super.replaceMessage(message)
+
+    @Synchronized
+    override fun cacheMessageIfAbsent(message: Message) = super.cacheMessageIfAbsent(message)
+
+    @Synchronized
+    override fun reportEvictionsTo(metrics: MessageCacheMetrics) {
+        this.metrics = metrics
+        pool?.metrics = metrics
+    }
+
+    @Synchronized
+    override fun remove(key: Long): Message? {
+        val node = index[key] ?: return null
+        unlink(node)
+        return node.message
+    }
+
+    @Synchronized
+    override fun clear() {
+        pool?.clear()
+        index.clear()
+        channels.clear()
+        probation.clear()
+        protectedSegment.clear()
+        writeOrder.clear()
+    }
+
+    // Promotes messages which are accessed again to the protected segment
+    private fun recordAccess(node: Node) {
+        if (node.inProtectedSegment) {
+            protectedSegment.remove(node)
+            protectedSegment.add(node)
+            return
+        }
+        probation.remove(node)
+        if (protectedCapacity == 0) {
+            probation.add(node)
+            return
+        }
+        node.inProtectedSegment = true
+        protectedSegment.add(node)
+        if (protectedSegment.size > protectedCapacity) {
+            val demoted = protectedSegment.head!!
+            protectedSegment.remove(demoted)
+            demoted.inProtectedSegment = false
+            probation.add(demoted)
+        }
+    }
+
+    private fun isExpired(node: Node, now: Long) = maxAgeNanos > 0 && now - node.writtenAt >= maxAgeNanos
+
+    private fun expire(now: Long) {
+        while (true) {
+            val oldest = writeOrder.head ?: return
+            if (!isExpired(oldest, now)) {
+                return
+            }
+            evict(oldest, MessageCacheMetrics.EvictionCause.EXPIRED)
+        }
+    }
+
+    private fun evict(node: Node, cause: MessageCacheMetrics.EvictionCause) {
+        unlink(node)
+        evictions++
+        // Computing the retained size is not free, so skip it if nobody listens
+        if (metrics !== MessageCacheMetrics.NONE) {
+            metrics.recordEviction(cause, node.message)
+        }
+    }
+
+    private fun unlink(node: Node) {
+        index.remove(node.id)
+        pool?.let { node.message.release(it) }
+        if (node.inProtectedSegment) {
+            protectedSegment.remove(node)
+        } else {
+            probation.remove(node)
+        }
+        writeOrder.remove(node)
+        val channel = channels[node.channelId] ?: return
+        channel.remove(node)
+        if (channel.size == 0) {
+            channels.remove(node.channelId)
+        }
+    }
+
+    // Every node is part of the access order of its segment, the global write order and the write order of its channel
+    private class Node(val id: Long, val channelId: Long, var message: CachedMessage, var writtenAt: Long) {
+        var inProtectedSegment = false
+        var previousAccessed: Node? = null
+        var nextAccessed: Node? = null
+        var previousWritten: Node? = null
+        var nextWritten: Node? = null
+        var previousInChannel: Node? = null
+        var nextInChannel: Node? = null
+
+        fun previous(order: Order) = when (order) {
+            Order.ACCESS -> previousAccessed
+            Order.WRITE -> previousWritten
+            Order.CHANNEL -> previousInChannel
+        }
+
+        fun next(order: Order) = when (order) {
+            Order.ACCESS -> nextAccessed
+            Order.WRITE -> nextWritten
+            Order.CHANNEL -> nextInChannel
+        }
+
+        fun link(order: Order, previous: Node?, next: Node?) {
+            when (order) {
+                Order.ACCESS -> {
+                    previousAccessed = previous
+                    nextAccessed = next
+                }
+                Order.WRITE -> {
+                    previousWritten = previous
+                    nextWritten = next
+                }
+                Order.CHANNEL -> {
+                    previousInChannel = previous
+                    nextInChannel = next
+                }
+            }
+        }
+
+        fun linkPrevious(order: Order, previous: Node?) = link(order, previous, next(order))
+
+        fun linkNext(order: Order, next: Node?) = link(order, previous(order), next)
+    }
+
+    // The pair of links of a node a NodeList uses
+    private enum class Order {
+        ACCESS,
+        WRITE,
+        CHANNEL
+    }
+
+    // Intrusive doubly linked list over the links of the nodes for one order, so a node can be part of all three without allocating
+    private class NodeList(private val order: Order) {
+        var head: Node? = null
+        private var tail: Node? = null
+        var size = 0
+
+        fun add(node: Node) {
+            node.link(order, tail, null)
+            tail?.linkNext(order, node)
+            tail = node
+            if (head == null) {
+                head = node
+            }
+            size++
+        }
+
+        fun remove(node: Node) {
+            val previous = node.previous(order)
+            val next = node.next(order)
+            if (previous == null) head = next else previous.linkNext(order, next)
+            if (next == null) tail = previous else next.linkPrevious(order, previous)
+            node.link(order, null, null)
+            size--
+        }
+
+        fun clear() {
+            head = null
+            tail = null
+            size = 0
+        }
+    }
+}
@@ -0,0 +1,394 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import net.dv8tion.jda.api.entities.*
+import net.dv8tion.jda.api.utils.MarkdownSanitizer
+import java.io.IOException
+import java.io.UncheckedIOException
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.time.Instant
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+import java.util.*
+
+/**
+ * Compact copy of a guild [Message] which is stored by [message caches][MessageCache].
+ * Only the content related parts of the message are kept, everything else throws an [UnsupportedOperationException].
+ * This includes contents which were not retained because of the [MessageCacheAdmission.fields].
+ *
+ * The flags are packed into a single byte, the edit time is stored in epoch millis and the content is stored as
+ * Latin-1 or UTF-8 bytes. The display content is only stored if it differs from the raw content and embeds are
+ * serialized using the [EmbedCodec]. All of them are decoded whenever they are requested.
+ * @property channelIdLong the id of the channel of the message
+ * @property guildIdLong the id of the guild of the message
+ */
+internal class CachedMessage private constructor(
+    private val flags: Byte,
+    private val editedAt: Long,
+    private val raw: ByteArray,
+    private val display: ByteArray?,
+    private val embeds: ByteArray?,
+    private val _idLong: Long,
+    private val _nonce: String?,
+    val channelIdLong: Long,
+    val guildIdLong: Long
+) : Message {
+
+    private fun hasFlag(flag: Int) = flags.toInt() and flag != 0
+
+    /**
+     * Whether the raw content was retained or not.
+     */
+    val isRawRetained: Boolean
+        get() = !hasFlag(RAW_MISSING)
+
+    override fun isFromType(type: ChannelType) = type == ChannelType.TEXT
+
+    override fun isEdited() = hasFlag(EDITED)
+
+    override fun getActivity() = unsupported()
+
+    override fun isPinned() = hasFlag(PINNED)
+
+    override fun mentionsEveryone() = hasFlag(MENTIONS_EVERYONE)
+
+    override fun addReaction(emote: Emote) = unsupported()
+
+    override fun addReaction(unicode: String) = unsupported()
+
+    override fun clearReactions() = unsupported()
+
+    override fun formatTo(formatter: Formatter?, flags: Int, width: Int, precision: Int) = unsupported()
+
+    override fun getJumpUrl() = unsupported()
+
+    override fun getContentRaw(): String {
+        if (hasFlag(RAW_MISSING)) {
+            unsupported("The raw content was not retained")
+        }
+        return decode(raw, hasFlag(RAW_LATIN1))
+    }
+
+    override fun getContentStripped(): String = MarkdownSanitizer.sanitize(contentDisplay)
+
+    override fun getGuild() = unsupported()
+
+    override fun isTTS() = hasFlag(TTS)
+
+    override fun isMentioned(mentionable: IMentionable, vararg types: Message.MentionType?) = unsupported()
+
+    override fun editMessageFormat(format: String, vararg args: Any?) = unsupported()
+
+    override fun getMentionedChannels() = unsupported()
+
+    override fun getMember() = unsupported()
+
+    override fun getIdLong() = _idLong
+
+    override fun getContentDisplay(): String {
+        if (hasFlag(DISPLAY_MISSING)) {
+            unsupported("The display content was not retained")
+        }
+        return display?.let { decode(it, hasFlag(DISPLAY_LATIN1)) } ?: contentRaw
+    }
+
+    override fun getPrivateChannel() = unsupported()
+
+    override fun getChannelType() = ChannelType.TEXT
+
+    override fun getAttachments() = unsupported()
+
+    override fun getMentionedRoles() = unsupported()
+
+    override fun pin() = unsupported()
+
+    override fun getMentionedMembers(guild: Guild) = unsupported()
+
+    override fun getMentionedMembers() = unsupported()
+
+    override fun unpin() = unsupported()
+
+    override fun getCategory() = unsupported()
+
+    override fun getInvites() = unsupported()
+
+    override fun getMentionedUsers() = unsupported()
+
+    override fun getEmotes() = unsupported()
+
+    override fun getAuthor() = unsupported()
+
+    override fun editMessage(newContent: CharSequence) = unsupported()
+
+    override fun editMessage(newContent: MessageEmbed) = unsupported()
+
+    override fun editMessage(newContent: Message) = unsupported()
+
+    override fun delete() = unsupported()
+
+    override fun getMentions(vararg types: Message.MentionType?) = unsupported()
+
+    override fun isWebhookMessage() = unsupported()
+
+    override fun getEmbeds(): List<MessageEmbed> {
+        if (embeds != null && embeds.isEmpty()) {
+            unsupported("The embeds were not retained")
+        }
+        return try {
+            EmbedCodec.decode(embeds)
+        } catch (e: IOException) {
+            throw UncheckedIOException("Could not decode the embeds of message $_idLong", e)
+        }
+    }
+
+    override fun getType() = unsupported()
+
+    override fun getChannel() = unsupported()
+
+    override fun getJDA() = unsupported()
+
+    override fun getReactions() = unsupported()
+
+    override fun getTimeEdited(): OffsetDateTime? =
+        if (editedAt == NOT_EDITED) null else OffsetDateTime.ofInstant(Instant.ofEpochMilli(editedAt), ZoneOffset.UTC)
+
+    override fun getTextChannel() = unsupported()
+
+    override fun getNonce() = _nonce
+
+    /**
+     * Estimation of the heap occupied by this message in bytes.
+     */
+    val retainedSize: Int
+        get() = OBJECT_SIZE + arraySize(raw.size) + (display?.let { arraySize(it.size) } ?: 0) +
+                (embeds?.let { arraySize(it.size) } ?: 0) + (_nonce?.let { STRING_SIZE + arraySize(it.length) } ?: 0)
+
+    /**
+     * The amount of bytes written by [writeTo].
+     */
+    val serializedSize: Int
+        get() = 1 + 8 + 8 + 8 + 4 + (_nonce?.let { it.toByteArray(StandardCharsets.UTF_8).size } ?: 0) +
+                4 + raw.size + 4 + (display?.size ?: 0) + 4 + (embeds?.size ?: 0)
+
+    /**
+     * Writes this message to the [buffer] without its id.
+     * @see readFrom
+     */
+    fun writeTo(buffer: ByteBuffer) {
+        buffer.put(flags)
+        buffer.putLong(editedAt)
+        buffer.putLong(channelIdLong)
+        buffer.putLong(guildIdLong)
+        buffer.putBytes(_nonce?.toByteArray(StandardCharsets.UTF_8))
+        buffer.putBytes(raw)
+        buffer.putBytes(display)
+        buffer.putBytes(embeds)
+    }
+
+    /**
+     * Returns a copy of this message sharing its contents with the other messages of the [pool].
+     * @see release
+     */
+    fun intern(pool: ContentPool) = CachedMessage(
+        flags,
+        editedAt,
+        pool.intern(raw),
+        display?.let { pool.intern(it) },
+        embeds?.let { pool.intern(it) },
+        _idLong,
+        _nonce,
+        channelIdLong,
+        guildIdLong
+    )
+
+    /**
+     * Releases the contents of this message which got shared using [intern].
+     */
+    fun release(pool: ContentPool) {
+        pool.release(raw)
+        display?.let { pool.release(it) }
+        embeds?.let { pool.release(it) }
+    }
+
+    /**
+     * Writes this message to a [snapshot][MessageCacheSnapshot] without its id.
+     * @see readFrom
+     */
+    fun writeTo(output: SnapshotOutput) {
+        output.writeByte(flags)
+        output.writeVarLong(if (editedAt == NOT_EDITED) -1 else editedAt)
+        output.writeVarLong(channelIdLong)
+        output.writeVarLong(guildIdLong)
+        output.writeString(_nonce?.toByteArray(StandardCharsets.UTF_8))
+        output.writeString(raw)
+        output.writeString(display)
+        output.writeBytes(embeds)
+    }
+
+    private fun unsupported(message: String? = null): Nothing = throw UnsupportedOperationException(message)
+
+    companion object {
+        private const val EDITED = 1
+        private const val PINNED = 1 shl 1
+        private const val MENTIONS_EVERYONE = 1 shl 2
+        private const val TTS = 1 shl 3
+        private const val RAW_LATIN1 = 1 shl 4
+        private const val DISPLAY_LATIN1 = 1 shl 5
+        private const val RAW_MISSING = 1 shl 6
+        private const val DISPLAY_MISSING = 1 shl 7
+        // The codec never encodes embeds into an empty array, so it marks embeds which were not retained
+        private val EMBEDS_MISSING = ByteArray(0)
+        private const val NOT_EDITED = Long.MIN_VALUE
+        // Header, the flags, four longs and four compressed references
+        private const val OBJECT_SIZE = 64
+        private const val STRING_SIZE = 24
+
+        /**
+         * Creates a compact copy of the [message].
+         * @param fields the fields of the message which are retained
+         * @see MessageCacheAdmission.fields
+         */
+        operator fun invoke(
+            message: Message,
+            fields: Set<MessageCacheAdmission.Field> = MessageCacheAdmission.ALL_FIELDS
+        ): CachedMessage {
+            val rawRetained = MessageCacheAdmission.Field.RAW in fields
+            val contentRaw = if (rawRetained) message.contentRaw else ""
+            // The display content is resolved lazily by JDA, so it is only requested if it is retained
+            val contentDisplay = if (MessageCacheAdmission.Field.DISPLAY in fields) message.contentDisplay else null
+            val rawLatin1 = isLatin1(contentRaw)
+            val displayLatin1 = contentDisplay != null && isLatin1(contentDisplay)
+            // The display content can only fall back to a raw content which was retained
+            val display = if (contentDisplay == null || rawRetained && contentDisplay == contentRaw) {
+                null
+            } else {
+                encode(contentDisplay, displayLatin1)
+            }
+            var flags = 0
+            if (message.isEdited) flags = flags or EDITED
+            if (message.isPinned) flags = flags or PINNED
+            if (message.mentionsEveryone()) flags = flags or MENTIONS_EVERYONE
+            if (message.isTTS) flags = flags or TTS
+            if (rawLatin1) flags = flags or RAW_LATIN1
+            if (displayLatin1) flags = flags or DISPLAY_LATIN1
+            if (!rawRetained) flags = flags or RAW_MISSING
+            if (contentDisplay == null) flags = flags or DISPLAY_MISSING
+            return CachedMessage(
+                flags.toByte(),
+                message.timeEdited?.toInstant()?.toEpochMilli() ?: NOT_EDITED,
+                encode(contentRaw, rawLatin1),
+                display,
+                if (MessageCacheAdmission.Field.EMBEDS in fields) EmbedCodec.encode(message.embeds) else EMBEDS_MISSING,
+                message.idLong,
+                message.nonce,
+                message.channel.idLong,
+                message.guild.idLong
+            )
+        }
+
+        /**
+         * Reads a message written by [writeTo] from the [buffer].
+         * @param id the id of the message
+         */
+        fun readFrom(buffer: ByteBuffer, id: Long): CachedMessage {
+            val flags = buffer.get()
+            val editedAt = buffer.long
+            val channelId = buffer.long
+            val guildId = buffer.long
+            val nonce = buffer.getBytes()?.let { String(it, StandardCharsets.UTF_8) }
+            return CachedMessage(
+                flags,
+                editedAt,
+                buffer.getBytes()!!,
+                buffer.getBytes(),
+                buffer.getBytes(),
+                id,
+                nonce,
+                channelId,
+                guildId
+            )
+        }
+
+        /**
+         * Reads a message written by [writeTo] from a [snapshot][MessageCacheSnapshot].
+         * @param id the id of the message
+         */
+        fun readFrom(input: SnapshotInput, id: Long): CachedMessage {
+            val flags = input.readByte()
+            val editedAt = input.readVarLong().let { if (it == -1L) NOT_EDITED else it }
+            val channelId = input.readVarLong()
+            val guildId = input.readVarLong()
+            val nonce = input.readString()?.let { String(it, StandardCharsets.UTF_8) }
+            val content = input.readString() ?: throw IOException("Corrupt snapshot record, missing content")
+            val displayContent = input.readString()
+            // Reject embeds of another format version now instead of failing whenever they are requested
+            val embeds = input.readBytes()?.also { if (it.isNotEmpty()) EmbedCodec.checkVersion(it) }
+            return CachedMessage(
+                flags,
+                editedAt,
+                content,
+                displayContent,
+                embeds,
+                id,
+                nonce,
+                channelId,
+                guildId
+            )
+        }
+
+        private fun ByteBuffer.putBytes(bytes: ByteArray?) {
+            if (bytes == null) {
+                putInt(-1)
+            } else {
+                putInt(bytes.size)
+                put(bytes)
+            }
+        }
+
+        private fun ByteBuffer.getBytes(): ByteArray? {
+            val length = int
+            if (length < 0) {
+                return null
+            }
+            return ByteArray(length).also { get(it) }
+        }
+
+        // Array header and the elements aligned to 8 bytes
+        private fun arraySize(length: Int) = 16 + (length + 7) / 8 * 8
+
+        private fun isLatin1(content: String): Boolean {
+            for (i in 0 until content.length) {
+                if (content[i].toInt() > 0xFF) {
+                    return false
+                }
+            }
+            return true
+        }
+
+        private fun encode(content: String, latin1: Boolean) =
+            content.toByteArray(if (latin1) StandardCharsets.ISO_8859_1 else StandardCharsets.UTF_8)
+
+        private fun decode(content: ByteArray, latin1: Boolean) =
+            String(content, if (latin1) StandardCharsets.ISO_8859_1 else StandardCharsets.UTF_8)
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import me.schlaubi.regnumutils.common.collections.LongObjectMap
+import net.dv8tion.jda.api.entities.Message
+
+/**
+ * [MessageCache] which keeps the last [messagesPerChannel] messages of every channel in a ring buffer.
+ * Messages are additionally indexed by their id, so the cache can answer lookups by id as well as range queries
+ * like [latest], [before] and [after] which only look at the buffer of a single channel.
+ * The cache therefore never holds more than channels × [messagesPerChannel] messages.
+ *
+ * Messages are stored as compact copies, optionally sharing identical contents with each other.
+ * [keys] and [values] return snapshots of the cache.
+ * @property messagesPerChannel the maximum amount of cached messages per channel
+ * @param deduplicate whether identical contents of messages should be stored only once
+ * @see MessageCache.activate
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class ChannelMessageCache @JvmOverloads constructor(
+    val messagesPerChannel: Int = 100,
+    deduplicate: Boolean = false
+) : MessageCache {
+
+    private val index = LongObjectMap<CachedMessage>()
+    private val channels = LongObjectMap<Ring>()
+    private val pool = if (deduplicate) ContentPool() else null
+    @Volatile
+    private var metrics = MessageCacheMetrics.NONE
+
+    init {
+        require(messagesPerChannel > 0) { "Messages per channel must be greater than 0" }
+    }
+
+    /**
+     * The amount of channels which have at least one message cached.
+     */
+    val channelCount: Int
+        @Synchronized get() = channels.size
+
+    override val deduplicatedBytes: Long
+        @Synchronized get() = pool?.sharedBytes ?: 0L
+
+    override val size: Int
+        @Synchronized get() = index.size
+
+    override val keys: MutableSet<Long>
+        @Synchronized get() = index.keys().toMutableSet()
+
+    override val values: MutableCollection<Message>
+        @Synchronized get() {
+            val values = ArrayList<Message>(index.size)
+            index.forEach { _, message -> values.add(message) }
+            return values
+        }
+
+    override fun isEmpty() = size == 0
+
+    override fun forEachMessage(action: (Message) -> Unit) {
+        val channelIds = synchronized(this) { channels.keys() }
+        channelIds.forEach { channelId ->
+            // collect() returns the newest message first
+            val messages = synchronized(this) { collect(channelId, messagesPerChannel) { true } }
+            messages.asReversed().forEach(action)
+        }
+    }
+
+    @Synchronized
+    override fun contains(id: Long) = index.containsKey(id)
+
+    @Synchronized
+    override fun get(key: Long): Message? = index[key]
+
+    @Synchronized
+    override fun put(key: Long, value: Message): Message? {
+        val copy = value as? CachedMessage ?: CachedMessage(value)
+        val message = pool?.let { copy.intern(it) } ?: copy
+        val previous = index.put(key, message)
+        if (previous != null) {
+            release(previous)
+            return previous
+        }
+        val ring = channels[message.channelIdLong] ?: Ring().also { channels[message.channelIdLong] = it }
+        val evicted = ring.add(key)
+        if (evicted != EMPTY) {
+            index.remove(evicted)?.let {
+                release(it)
+                metrics.recordEviction(MessageCacheMetrics.EvictionCause.CHANNEL_SIZE, it)
+            }
+        }
+        return null
+    }
+
+    @Synchronized
+    override fun replaceMessage(message: Message) = super.replaceMessage(message)
+
+    @Synchronized
+    override fun cacheMessageIfAbsent(message: Message) = super.cacheMessageIfAbsent(message)
+
+    @Synchronized
+    override fun reportEvictionsTo(metrics: MessageCacheMetrics) {
+        this.metrics = metrics
+        pool?.metrics = metrics
+    }
+
+    @Synchronized
+    override fun remove(key: Long): Message? {
+        val message = index.remove(key) ?: return null
+        release(message)
+        val ring = channels[message.channelIdLong]
+        if (ring != null && ring.remove(key) && ring.isEmpty()) {
+            channels.remove(message.channelIdLong)
+        }
+        return message
+    }
+
+    @Synchronized
+    override fun clear() {
+        pool?.clear()
+        index.clear()
+        channels.clear()
+    }
+
+    /**
+     * Returns the amount of cached messages of the channel with the [channelId].
+     */
+    @Synchronized
+    fun channelSize(channelId: Long) = channels[channelId]?.size ?: 0
+
+    /**
+     * Returns the latest messages of the channel with the [channelId], newest first.
+     * @param limit the maximum amount of messages to return
+     */
+    @JvmOverloads
+    @Synchronized
+    fun latest(channelId: Long, limit: Int = messagesPerChannel): List<Message> =
+        collect(channelId, limit) { true }
+
+    /**
+     * Returns the messages of the channel with the [channelId] which were sent before the message with the
+     * [messageId], newest first.
+     * @param limit the maximum amount of messages to return
+     */
+    @JvmOverloads
+    @Synchronized
+    fun before(channelId: Long, messageId: Long, limit: Int = messagesPerChannel): List<Message> =
+        collect(channelId, limit) { it < messageId }
+
+    /**
+     * Returns the messages of the channel with the [channelId] which were sent after the message with the
+     * [messageId], oldest first.
+     * @param limit the maximum amount of messages to return
+     */
+    @JvmOverloads
+    @Synchronized
+    fun after(channelId: Long, messageId: Long, limit: Int = messagesPerChannel): List<Message> {
+        val messages = collect(channelId, messagesPerChannel) { it > messageId }
+        return messages.asReversed().take(limit)
+    }
+
+    /**
+     * Removes all messages of the channel with the [channelId].
+     */
+    @Synchronized
+    fun clearChannel(channelId: Long) {
+        val ring = channels.remove(channelId) ?: return
+        ring.forEachNewest { id ->
+            index.remove(id)?.let {
+                release(it)
+                metrics.recordRemoved(it.guildIdLong, it.channelIdLong, it.retainedSize)
+            }
+            true
+        }
+    }
+
+    private fun release(message: CachedMessage) {
+        pool?.let { message.release(it) }
+    }
+
+    // Message ids are snowflakes, so the newest messages are the ones with the highest ids
+    private inline fun collect(channelId: Long, limit: Int, filter: (Long) -> Boolean): List<Message> {
+        require(limit >= 0) { "Limit must not be negative" }
+        val ring = channels[channelId] ?: return emptyList()
+        val ids = LongArray(ring.size)
+        var count = 0
+        ring.forEachNewest { id ->
+            if (filter(id)) {
+                ids[count++] = id
+            }
+            true
+        }
+        ids.sort(0, count)
+        val result = ArrayList<Message>(minOf(limit, count))
+        var i = count - 1
+        while (i >= 0 && result.size < limit) {
+            result.add(index[ids[i--]]!!)
+        }
+        return result
+    }
+
+    private inner class Ring {
+        private val ids = LongArray(messagesPerChannel)
+        private var head = 0
+        var size = 0
+            private set
+
+        fun isEmpty() = size == 0
+
+        // Returns the id which got overwritten or EMPTY
+        fun add(id: Long): Long {
+            // Removed messages leave holes, fill the oldest one before overwriting a message
+            if (size < ids.size && ids[head] != EMPTY) {
+                compact()
+            }
+            val evicted = ids[head]
+            ids[head] = id
+            head = (head + 1) % ids.size
+            if (evicted == EMPTY) {
+                size++
+            }
+            return evicted
+        }
+
+        fun remove(id: Long): Boolean {
+            for (i in ids.indices) {
+                if (ids[i] == id) {
+                    ids[i] = EMPTY
+                    size--
+                    return true
+                }
+            }
+            return false
+        }
+
+        inline fun forEachNewest(action: (Long) -> Boolean) {
+            var position = head
+            for (i in ids.indices) {
+                position = if (position == 0) ids.size - 1 else position - 1
+                val id = ids[position]
+                if (id != EMPTY && !action(id)) {
+                    return
+                }
+            }
+        }
+
+        // Moves all ids to the start of the buffer keeping their order
+        private fun compact() {
+            val compacted = LongArray(ids.size)
+            var count = 0
+            var position = head
+            for (i in ids.indices) {
+                val id = ids[position]
+                if (id != EMPTY) {
+                    compacted[count++] = id
+                }
+                position = (position + 1) % ids.size
+            }
+            compacted.copyInto(ids)
+            head = count % ids.size
+        }
+    }
+
+    private companion object {
+        const val EMPTY = 0L
+    }
+}
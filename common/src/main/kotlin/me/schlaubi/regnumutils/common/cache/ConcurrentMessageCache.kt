@@ -0,0 +1,155 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import me.schlaubi.regnumutils.common.collections.LongObjectMap
+import net.dv8tion.jda.api.entities.Message
+
+/**
+ * Thread-safe [MessageCache] which stripes its messages by id over several locks,
+ * so events of different messages can be processed concurrently.
+ * [keys] and [values] return snapshots of the cache.
+ * @param concurrencyLevel the expected amount of threads accessing the cache at the same time
+ * @param deduplicate whether identical contents of messages should be stored only once, which serializes interning
+ * @see MessageCache.activate
+ */
+@Suppress("unused")
+class ConcurrentMessageCache @JvmOverloads constructor(
+    concurrencyLevel: Int = 16,
+    deduplicate: Boolean = false
+) : MessageCache {
+
+    private val stripes: Array<LongObjectMap<Message>>
+    private val shift: Int
+    // Guarded by itself and always locked after a stripe
+    private val pool = if (deduplicate) ContentPool() else null
+
+    init {
+        require(concurrencyLevel > 0) { "Concurrency level must be greater than 0" }
+        var bits = 0
+        while (1 shl bits < concurrencyLevel) {
+            bits++
+        }
+        stripes = Array(1 shl bits) { LongObjectMap<Message>() }
+        shift = 64 - bits
+    }
+
+    override val deduplicatedBytes: Long
+        get() = pool?.let { synchronized(it) { it.sharedBytes } } ?: 0L
+
+    override val size: Int
+        get() = stripes.sumBy { synchronized(it) { it.size } }
+
+    override val keys: MutableSet<Long>
+        get() {
+            val keys = HashSet<Long>()
+            stripes.forEach { stripe -> synchronized(stripe) { stripe.forEach { key, _ -> keys.add(key) } } }
+            return keys
+        }
+
+    override val values: MutableCollection<Message>
+        get() {
+            val values = ArrayList<Message>()
+            stripes.forEach { stripe -> synchronized(stripe) { stripe.forEach { _, message -> values.add(message) } } }
+            return values
+        }
+
+    override fun isEmpty() = stripes.all { synchronized(it) { it.isEmpty() } }
+
+    override fun forEachMessage(action: (Message) -> Unit) = stripes.forEach { stripe ->
+        val messages = synchronized(stripe) {
+            ArrayList<Message>(stripe.size).also { messages -> stripe.forEach { _, message -> messages.add(message) } }
+        }
+        messages.forEach(action)
+    }
+
+    override fun contains(id: Long) = stripeOf(id).let { synchronized(it) { it.containsKey(id) } }
+
+    override fun get(key: Long) = stripeOf(key).let { synchronized(it) { it[key] } }
+
+    override fun put(key: Long, value: Message): Message? {
+        val stripe = stripeOf(key)
+        synchronized(stripe) {
+            return stripe.put(key, intern(value))?.also { release(it) }
+        }
+    }
+
+    override fun remove(key: Long): Message? {
+        val stripe = stripeOf(key)
+        synchronized(stripe) {
+            return stripe.remove(key)?.also { release(it) }
+        }
+    }
+
+    override fun replaceMessage(message: Message): Message? {
+        val id = message.idLong
+        // Copy the message before locking the stripe
+        val cached = message as? CachedMessage ?: CachedMessage(message)
+        val stripe = stripeOf(id)
+        synchronized(stripe) {
+            return if (stripe.containsKey(id)) stripe.put(id, intern(cached))?.also { release(it) } else null
+        }
+    }
+
+    override fun cacheMessageIfAbsent(message: Message): Message? {
+        val id = message.idLong
+        val cached = message as? CachedMessage ?: CachedMessage(message)
+        val stripe = stripeOf(id)
+        synchronized(stripe) {
+            return stripe[id] ?: run {
+                stripe.put(id, intern(cached))
+                null
+            }
+        }
+    }
+
+    override fun clear() = stripes.forEach { stripe ->
+        synchronized(stripe) {
+            if (pool != null) {
+                stripe.forEach { _, message -> release(message) }
+            }
+            stripe.clear()
+        }
+    }
+
+    override fun reportEvictionsTo(metrics: MessageCacheMetrics) {
+        val pool = pool ?: return
+        synchronized(pool) { pool.metrics = metrics }
+    }
+
+    private fun intern(message: Message): Message {
+        val pool = pool ?: return message
+        return if (message is CachedMessage) synchronized(pool) { message.intern(pool) } else message
+    }
+
+    private fun release(message: Message) {
+        val pool = pool ?: return
+        if (message is CachedMessage) {
+            synchronized(pool) { message.release(pool) }
+        }
+    }
+
+    private fun stripeOf(id: Long): LongObjectMap<Message> {
+        if (stripes.size == 1) {
+            return stripes[0]
+        }
+        return stripes[((id * -7046029254386353131L) ushr shift).toInt()]
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import me.schlaubi.regnumutils.common.collections.OpenAddressing
+import java.util.*
+
+/**
+ * Content-addressed storage for the contents of [cached messages][CachedMessage].
+ * Identical contents are stored once and shared by all messages, every interned reference is counted and the content
+ * is dropped once all of them got released.
+ *
+ * Contents are kept in an open-addressing table using their hash, so interning does not allocate.
+ * This pool is not thread-safe.
+ * @param expectedSize the amount of contents the pool should be able to hold without resizing
+ */
+internal class ContentPool(expectedSize: Int = 1024) {
+
+    private var contents: Array<ByteArray?>
+    private var hashes: IntArray
+    private var references: IntArray
+    private var mask: Int
+
+    /**
+     * The amount of distinct contents.
+     */
+    var size = 0
+        private set
+
+    /**
+     * The amount of bytes which are shared instead of being stored again.
+     */
+    var sharedBytes = 0L
+        private set
+
+    /**
+     * The metrics every change of the [shared bytes][sharedBytes] is reported to.
+     */
+    var metrics = MessageCacheMetrics.NONE
+
+    init {
+        val capacity = OpenAddressing.capacityFor(expectedSize)
+        contents = arrayOfNulls(capacity)
+        hashes = IntArray(capacity)
+        references = IntArray(capacity)
+        mask = capacity - 1
+    }
+
+    /**
+     * Returns the shared instance of the [content] and adds a reference to it.
+     * @see release
+     */
+    fun intern(content: ByteArray): ByteArray {
+        val hash = Arrays.hashCode(content)
+        var slot = home(hash)
+        while (true) {
+            val current = contents[slot]
+            if (current == null) {
+                contents[slot] = content
+                hashes[slot] = hash
+                references[slot] = 1
+                if (++size > contents.size / 2) {
+                    rehash(contents.size * 2)
+                }
+                return content
+            }
+            if (hashes[slot] == hash && (current === content || Arrays.equals(current, content))) {
+                references[slot]++
+                sharedBytes += content.size
+                metrics.recordDeduplicated(content.size.toLong())
+                return current
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Removes a reference to the shared [content] which was returned by [intern].
+     */
+    fun release(content: ByteArray) {
+        val hash = Arrays.hashCode(content)
+        var slot = home(hash)
+        while (true) {
+            val current = contents[slot] ?: return
+            if (current === content) {
+                if (--references[slot] == 0) {
+                    shiftBack(slot)
+                    size--
+                } else {
+                    sharedBytes -= content.size
+                    metrics.recordDeduplicated(-content.size.toLong())
+                }
+                return
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Removes all contents.
+     */
+    fun clear() {
+        contents.fill(null)
+        references.fill(0)
+        size = 0
+        sharedBytes = 0
+    }
+
+    private fun home(hash: Int) = OpenAddressing.home(hash, mask)
+
+    // The home slot of the content in the slot or -1 if the slot is free
+    private fun homeAt(slot: Int) = if (contents[slot] == null) -1 else home(hashes[slot])
+
+    // Deletion without tombstones: moves following entries of the probe sequence into the gap
+    private fun shiftBack(removed: Int) {
+        val gap = OpenAddressing.shiftBack(removed, mask, { homeAt(it) }) { from, to ->
+            contents[to] = contents[from]
+            hashes[to] = hashes[from]
+            references[to] = references[from]
+        }
+        contents[gap] = null
+        references[gap] = 0
+    }
+
+    private fun rehash(capacity: Int) {
+        val oldContents = contents
+        val oldHashes = hashes
+        val oldReferences = references
+        contents = arrayOfNulls(capacity)
+        hashes = IntArray(capacity)
+        references = IntArray(capacity)
+        mask = capacity - 1
+        for (i in oldContents.indices) {
+            val content = oldContents[i] ?: continue
+            val slot = OpenAddressing.freeSlot(home(oldHashes[i]), mask) { contents[it] == null }
+            contents[slot] = content
+            hashes[slot] = oldHashes[i]
+            references[slot] = oldReferences[i]
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import java.nio.ByteBuffer
+
+/**
+ * Releases the memory of direct and mapped [buffers][ByteBuffer] without waiting for the garbage collector.
+ * Mapped files can not be deleted on some platforms while they are still mapped.
+ */
+internal object DirectBuffers {
+
+    private val cleaner: (ByteBuffer) -> Unit = try {
+        // Java 9 and newer
+        val unsafeClass = Class.forName("sun.misc.Unsafe")
+        val field = unsafeClass.getDeclaredField("theUnsafe")
+        field.isAccessible = true
+        val unsafe = field.get(null)
+        val invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer::class.java)
+        val cleaner: (ByteBuffer) -> Unit = { invokeCleaner.invoke(unsafe, it) }
+        cleaner
+    } catch (e: Exception) {
+        // Java 8
+        val cleaner: (ByteBuffer) -> Unit = { buffer ->
+            val method = buffer.javaClass.getMethod("cleaner")
+            method.isAccessible = true
+            method.invoke(buffer)?.let { it.javaClass.getMethod("clean").invoke(it) }
+        }
+        cleaner
+    }
+
+    /**
+     * Releases the memory of the direct [buffer].
+     * The buffer must not be used afterwards, accessing it could crash the JVM.
+     * If the memory can not be released it is left to the garbage collector.
+     */
+    fun free(buffer: ByteBuffer) {
+        if (!buffer.isDirect) {
+            return
+        }
+        try {
+            cleaner(buffer)
+        } catch (e: Exception) {
+            // The buffer gets released once it is collected
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import net.dv8tion.jda.api.entities.EmbedType
+import net.dv8tion.jda.api.entities.MessageEmbed
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.time.Instant
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+
+/**
+ * Serializes [embeds][MessageEmbed] of [cached messages][CachedMessage] into compact byte arrays.
+ * Every array starts with the [VERSION] of the format. Timestamps are stored in UTC and embed types by their key,
+ * so the format does not depend on the order of [EmbedType].
+ */
+internal object EmbedCodec {
+
+    /**
+     * The version of the format written by [encode].
+     */
+    const val VERSION = 1
+
+    private const val NO_TIMESTAMP = Long.MIN_VALUE
+
+    /**
+     * Encodes the [embeds] or returns `null` if there are none.
+     */
+    fun encode(embeds: List<MessageEmbed>): ByteArray? {
+        if (embeds.isEmpty()) {
+            return null
+        }
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { output ->
+            output.writeByte(VERSION)
+            output.writeByte(embeds.size)
+            embeds.forEach { output.writeEmbed(it) }
+        }
+        return bytes.toByteArray()
+    }
+
+    /**
+     * Decodes embeds encoded by [encode].
+     * @throws IOException if the embeds were encoded in another version of the format
+     */
+    fun decode(embeds: ByteArray?): List<MessageEmbed> {
+        if (embeds == null) {
+            return emptyList()
+        }
+        checkVersion(embeds)
+        val input = DataInputStream(ByteArrayInputStream(embeds, 1, embeds.size - 1))
+        return List(input.readUnsignedByte()) { input.readEmbed() }
+    }
+
+    /**
+     * Checks that the [embeds] were encoded in the current [VERSION] of the format, so they can be decoded later.
+     * @throws IOException if the embeds were encoded in another version of the format
+     */
+    fun checkVersion(embeds: ByteArray?) {
+        if (embeds == null) {
+            return
+        }
+        val version = if (embeds.isEmpty()) -1 else embeds[0].toInt() and 0xFF
+        if (version != VERSION) {
+            throw IOException("Unsupported embed format version $version")
+        }
+    }
+
+    private fun DataOutputStream.writeEmbed(embed: MessageEmbed) {
+        writeNullableUTF(embed.url)
+        writeNullableUTF(embed.title)
+        writeNullableUTF(embed.description)
+        writeUTF(embed.type.key)
+        writeLong(embed.timestamp?.toInstant()?.toEpochMilli() ?: NO_TIMESTAMP)
+        writeInt(embed.colorRaw)
+        writeOptional(embed.thumbnail) {
+            writeNullableUTF(it.url)
+            writeNullableUTF(it.proxyUrl)
+            writeInt(it.width)
+            writeInt(it.height)
+        }
+        writeOptional(embed.siteProvider) {
+            writeNullableUTF(it.name)
+            writeNullableUTF(it.url)
+        }
+        writeOptional(embed.author) {
+            writeNullableUTF(it.name)
+            writeNullableUTF(it.url)
+            writeNullableUTF(it.iconUrl)
+            writeNullableUTF(it.proxyIconUrl)
+        }
+        writeOptional(embed.videoInfo) {
+            writeNullableUTF(it.url)
+            writeInt(it.width)
+            writeInt(it.height)
+        }
+        writeOptional(embed.footer) {
+            writeNullableUTF(it.text)
+            writeNullableUTF(it.iconUrl)
+            writeNullableUTF(it.proxyIconUrl)
+        }
+        writeOptional(embed.image) {
+            writeNullableUTF(it.url)
+            writeNullableUTF(it.proxyUrl)
+            writeInt(it.width)
+            writeInt(it.height)
+        }
+        val fields = embed.fields
+        writeByte(fields.size)
+        fields.forEach {
+            writeNullableUTF(it.name)
+            writeNullableUTF(it.value)
+            writeBoolean(it.isInline)
+        }
+    }
+
+    private fun DataInputStream.readEmbed(): MessageEmbed {
+        val url = readNullableUTF()
+        val title = readNullableUTF()
+        val description = readNullableUTF()
+        // Unknown keys of newer JDA versions are decoded as EmbedType.UNKNOWN
+        val type = EmbedType.fromKey(readUTF())
+        val timestamp = readLong().let {
+            if (it == NO_TIMESTAMP) null else OffsetDateTime.ofInstant(Instant.ofEpochMilli(it), ZoneOffset.UTC)
+        }
+        val color = readInt()
+        val thumbnail = readOptional {
+            MessageEmbed.Thumbnail(readNullableUTF(), readNullableUTF(), readInt(), readInt())
+        }
+        val siteProvider = readOptional { MessageEmbed.Provider(readNullableUTF(), readNullableUTF()) }
+        val author = readOptional {
+            MessageEmbed.AuthorInfo(readNullableUTF(), readNullableUTF(), readNullableUTF(), readNullableUTF())
+        }
+        val videoInfo = readOptional { MessageEmbed.VideoInfo(readNullableUTF(), readInt(), readInt()) }
+        val footer = readOptional { MessageEmbed.Footer(readNullableUTF(), readNullableUTF(), readNullableUTF()) }
+        val image = readOptional {
+            MessageEmbed.ImageInfo(readNullableUTF(), readNullableUTF(), readInt(), readInt())
+        }
+        val fields = List(readUnsignedByte()) {
+            MessageEmbed.Field(readNullableUTF(), readNullableUTF(), readBoolean())
+        }
+        return MessageEmbed(
+            url,
+            title,
+            description,
+            type,
+            timestamp,
+            color,
+            thumbnail,
+            siteProvider,
+            author,
+            videoInfo,
+            footer,
+            image,
+            fields
+        )
+    }
+
+    private inline fun <T> DataOutputStream.writeOptional(value: T?, write: DataOutputStream.(T) -> Unit) {
+        writeBoolean(value != null)
+        if (value != null) {
+            write(value)
+        }
+    }
+
+    private inline fun <T> DataInputStream.readOptional(read: DataInputStream.() -> T): T? =
+        if (readBoolean()) read() else null
+
+    private fun DataOutputStream.writeNullableUTF(value: String?) {
+        writeBoolean(value != null)
+        if (value != null) {
+            writeUTF(value)
+        }
+    }
+
+    private fun DataInputStream.readNullableUTF(): String? = if (readBoolean()) readUTF() else null
+}
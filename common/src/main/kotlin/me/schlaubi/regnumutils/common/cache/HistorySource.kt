@@ -0,0 +1,72 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import net.dv8tion.jda.api.JDA
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import net.dv8tion.jda.api.sharding.ShardManager
+import java.util.concurrent.CompletableFuture
+
+/**
+ * Source of the message history of channels which is used by the [MessageCacheWarmer].
+ * @see HistorySource.of
+ */
+interface HistorySource {
+
+    /**
+     * Retrieves up to [limit] messages of the channel with the [channelId], newest first.
+     * @param before the id of the message before which the messages should be retrieved or `0` for the latest messages
+     * @return a [CompletableFuture] completing with the messages or an empty list if there are no more messages
+     */
+    fun retrieveHistory(channelId: Long, before: Long, limit: Int): CompletableFuture<List<Message>>
+
+    companion object {
+        /**
+         * Creates a [HistorySource] retrieving the history of the text channels of the [jda] instance.
+         * Requests are queued by JDA which takes care of the rate limits.
+         */
+        @JvmStatic
+        fun of(jda: JDA): HistorySource = JDAHistorySource { jda.getTextChannelById(it) }
+
+        /**
+         * Creates a [HistorySource] retrieving the history of the text channels of all shards of the [shardManager].
+         * Requests are queued by JDA which takes care of the rate limits.
+         */
+        @JvmStatic
+        fun of(shardManager: ShardManager): HistorySource = JDAHistorySource { shardManager.getTextChannelById(it) }
+    }
+}
+
+private class JDAHistorySource(private val channelResolver: (Long) -> TextChannel?) : HistorySource {
+
+    override fun retrieveHistory(channelId: Long, before: Long, limit: Int): CompletableFuture<List<Message>> {
+        val channel = channelResolver(channelId)
+        if (channel == null) {
+            val future = CompletableFuture<List<Message>>()
+            future.completeExceptionally(IllegalArgumentException("Unknown text channel $channelId"))
+            return future
+        }
+        if (before == 0L) {
+            return channel.history.retrievePast(limit).submit()
+        }
+        return channel.getHistoryBefore(before, limit).submit().thenApply { it.retrievedHistory }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import net.dv8tion.jda.api.entities.Message
+
+/**
+ * [MessageCache] reporting lookups, latencies and the sizes of the messages of the [delegate] to the [metrics].
+ * Evictions are reported by the [delegate] itself.
+ * Sizes always include the contents of a message, a deduplicating [delegate] reports the contents it shares between
+ * messages whenever it interns or releases them, including during evictions, so both stay consistent.
+ * @see MessageCache.instrument
+ */
+internal class InstrumentedMessageCache(
+    private val delegate: MessageCache,
+    private val metrics: MessageCacheMetrics
+) : MessageCache {
+
+    init {
+        delegate.reportEvictionsTo(metrics)
+    }
+
+    override val size: Int
+        get() = delegate.size
+
+    override val keys: MutableSet<Long>
+        get() = delegate.keys
+
+    override val values: MutableCollection<Message>
+        get() = delegate.values
+
+    override val deduplicatedBytes: Long
+        get() = delegate.deduplicatedBytes
+
+    override fun isEmpty() = delegate.isEmpty()
+
+    override fun forEachMessage(action: (Message) -> Unit) = delegate.forEachMessage(action)
+
+    override fun contains(id: Long) = id in delegate
+
+    override fun get(key: Long): Message? {
+        val start = System.nanoTime()
+        val message = delegate[key]
+        metrics.recordGetLatency(System.nanoTime() - start)
+        metrics.recordLookup(MessageCacheMetrics.LookupType.READ, message != null)
+        return message
+    }
+
+    override fun put(key: Long, value: Message): Message? {
+        val message = value as? CachedMessage ?: CachedMessage(value)
+        val start = System.nanoTime()
+        val previous = delegate.put(key, message)
+        metrics.recordPutLatency(System.nanoTime() - start)
+        recordRemoved(previous)
+        recordAdded(message)
+        return previous
+    }
+
+    override fun replaceMessage(message: Message): Message? {
+        val cached = message as? CachedMessage ?: CachedMessage(message)
+        val previous = delegate.replaceMessage(cached)
+        metrics.recordLookup(MessageCacheMetrics.LookupType.UPDATE, previous != null)
+        if (previous != null) {
+            recordRemoved(previous)
+            recordAdded(cached)
+        }
+        return previous
+    }
+
+    override fun cacheMessageIfAbsent(message: Message): Message? {
+        val cached = message as? CachedMessage ?: CachedMessage(message)
+        val start = System.nanoTime()
+        val existing = delegate.cacheMessageIfAbsent(cached)
+        metrics.recordPutLatency(System.nanoTime() - start)
+        if (existing == null) {
+            recordAdded(cached)
+        }
+        return existing
+    }
+
+    override fun remove(key: Long): Message? {
+        val message = delegate.remove(key)
+        metrics.recordLookup(MessageCacheMetrics.LookupType.DELETE, message != null)
+        recordRemoved(message)
+        return message
+    }
+
+    override fun clear() {
+        delegate.clear()
+        metrics.recordCleared()
+    }
+
+    override fun reportEvictionsTo(metrics: MessageCacheMetrics) = delegate.reportEvictionsTo(metrics)
+
+    private fun recordAdded(message: CachedMessage) =
+        metrics.recordAdded(message.guildIdLong, message.channelIdLong, message.retainedSize)
+
+    private fun recordRemoved(message: Message?) {
+        if (message is CachedMessage) {
+            metrics.recordRemoved(message.guildIdLong, message.channelIdLong, message.retainedSize)
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Lock-free histogram of latencies in nanoseconds.
+ * Values are counted in power of two buckets, so percentiles are accurate up to a factor of two.
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class LatencyHistogram {
+
+    private val buckets = AtomicLongArray(BUCKETS)
+    private val total = LongAdder()
+
+    /**
+     * The amount of recorded values.
+     */
+    val count: Long
+        get() {
+            var count = 0L
+            for (i in 0 until BUCKETS) {
+                count += buckets[i]
+            }
+            return count
+        }
+
+    /**
+     * The average of all recorded values in nanoseconds or `0` if there are none.
+     */
+    val mean: Double
+        get() = count.let { if (it == 0L) 0.0 else total.sum().toDouble() / it }
+
+    /**
+     * Records the [nanos].
+     */
+    fun record(nanos: Long) {
+        val value = maxOf(nanos, 0)
+        buckets.incrementAndGet(BUCKETS - java.lang.Long.numberOfLeadingZeros(value))
+        total.add(value)
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the [percentile] of the recorded values in nanoseconds.
+     * @param percentile the percentile between `0` and `1`
+     */
+    fun percentile(percentile: Double): Long {
+        require(percentile in 0.0..1.0) { "Percentile must be between 0 and 1" }
+        val count = count
+        if (count == 0L) {
+            return 0
+        }
+        val target = maxOf(1L, Math.ceil(count * percentile).toLong())
+        var seen = 0L
+        for (i in 0 until BUCKETS) {
+            seen += buckets[i]
+            if (seen >= target) {
+                return upperBound(i)
+            }
+        }
+        return upperBound(BUCKETS - 1)
+    }
+
+    /**
+     * Returns the [percentile] of the recorded values in the specified [unit].
+     * @see percentile
+     */
+    fun percentile(percentile: Double, unit: TimeUnit) = unit.convert(percentile(percentile), TimeUnit.NANOSECONDS)
+
+    /**
+     * Removes all recorded values.
+     */
+    fun reset() {
+        for (i in 0 until BUCKETS) {
+            buckets[i] = 0
+        }
+        total.reset()
+    }
+
+    override fun toString() =
+        "LatencyHistogram(count=$count, mean=${mean.toLong()}ns, p50=${percentile(0.5)}ns, p99=${percentile(0.99)}ns)"
+
+    private companion object {
+        // Bucket i contains the values below 2^i
+        const val BUCKETS = 64
+
+        fun upperBound(bucket: Int) = if (bucket == BUCKETS - 1) Long.MAX_VALUE else (1L shl bucket) - 1
+    }
+}
@@ -19,20 +19,23 @@
 
 package me.schlaubi.regnumutils.common.cache
 
+import me.schlaubi.regnumutils.common.collections.LongObjectMap
 import net.dv8tion.jda.api.entities.Message
 
 /**
+ * Unbounded [MessageCache] storing its messages in a [LongObjectMap].
+ * [keys] and [values] return snapshots of the cache.
  * @see MessageCache.activate
  */
 class MemoryMessageCache private constructor() : MessageCache {
 
-    private val storage = mutableMapOf<Long, Message>()
+    private val storage = LongObjectMap<Message>()
 
     override val keys: MutableSet<Long>
-        get() = storage.keys
+        get() = storage.keys().toMutableSet()
 
     override val values: MutableCollection<Message>
-        get() = storage.values
+        get() = ArrayList<Message>(storage.size).also { values -> storage.forEach { _, message -> values.add(message) } }
 
     override val size: Int
         get() = storage.size
@@ -41,6 +44,8 @@ class MemoryMessageCache private constructor() : MessageCache {
 
     override fun isEmpty() = storage.isEmpty()
 
+    override fun forEachMessage(action: (Message) -> Unit) = storage.forEach { _, message -> action(message) }
+
     override fun get(key: Long) = storage[key]
 
     override fun put(key: Long, value: Message) = storage.put(key, value)
@@ -20,20 +20,13 @@
 package me.schlaubi.regnumutils.common.cache
 
 import cc.hawkbot.regnum.client.event.EventManager
-import cc.hawkbot.regnum.client.event.EventSubscriber
-import me.schlaubi.regnumutils.common.event.JDAListenerAdapter
 import net.dv8tion.jda.api.entities.*
-import net.dv8tion.jda.api.events.message.guild.GuildMessageDeleteEvent
-import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent
-import net.dv8tion.jda.api.events.message.guild.GuildMessageUpdateEvent
-import net.dv8tion.jda.api.hooks.SubscribeEvent
-import net.dv8tion.jda.api.utils.MarkdownSanitizer
-import java.time.OffsetDateTime
-import java.util.*
+import java.nio.file.Path
 
 /**
  * Cache for [messages][Message] in order to get the old content in `MESSAGE_UPDATE` and `MESSAGE_DELETE` events.
  * @see Message
+ * @see MessageCacheWarmer to load the history of channels after startup
  */
 @Suppress("unused")
 interface MessageCache : MutableMap<Long, Message> {
@@ -46,6 +39,13 @@ interface MessageCache : MutableMap<Long, Message> {
      */
     override val keys: MutableSet<Long>
 
+    /**
+     * The amount of bytes which are shared between messages with identical contents instead of being stored again.
+     * Caches which do not deduplicate contents return `0`.
+     */
+    val deduplicatedBytes: Long
+        get() = 0L
+
     /**
      * A [MutableSet] of all cached messages
      */
@@ -92,7 +92,7 @@ interface MessageCache : MutableMap<Long, Message> {
      */
     fun cacheMessage(message: Message) = put(
         message.idLong,
-        CachedMessage(message)
+        message as? CachedMessage ?: CachedMessage(message)
     )
 
     /**
@@ -100,6 +100,61 @@ interface MessageCache : MutableMap<Long, Message> {
      */
     operator fun plusAssign(message: Message) = cacheMessage(message).run { Unit }
 
+    /**
+     * Adds the [message] to the cache unless a version of it is already cached.
+     * Implementations should do this atomically, the default implementation does not.
+     * @return the cached version or `null` if the [message] got added
+     */
+    fun cacheMessageIfAbsent(message: Message): Message? = get(message.idLong) ?: run {
+        cacheMessage(message)
+        null
+    }
+
+    /**
+     * Replaces the cached version of the [message] if there is one.
+     * Implementations should do this atomically, the default implementation does not.
+     * @return the previously cached version or `null` if the message was not cached
+     */
+    fun replaceMessage(message: Message): Message? = get(message.idLong)?.also { cacheMessage(message) }
+
+    /**
+     * Passes all cached messages to the [action] without copying the whole cache first.
+     * Caches which keep the messages of a channel together pass them channel by channel ordered by id,
+     * the lock of the cache is not held while the [action] runs.
+     * The default implementation iterates a snapshot of [values].
+     */
+    fun forEachMessage(action: (Message) -> Unit) = values.forEach(action)
+
+    /**
+     * Writes all cached messages to a snapshot file at the [path].
+     * @return the amount of written messages
+     * @see MessageCacheSnapshot.write
+     */
+    fun exportSnapshot(path: Path) = MessageCacheSnapshot.write(this, path)
+
+    /**
+     * Adds all messages of the snapshot file at the [path] which are admitted by the [admission] and not cached yet.
+     * @return the amount of read messages
+     * @see MessageCacheSnapshot.read
+     */
+    fun importSnapshot(path: Path, admission: MessageCacheAdmission = MessageCacheAdmission.ALL) =
+        MessageCacheSnapshot.read(this, path, admission)
+
+    /**
+     * Wraps the cache so it reports lookups, latencies, sizes and evictions to the [metrics].
+     * @return the instrumented cache which has to be used instead of this one
+     * @see RecordingMessageCacheMetrics
+     */
+    fun instrument(metrics: MessageCacheMetrics): MessageCache =
+        if (metrics === MessageCacheMetrics.NONE) this else InstrumentedMessageCache(this, metrics)
+
+    /**
+     * Sets the [metrics] the cache reports its evictions and the contents it shares between messages to.
+     * Caches which neither evict nor deduplicate messages on their own ignore this.
+     * @see instrument
+     */
+    fun reportEvictionsTo(metrics: MessageCacheMetrics) = Unit
+
     override fun putAll(from: Map<out Long, Message>) =
         throw UnsupportedOperationException("Message caches do not support the putAll function")
 
@@ -128,188 +183,33 @@ interface MessageCache : MutableMap<Long, Message> {
      */
     override fun clear()
 
-    private data class CachedMessage(
-        private val edited: Boolean,
-        private val pinned: Boolean,
-        private val mentionsEveryone: Boolean,
-        private val contentRaw: String,
-        private val contentDisplay: String,
-        private val tts: Boolean,
-        private val _embeds: List<MessageEmbed>,
-        private val _idLong: Long,
-        private val _nonce: String?,
-        private val editedTime: OffsetDateTime?
-    ) : Message {
-
-        constructor(message: Message) : this(
-            message.isEdited,
-            message.isPinned,
-            message.mentionsEveryone(),
-            message.contentRaw,
-            message.contentDisplay,
-            message.isTTS,
-            message.embeds,
-            message.idLong,
-            message.nonce,
-            message.timeEdited
-        )
-
-        private val _contentStripped by lazy { MarkdownSanitizer.sanitize(contentDisplay) }
-
-        override fun isFromType(type: ChannelType) = type == ChannelType.TEXT
-
-        override fun isEdited() = edited
-
-        override fun getActivity() = unsupported()
-
-        override fun isPinned() = pinned
-
-        override fun mentionsEveryone() = mentionsEveryone
-
-        override fun addReaction(emote: Emote) = unsupported()
-
-        override fun addReaction(unicode: String) = unsupported()
-
-        override fun clearReactions() = unsupported()
-
-        override fun formatTo(formatter: Formatter?, flags: Int, width: Int, precision: Int) = unsupported()
-
-        override fun getJumpUrl() = unsupported()
-
-        override fun getContentRaw() = contentRaw
-
-        override fun getContentStripped() = _contentStripped
-
-        override fun getGuild() = unsupported()
-
-        override fun isTTS() = tts
-
-        override fun isMentioned(mentionable: IMentionable, vararg types: Message.MentionType?) = unsupported()
-
-        override fun editMessageFormat(format: String, vararg args: Any?) = unsupported()
-
-        override fun getMentionedChannels() = unsupported()
-
-        override fun getMember() = unsupported()
-
-        override fun getIdLong() = _idLong
-
-        override fun getContentDisplay() = contentDisplay
-
-        override fun getPrivateChannel() = unsupported()
-
-        override fun getChannelType() = ChannelType.TEXT
-
-        override fun getAttachments() = unsupported()
-
-        override fun getMentionedRoles() = unsupported()
-
-        override fun pin() = unsupported()
-
-        override fun getMentionedMembers(guild: Guild) = unsupported()
-
-        override fun getMentionedMembers() = unsupported()
-
-        override fun unpin() = unsupported()
-
-        override fun getCategory() = unsupported()
-
-        override fun getInvites() = unsupported()
-
-        override fun getMentionedUsers() = unsupported()
-
-        override fun getEmotes() = unsupported()
-
-        override fun getAuthor() = unsupported()
-
-        override fun editMessage(newContent: CharSequence) = unsupported()
-
-        override fun editMessage(newContent: MessageEmbed) = unsupported()
-
-        override fun editMessage(newContent: Message) = unsupported()
-
-        override fun delete() = unsupported()
-
-        override fun getMentions(vararg types: Message.MentionType?) = unsupported()
-
-        override fun isWebhookMessage() = unsupported()
-
-        override fun getEmbeds() = _embeds
-
-        override fun getType() = unsupported()
-
-        override fun getChannel() = unsupported()
-
-        override fun getJDA() = unsupported()
-
-        override fun getReactions() = unsupported()
-
-        override fun getTimeEdited() = editedTime
-
-        override fun getTextChannel() = unsupported()
-
-        override fun getNonce() = _nonce
-
-        private fun unsupported(): Nothing = throw UnsupportedOperationException()
-
-    }
-
-    private class MessageWatcher(
-        private val cache: MessageCache,
-        private val eventManager: EventManager
-    ) : JDAListenerAdapter() {
-
-        @SubscribeEvent
-        @EventSubscriber
-        override fun onGuildMessageReceived(event: GuildMessageReceivedEvent) {
-            cache.cacheMessage(event.message)
-        }
-
-        @SubscribeEvent
-        @EventSubscriber
-        override fun onGuildMessageUpdate(event: GuildMessageUpdateEvent) {
-            val previous = cache[event.messageIdLong]
-            eventManager.fireEvent(
-                me.schlaubi.regnumutils.common.events.GuildMessageUpdateEvent(
-                    event.jda,
-                    event.responseNumber,
-                    event.messageIdLong,
-                    event.channel,
-                    previous,
-                    event.message
-                )
-            )
-            cache.replace(event.messageIdLong, event.message)
-        }
-
-        @SubscribeEvent
-        @EventSubscriber
-        override fun onGuildMessageDelete(event: GuildMessageDeleteEvent) {
-            val previous = cache[event.messageIdLong]
-            eventManager.fireEvent(
-                me.schlaubi.regnumutils.common.events.GuildMessageDeleteEvent(
-                    event.jda,
-                    event.responseNumber,
-                    event.messageIdLong,
-                    event.channel,
-                    previous
-                )
-            )
-            cache.remove(event.messageIdLong)
-        }
-    }
-
     companion object {
         /**
-         * Creates a new Message cache and registers it's listner to the specified [eventManager].
+         * Creates a new [ConcurrentMessageCache] and registers it's listner to the specified [eventManager].
          * @return the new [MessageCache]
          */
         @JvmStatic
-        fun activate(eventManager: EventManager): MessageCache {
-            return with (MemoryMessageCache.create()) {
-                eventManager.register(MessageWatcher(this, eventManager))
-                this
-            }
+        fun activate(eventManager: EventManager): MessageCache = activate(eventManager, ConcurrentMessageCache())
+
+        /**
+         * Registers the listener of the [cache] to the specified [eventManager].
+         * Use this with a [BoundedMessageCache] to limit the memory used by the cache.
+         * A [ChannelMessageCache] keeps the latest messages of every channel and supports range queries.
+         * @return the [cache]
+         */
+        @JvmStatic
+        fun activate(eventManager: EventManager, cache: MessageCache): MessageCache =
+            activate(eventManager, cache, MessageCacheAdmission.ALL)
+
+        /**
+         * Registers the listener of the [cache] to the specified [eventManager] which only caches the messages
+         * admitted by the [admission].
+         * @return the [cache]
+         */
+        @JvmStatic
+        fun activate(eventManager: EventManager, cache: MessageCache, admission: MessageCacheAdmission): MessageCache {
+            eventManager.register(MessageWatcher(cache, eventManager, admission))
+            return cache
         }
     }
 }
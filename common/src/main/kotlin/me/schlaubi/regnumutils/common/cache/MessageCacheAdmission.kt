@@ -0,0 +1,105 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import me.schlaubi.regnumutils.common.collections.LongSet
+import net.dv8tion.jda.api.entities.Message
+import java.util.*
+
+/**
+ * Rules deciding which messages get cached by the listener of a [MessageCache] and which of their fields are retained.
+ * The rules are checked using primitive sets before the message gets copied, so messages of guilds which do not use
+ * the cache cost nothing.
+ *
+ * If neither [guilds] nor [channels] are specified the messages of all guilds are cached, otherwise only messages of
+ * the enabled guilds and channels.
+ * @property guilds the ids of the guilds whose messages are cached or `null`
+ * @property channels the ids of the channels whose messages are cached or `null`
+ * @property minimumLength the minimum length of the raw content of cached messages
+ * @property fields the [fields][Field] which are retained, reading a field which was not retained from a cached message
+ * throws an [UnsupportedOperationException]
+ * @see MessageCache.activate
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class MessageCacheAdmission @JvmOverloads constructor(
+    val guilds: LongSet? = null,
+    val channels: LongSet? = null,
+    val minimumLength: Int = 0,
+    fields: Set<Field> = ALL_FIELDS
+) {
+
+    private val everything = guilds == null && channels == null
+
+    val fields: Set<Field> = Collections.unmodifiableSet(
+        if (fields.isEmpty()) EnumSet.noneOf(Field::class.java) else EnumSet.copyOf(fields)
+    )
+
+    init {
+        require(minimumLength >= 0) { "Minimum length must not be negative" }
+    }
+
+    /**
+     * Checks whether messages of the guild with the [guildId] in the channel with the [channelId] are cached or not.
+     */
+    fun admits(guildId: Long, channelId: Long) =
+        everything || guilds?.contains(guildId) == true || channels?.contains(channelId) == true
+
+    /**
+     * Checks whether the [message] gets cached or not.
+     */
+    fun admits(message: Message) =
+        admits(message.guild.idLong, message.channel.idLong) && message.contentRaw.length >= minimumLength
+
+    // Cached messages do not know their guild and channel entities and might not have retained their raw content
+    internal fun admitsCached(message: CachedMessage) = admits(message.guildIdLong, message.channelIdLong) &&
+            (minimumLength == 0 || !message.isRawRetained || message.contentRaw.length >= minimumLength)
+
+    /**
+     * Parts of a message which can be retained.
+     */
+    enum class Field {
+        /**
+         * The raw content.
+         */
+        RAW,
+        /**
+         * The display content.
+         */
+        DISPLAY,
+        /**
+         * The embeds.
+         */
+        EMBEDS
+    }
+
+    companion object {
+        /**
+         * All [fields][Field].
+         */
+        @JvmField
+        val ALL_FIELDS: Set<Field> = Collections.unmodifiableSet(EnumSet.allOf(Field::class.java))
+
+        /**
+         * Admission caching all messages with all of their fields.
+         */
+        @JvmField
+        val ALL = MessageCacheAdmission()
+    }
+}
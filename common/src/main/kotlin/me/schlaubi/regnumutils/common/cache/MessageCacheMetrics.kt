@@ -0,0 +1,137 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+/**
+ * SPI to export the metrics of a [MessageCache].
+ * All functions do nothing by default, so implementations only need to override the metrics they export.
+ * Caches only report to their metrics once they got [instrumented][MessageCache.instrument], so caches which are not
+ * instrumented do not pay for any of this.
+ *
+ * Sizes are estimations of the heap a message would occupy as a compact copy, regardless of where the cache stores it.
+ * Implementations have to be thread-safe.
+ * @see RecordingMessageCacheMetrics
+ */
+interface MessageCacheMetrics {
+
+    /**
+     * Records a lookup of a message.
+     * @param type the reason of the lookup
+     * @param hit whether the message was cached or not
+     */
+    fun recordLookup(type: LookupType, hit: Boolean) = Unit
+
+    /**
+     * Records the time a lookup by id took in nanoseconds.
+     */
+    fun recordGetLatency(nanos: Long) = Unit
+
+    /**
+     * Records the time adding a message took in nanoseconds.
+     */
+    fun recordPutLatency(nanos: Long) = Unit
+
+    /**
+     * Records that a message of the guild with the [guildId] and the channel with the [channelId] was added.
+     * @param bytes the estimated size of the message
+     */
+    fun recordAdded(guildId: Long, channelId: Long, bytes: Int) = Unit
+
+    /**
+     * Records that a message was removed or replaced by a newer version.
+     * @param bytes the estimated size of the message
+     */
+    fun recordRemoved(guildId: Long, channelId: Long, bytes: Int) = Unit
+
+    /**
+     * Records that the cache evicted a message on its own.
+     * @param cause the reason of the eviction
+     * @param bytes the estimated size of the message
+     */
+    fun recordEviction(cause: EvictionCause, guildId: Long, channelId: Long, bytes: Int) = Unit
+
+    /**
+     * Records that a deduplicating cache changed the amount of bytes it shares between messages instead of storing
+     * them again.
+     * Sizes of added and removed messages include shared contents, so the retained bytes are their sum minus the
+     * shared bytes.
+     * @param bytes the change of the shared bytes, negative if a shared content got released
+     */
+    fun recordDeduplicated(bytes: Long) = Unit
+
+    /**
+     * Records that all messages got removed.
+     */
+    fun recordCleared() = Unit
+
+    /**
+     * The reason of a lookup.
+     */
+    enum class LookupType {
+        /**
+         * The message was requested by its id.
+         */
+        READ,
+        /**
+         * The message was looked up to replace it with an edited version.
+         */
+        UPDATE,
+        /**
+         * The message was looked up to remove it.
+         */
+        DELETE
+    }
+
+    /**
+     * The reason of an eviction.
+     */
+    enum class EvictionCause {
+        /**
+         * The cache reached its maximum amount of messages.
+         */
+        SIZE,
+        /**
+         * The channel of the message reached its maximum amount of messages.
+         */
+        CHANNEL_SIZE,
+        /**
+         * The message reached its maximum age.
+         */
+        EXPIRED,
+        /**
+         * The storage of the cache ran out of space.
+         */
+        CAPACITY
+    }
+
+    companion object {
+        /**
+         * [MessageCacheMetrics] which do not record anything.
+         */
+        @JvmField
+        val NONE: MessageCacheMetrics = object : MessageCacheMetrics {}
+    }
+}
+
+/**
+ * Records the eviction of the [message].
+ */
+internal fun MessageCacheMetrics.recordEviction(cause: MessageCacheMetrics.EvictionCause, message: CachedMessage) =
+    recordEviction(cause, message.guildIdLong, message.channelIdLong, message.retainedSize)
@@ -0,0 +1,382 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import net.dv8tion.jda.api.entities.Message
+import java.io.EOFException
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.ReadableByteChannel
+import java.nio.channels.WritableByteChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+
+/**
+ * Exports the contents of [message caches][MessageCache] to compact binary snapshot files and imports them again,
+ * for example to hand the cache over to a new process during a deploy.
+ *
+ * A snapshot starts with a magic number and the format [VERSION] followed by length-prefixed records in the order of
+ * [MessageCache.forEachMessage], which is channel by channel and by id for caches keeping the messages of a channel together.
+ * Ids are stored as zigzag varint deltas and short contents are interned, so repeated contents are only written once.
+ * @see MessageCache.exportSnapshot
+ * @see MessageCache.importSnapshot
+ */
+object MessageCacheSnapshot {
+
+    /**
+     * The version of the snapshot format.
+     */
+    const val VERSION = 1
+
+    private const val MAGIC = 0x524d4353 // RMCS
+
+    /**
+     * Streams all messages of the [cache] to a snapshot file at the [path] without copying the whole cache.
+     * The snapshot is written to a temporary file first, so an existing snapshot is replaced atomically.
+     * @return the amount of written messages
+     */
+    @JvmStatic
+    fun write(cache: MessageCache, path: Path): Int {
+        var count = 0
+        val temporary = path.resolveSibling("${path.fileName}.tmp")
+        FileChannel.open(
+            temporary,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING
+        ).use { channel ->
+            val output = SnapshotOutput(channel)
+            output.writeHeader(MAGIC, VERSION)
+            var previousId = 0L
+            cache.forEachMessage {
+                val message = it as? CachedMessage ?: CachedMessage(it)
+                output.writeVarLong(message.idLong - previousId)
+                message.writeTo(output)
+                output.endRecord()
+                previousId = message.idLong
+                count++
+            }
+            output.finish()
+            channel.force(false)
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        return count
+    }
+
+    /**
+     * Streams all messages of the snapshot file at the [path] into the [cache].
+     * Messages which are not admitted by the [admission] are skipped and messages which are already cached are not
+     * overwritten, because the cached version can only be newer than the snapshot.
+     * @return the amount of read messages
+     * @throws IOException if the file is not a snapshot or was written using another format version
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun read(cache: MessageCache, path: Path, admission: MessageCacheAdmission = MessageCacheAdmission.ALL): Int {
+        FileChannel.open(path, StandardOpenOption.READ).use { channel ->
+            val input = SnapshotInput(channel)
+            input.readHeader(MAGIC, VERSION)
+            var count = 0
+            var id = 0L
+            while (input.nextRecord()) {
+                id += input.readVarLong()
+                val message = CachedMessage.readFrom(input, id)
+                input.endRecord()
+                if (admission.admitsCached(message)) {
+                    cache.cacheMessageIfAbsent(message)
+                }
+                count++
+            }
+            return count
+        }
+    }
+}
+
+/**
+ * Writes length-prefixed records of a [MessageCacheSnapshot] to a [channel] using a single buffer.
+ */
+internal class SnapshotOutput(private val channel: WritableByteChannel) {
+
+    private val buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+    private val interned = HashMap<ByteBuffer, Int>()
+    private var record = ByteArray(256)
+    private var recordSize = 0
+
+    fun writeHeader(magic: Int, version: Int) {
+        buffer.putInt(magic)
+        buffer.putInt(version)
+    }
+
+    fun writeByte(value: Byte) {
+        ensureRecordCapacity(1)
+        record[recordSize++] = value
+    }
+
+    /**
+     * Writes the [value] as zigzag encoded varint, so small negative values stay small as well.
+     */
+    fun writeVarLong(value: Long) = writeUnsignedVarLong((value shl 1) xor (value shr 63))
+
+    fun writeBytes(bytes: ByteArray?) {
+        if (bytes == null) {
+            writeUnsignedVarLong(0)
+            return
+        }
+        writeUnsignedVarLong(bytes.size + 1L)
+        writeRaw(bytes)
+    }
+
+    /**
+     * Writes the [bytes] of a string, interning it if it is short enough.
+     */
+    fun writeString(bytes: ByteArray?) {
+        if (bytes == null) {
+            writeUnsignedVarLong(NULL_STRING.toLong())
+            return
+        }
+        val key = ByteBuffer.wrap(bytes)
+        val index = interned[key]
+        when {
+            index != null -> writeUnsignedVarLong(FIRST_INTERNED + index.toLong())
+            bytes.size <= MAX_INTERNED_LENGTH && interned.size < MAX_INTERNED -> {
+                interned[key] = interned.size
+                writeUnsignedVarLong(NEW_INTERNED.toLong())
+                writeBytes(bytes)
+            }
+            else -> {
+                writeUnsignedVarLong(LITERAL.toLong())
+                writeBytes(bytes)
+            }
+        }
+    }
+
+    fun endRecord() {
+        writeToBuffer(recordSize.toLong())
+        var offset = 0
+        while (offset < recordSize) {
+            if (!buffer.hasRemaining()) {
+                flush()
+            }
+            val length = minOf(buffer.remaining(), recordSize - offset)
+            buffer.put(record, offset, length)
+            offset += length
+        }
+        recordSize = 0
+    }
+
+    fun finish() {
+        // A record length of 0 marks the end of the snapshot
+        writeToBuffer(0)
+        flush()
+    }
+
+    private fun writeUnsignedVarLong(value: Long) {
+        ensureRecordCapacity(10)
+        var remaining = value
+        while (remaining and 0x7FL.inv() != 0L) {
+            record[recordSize++] = ((remaining and 0x7F) or 0x80).toByte()
+            remaining = remaining ushr 7
+        }
+        record[recordSize++] = remaining.toByte()
+    }
+
+    private fun writeRaw(bytes: ByteArray) {
+        ensureRecordCapacity(bytes.size)
+        System.arraycopy(bytes, 0, record, recordSize, bytes.size)
+        recordSize += bytes.size
+    }
+
+    private fun writeToBuffer(length: Long) {
+        if (buffer.remaining() < 10) {
+            flush()
+        }
+        var remaining = length
+        while (remaining and 0x7FL.inv() != 0L) {
+            buffer.put(((remaining and 0x7F) or 0x80).toByte())
+            remaining = remaining ushr 7
+        }
+        buffer.put(remaining.toByte())
+    }
+
+    private fun ensureRecordCapacity(additional: Int) {
+        if (recordSize + additional > record.size) {
+            record = record.copyOf(maxOf(record.size * 2, recordSize + additional))
+        }
+    }
+
+    private fun flush() {
+        buffer.flip()
+        while (buffer.hasRemaining()) {
+            channel.write(buffer)
+        }
+        buffer.clear()
+    }
+}
+
+/**
+ * Streams length-prefixed records of a [MessageCacheSnapshot] from a [channel].
+ */
+internal class SnapshotInput(private val channel: ReadableByteChannel) {
+
+    private val buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).flip() as ByteBuffer
+    private val interned = ArrayList<ByteArray>()
+    private var record = ByteBuffer.allocate(256)
+
+    fun readHeader(magic: Int, version: Int) {
+        val actualMagic = readInt()
+        if (actualMagic != magic) {
+            throw IOException("File is not a message cache snapshot")
+        }
+        val actualVersion = readInt()
+        if (actualVersion != version) {
+            throw IOException("Unsupported snapshot version $actualVersion, expected $version")
+        }
+    }
+
+    /**
+     * Reads the next record into memory.
+     * @return `false` if the end of the snapshot was reached
+     */
+    fun nextRecord(): Boolean {
+        var length = 0L
+        var shift = 0
+        do {
+            val byte = readBufferedByte().toLong()
+            length = length or ((byte and 0x7F) shl shift)
+            shift += 7
+        } while (byte and 0x80 != 0L)
+        if (length == 0L) {
+            return false
+        }
+        if (length > Int.MAX_VALUE) {
+            throw IOException("Corrupt snapshot record of $length bytes")
+        }
+        if (record.capacity() < length) {
+            record = ByteBuffer.allocate(length.toInt())
+        }
+        record.clear().limit(length.toInt())
+        while (record.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                fill()
+            }
+            val chunk = minOf(buffer.remaining(), record.remaining())
+            val limit = buffer.limit()
+            buffer.limit(buffer.position() + chunk)
+            record.put(buffer)
+            buffer.limit(limit)
+        }
+        record.flip()
+        return true
+    }
+
+    /**
+     * Verifies that the current record was read completely.
+     */
+    fun endRecord() {
+        if (record.hasRemaining()) {
+            throw IOException("Corrupt snapshot record, ${record.remaining()} bytes were not read")
+        }
+    }
+
+    fun readByte(): Byte {
+        if (!record.hasRemaining()) {
+            throw IOException("Corrupt snapshot record, unexpected end of record")
+        }
+        return record.get()
+    }
+
+    fun readVarLong(): Long {
+        val value = readUnsignedVarLong()
+        return (value ushr 1) xor -(value and 1)
+    }
+
+    fun readBytes(): ByteArray? {
+        val length = readUnsignedVarLong()
+        if (length == 0L) {
+            return null
+        }
+        if (length - 1 > record.remaining()) {
+            throw IOException("Corrupt snapshot record, unexpected end of record")
+        }
+        return ByteArray((length - 1).toInt()).also { record.get(it) }
+    }
+
+    /**
+     * Reads the bytes of a string written by [SnapshotOutput.writeString].
+     * Interned strings share the same array.
+     */
+    fun readString(): ByteArray? {
+        val reference = readUnsignedVarLong()
+        return when {
+            reference == NULL_STRING.toLong() -> null
+            reference == LITERAL.toLong() -> readBytes()
+            reference == NEW_INTERNED.toLong() -> readBytes()?.also { interned.add(it) }
+            reference - FIRST_INTERNED < interned.size -> interned[(reference - FIRST_INTERNED).toInt()]
+            else -> throw IOException("Corrupt snapshot record, unknown string $reference")
+        }
+    }
+
+    private fun readUnsignedVarLong(): Long {
+        var value = 0L
+        var shift = 0
+        while (shift < 64) {
+            val byte = readByte().toLong()
+            value = value or ((byte and 0x7F) shl shift)
+            if (byte and 0x80 == 0L) {
+                return value
+            }
+            shift += 7
+        }
+        throw IOException("Corrupt snapshot record, varint is too long")
+    }
+
+    private fun readInt(): Int {
+        var value = 0
+        repeat(4) { value = (value shl 8) or (readBufferedByte().toInt() and 0xFF) }
+        return value
+    }
+
+    private fun readBufferedByte(): Byte {
+        if (!buffer.hasRemaining()) {
+            fill()
+        }
+        return buffer.get()
+    }
+
+    private fun fill() {
+        buffer.compact()
+        val read = channel.read(buffer)
+        buffer.flip()
+        if (read < 0 && !buffer.hasRemaining()) {
+            throw EOFException("Unexpected end of snapshot")
+        }
+    }
+}
+
+private const val BUFFER_SIZE = 64 * 1024
+private const val NULL_STRING = 0
+private const val LITERAL = 1
+private const val NEW_INTERNED = 2
+private const val FIRST_INTERNED = 3
+private const val MAX_INTERNED_LENGTH = 256
+private const val MAX_INTERNED = 1 shl 16
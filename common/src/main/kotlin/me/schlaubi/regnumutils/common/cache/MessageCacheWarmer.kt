@@ -0,0 +1,241 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import cc.hawkbot.regnum.client.event.EventManager
+import me.schlaubi.regnumutils.common.events.MessageCacheChannelWarmedEvent
+import me.schlaubi.regnumutils.common.events.MessageCacheWarmUpEvent
+import me.schlaubi.regnumutils.common.events.MessageCacheWarmedEvent
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Loads the recent history of channels into a [MessageCache], so update and delete events have an old message right
+ * after the bot started.
+ *
+ * At most [parallelism] channels are warmed up at the same time and their history is paged in batches of [batchSize]
+ * messages. Everything runs asynchronously on the callbacks of the [HistorySource], so no thread is blocked while
+ * waiting for the history. Messages which were already cached are not replaced, as they might be newer than the history,
+ * and only messages admitted by the [admission] are cached with the fields it retains, just like the cache listener does.
+ * The history of a channel is cached oldest first once it was loaded, so caches evicting their oldest entries keep the newest messages.
+ * The progress is reported using [MessageCacheWarmUpEvent]s and the counters of the warmer.
+ * @param cache the cache to fill
+ * @param source the source of the history
+ * @param eventManager the [EventManager] used to fire [MessageCacheWarmUpEvent]s or `null` to fire no events
+ * @property parallelism the maximum amount of channels which are warmed up at the same time
+ * @property messagesPerChannel the maximum amount of messages which are loaded per channel
+ * @property batchSize the amount of messages requested at once
+ * @param admission the rules deciding which messages of the history are cached
+ * @see HistorySource.of
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class MessageCacheWarmer @JvmOverloads constructor(
+    private val cache: MessageCache,
+    private val source: HistorySource,
+    private val eventManager: EventManager? = null,
+    val parallelism: Int = 2,
+    val messagesPerChannel: Int = 100,
+    val batchSize: Int = MAX_BATCH_SIZE,
+    private val admission: MessageCacheAdmission = MessageCacheAdmission.ALL
+) {
+
+    private val warmedChannels = AtomicInteger()
+    private val failedChannels = AtomicInteger()
+    private val pendingChannels = AtomicInteger()
+    private val warmedMessages = AtomicLong()
+
+    init {
+        require(parallelism > 0) { "Parallelism must be greater than 0" }
+        require(messagesPerChannel >= 0) { "Messages per channel must not be negative" }
+        require(batchSize in 1..MAX_BATCH_SIZE) { "Batch size must be between 1 and $MAX_BATCH_SIZE" }
+    }
+
+    /**
+     * The amount of channels whose history was loaded completely.
+     */
+    val warmedChannelCount: Int
+        get() = warmedChannels.get()
+
+    /**
+     * The amount of channels whose history could not be loaded completely.
+     */
+    val failedChannelCount: Int
+        get() = failedChannels.get()
+
+    /**
+     * The amount of channels which still need to be warmed up.
+     */
+    val pendingChannelCount: Int
+        get() = pendingChannels.get()
+
+    /**
+     * The amount of messages which were added to the cache.
+     */
+    val warmedMessageCount: Long
+        get() = warmedMessages.get()
+
+    /**
+     * Warms up the cache using the history of the channels with the [channelIds].
+     * @return a [CompletableFuture] completing with the amount of cached messages when all channels are done
+     */
+    fun warm(channelIds: Collection<Long>): CompletableFuture<Long> {
+        val warmUp = WarmUp(channelIds.toLongArray())
+        warmUp.start()
+        return warmUp.future
+    }
+
+    /**
+     * Warms up the cache using the history of the [channels].
+     * @see warm
+     */
+    fun warm(vararg channels: TextChannel) = warm(channels.map { it.idLong })
+
+    private fun fireEvent(event: MessageCacheWarmUpEvent) = eventManager?.fireEvent(event)
+
+    private inner class WarmUp(private val channelIds: LongArray) {
+
+        val future = CompletableFuture<Long>()
+        private val next = AtomicInteger()
+        private val remaining = AtomicInteger(channelIds.size)
+        private val messages = AtomicLong()
+        private val failed = AtomicInteger()
+
+        fun start() {
+            pendingChannels.addAndGet(channelIds.size)
+            if (channelIds.isEmpty()) {
+                finish()
+                return
+            }
+            repeat(minOf(parallelism, channelIds.size)) { warmNext() }
+        }
+
+        private fun warmNext() {
+            val index = next.getAndIncrement()
+            if (index < channelIds.size) {
+                ChannelWarmUp(channelIds[index]).fetch(0)
+            }
+        }
+
+        fun channelDone(channelId: Long, count: Int, failure: Throwable?) {
+            pendingChannels.decrementAndGet()
+            if (failure == null) {
+                warmedChannels.incrementAndGet()
+            } else {
+                failedChannels.incrementAndGet()
+                failed.incrementAndGet()
+            }
+            messages.addAndGet(count.toLong())
+            val left = remaining.decrementAndGet()
+            fireEvent(MessageCacheChannelWarmedEvent(this@MessageCacheWarmer, channelId, count, failure, left))
+            if (left == 0) {
+                finish()
+            } else {
+                warmNext()
+            }
+        }
+
+        private fun finish() {
+            fireEvent(MessageCacheWarmedEvent(this@MessageCacheWarmer, channelIds.size, messages.get(), failed.get()))
+            future.complete(messages.get())
+        }
+
+        // Pages arrive newest first, so the messages of a channel are collected and cached oldest first at the end.
+        // Otherwise caches evicting the oldest insertions would keep the oldest messages of the history.
+        private inner class ChannelWarmUp(private val channelId: Long) {
+
+            private val collected = ArrayList<CachedMessage>()
+            private var fetched = 0
+            private var count = 0
+
+            fun fetch(before: Long) {
+                val limit = minOf(batchSize, messagesPerChannel - fetched)
+                if (limit <= 0) {
+                    done(null)
+                    return
+                }
+                val page = try {
+                    source.retrieveHistory(channelId, before, limit)
+                } catch (e: Exception) {
+                    done(e)
+                    return
+                }
+                page.whenComplete { history, failure ->
+                    if (failure != null) {
+                        done(failure)
+                        return@whenComplete
+                    }
+                    val oldest = try {
+                        collect(history)
+                    } catch (e: Exception) {
+                        done(e)
+                        return@whenComplete
+                    }
+                    if (history.size < limit) {
+                        done(null)
+                    } else {
+                        fetch(oldest)
+                    }
+                }
+            }
+
+            // Returns the id of the oldest message of the batch
+            private fun collect(history: List<Message>): Long {
+                fetched += history.size
+                var oldest = Long.MAX_VALUE
+                history.forEach {
+                    if (admission.admits(it)) {
+                        collected.add(CachedMessage(it, admission.fields))
+                    }
+                    oldest = minOf(oldest, it.idLong)
+                }
+                return oldest
+            }
+
+            // Caches what has been collected so far, also if a later page failed
+            private fun done(failure: Throwable?) {
+                val error = try {
+                    collected.sortBy { it.idLong }
+                    collected.forEach {
+                        // Messages which got cached in the meantime are newer than the history
+                        if (cache.cacheMessageIfAbsent(it) == null) {
+                            warmedMessages.incrementAndGet()
+                            count++
+                        }
+                    }
+                    failure
+                } catch (e: Exception) {
+                    failure ?: e
+                }
+                collected.clear()
+                channelDone(channelId, count, error)
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * The maximum amount of messages Discord returns per history request.
+         */
+        const val MAX_BATCH_SIZE = 100
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import cc.hawkbot.regnum.client.event.EventManager
+import cc.hawkbot.regnum.client.event.EventSubscriber
+import me.schlaubi.regnumutils.common.event.JDAListenerAdapter
+import net.dv8tion.jda.api.events.message.guild.GuildMessageDeleteEvent
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent
+import net.dv8tion.jda.api.events.message.guild.GuildMessageUpdateEvent
+import net.dv8tion.jda.api.hooks.SubscribeEvent
+
+/**
+ * Listener keeping a [MessageCache] up to date, which fires the cache events containing the cached versions.
+ * Changes of the same message are applied under a striped lock, changes of different messages are independent.
+ * Events can be processed out of order, so a received message never overwrites a version cached by an update, and
+ * updates of messages which are not cached yet cache the edited version.
+ * Every stripe remembers the ids of the last 64 messages deleted in it, so a late receive or update
+ * cannot cache a message again after it got deleted.
+ * The cache events are fired while holding the lock of the message, so listeners see the changes of a message in order.
+ * @see MessageCache.activate
+ */
+internal class MessageWatcher(
+    private val cache: MessageCache,
+    private val eventManager: EventManager,
+    private val admission: MessageCacheAdmission
+) : JDAListenerAdapter() {
+
+    private val stripes = Array(STRIPES) { Stripe() }
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onGuildMessageReceived(event: GuildMessageReceivedEvent) {
+        val message = event.message
+        if (!admission.admits(message)) {
+            return
+        }
+        val copy = CachedMessage(message, admission.fields)
+        val stripe = stripeFor(message.idLong)
+        synchronized(stripe) {
+            // An update or the deletion of the message could have been processed first
+            if (!stripe.isDeleted(message.idLong)) {
+                cache.cacheMessageIfAbsent(copy)
+            }
+        }
+    }
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onGuildMessageUpdate(event: GuildMessageUpdateEvent) {
+        val message = event.message
+        val admitted = admission.admits(event.guild.idLong, event.channel.idLong)
+        val copy = if (admitted) CachedMessage(message, admission.fields) else null
+        val stripe = stripeFor(event.messageIdLong)
+        synchronized(stripe) {
+            val previous = if (copy != null) {
+                val previous = cache.replaceMessage(copy)
+                if (previous == null && admission.admits(message) && !stripe.isDeleted(event.messageIdLong)) {
+                    cache.cacheMessage(copy)
+                }
+                previous
+            } else {
+                null
+            }
+            eventManager.fireEvent(
+                me.schlaubi.regnumutils.common.events.GuildMessageUpdateEvent(
+                    event.jda,
+                    event.responseNumber,
+                    event.messageIdLong,
+                    event.channel,
+                    previous,
+                    message
+                )
+            )
+        }
+    }
+
+    @SubscribeEvent
+    @EventSubscriber
+    override fun onGuildMessageDelete(event: GuildMessageDeleteEvent) {
+        val admitted = admission.admits(event.guild.idLong, event.channel.idLong)
+        val stripe = stripeFor(event.messageIdLong)
+        synchronized(stripe) {
+            val previous = if (admitted) {
+                stripe.markDeleted(event.messageIdLong)
+                cache.remove(event.messageIdLong)
+            } else {
+                null
+            }
+            eventManager.fireEvent(
+                me.schlaubi.regnumutils.common.events.GuildMessageDeleteEvent(
+                    event.jda,
+                    event.responseNumber,
+                    event.messageIdLong,
+                    event.channel,
+                    previous
+                )
+            )
+        }
+    }
+
+    private fun stripeFor(messageId: Long) = stripes[((messageId * -7046029254386353131L) ushr 58).toInt()]
+
+    // Ring of the recently deleted message ids of a stripe, message ids are never 0 so 0 marks a free slot
+    private class Stripe {
+        private val deleted = LongArray(TOMBSTONES)
+        private var next = 0
+
+        fun isDeleted(messageId: Long) = deleted.contains(messageId)
+
+        fun markDeleted(messageId: Long) {
+            deleted[next] = messageId
+            next = (next + 1) % TOMBSTONES
+        }
+    }
+
+    private companion object {
+        const val STRIPES = 64
+        const val TOMBSTONES = 64
+    }
+}
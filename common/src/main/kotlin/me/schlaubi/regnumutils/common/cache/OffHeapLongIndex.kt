@@ -0,0 +1,183 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import me.schlaubi.regnumutils.common.collections.OpenAddressing
+import java.nio.ByteBuffer
+
+/**
+ * Open-addressing map from [Long] keys to non-negative [Int] values stored in a direct [ByteBuffer].
+ * The size of the index is fixed, callers have to make sure it never holds more than [maximumSize] entries.
+ * This index is not thread-safe.
+ * @property maximumSize the maximum amount of entries
+ */
+internal class OffHeapLongIndex(val maximumSize: Int) {
+
+    private val slots = OpenAddressing.capacityFor(maximumSize)
+    private val mask = slots - 1
+    // Every slot consists of the key and the value + 1, so 0 marks a free slot
+    private val table = ByteBuffer.allocateDirect(slots * SLOT_SIZE)
+    private var zeroValue = NONE
+
+    /**
+     * The amount of entries in this index.
+     */
+    var size = 0
+        private set
+
+    /**
+     * Returns the value of the [key] or `-1` if there is none.
+     */
+    operator fun get(key: Long): Int {
+        if (key == 0L) {
+            return zeroValue
+        }
+        var slot = home(key)
+        while (true) {
+            val value = valueAt(slot)
+            if (value == 0) {
+                return NONE
+            }
+            if (keyAt(slot) == key) {
+                return value - 1
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Associates the [value] with the [key].
+     * @return the previous value or `-1` if there was none
+     */
+    fun put(key: Long, value: Int): Int {
+        require(value >= 0) { "Value must not be negative" }
+        if (key == 0L) {
+            val previous = zeroValue
+            zeroValue = value
+            if (previous == NONE) {
+                size++
+            }
+            return previous
+        }
+        var slot = home(key)
+        while (true) {
+            val current = valueAt(slot)
+            if (current == 0) {
+                check(size < maximumSize) { "Index is full" }
+                table.putLong(slot * SLOT_SIZE, key)
+                table.putInt(slot * SLOT_SIZE + 8, value + 1)
+                size++
+                return NONE
+            }
+            if (keyAt(slot) == key) {
+                table.putInt(slot * SLOT_SIZE + 8, value + 1)
+                return current - 1
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Removes the value of the [key].
+     * @return the removed value or `-1` if there was none
+     */
+    fun remove(key: Long): Int {
+        if (key == 0L) {
+            val previous = zeroValue
+            if (previous != NONE) {
+                zeroValue = NONE
+                size--
+            }
+            return previous
+        }
+        var slot = home(key)
+        while (true) {
+            val value = valueAt(slot)
+            if (value == 0) {
+                return NONE
+            }
+            if (keyAt(slot) == key) {
+                shiftBack(slot)
+                size--
+                return value - 1
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    fun clear() {
+        for (slot in 0 until slots) {
+            table.putInt(slot * SLOT_SIZE + 8, 0)
+        }
+        zeroValue = NONE
+        size = 0
+    }
+
+    /**
+     * Releases the memory of this index, it must not be used afterwards.
+     */
+    fun free() = DirectBuffers.free(table)
+
+    /**
+     * Performs the [action] for every entry.
+     * The index must not be modified by the [action].
+     */
+    fun forEach(action: (key: Long, value: Int) -> Unit) {
+        if (zeroValue != NONE) {
+            action(0L, zeroValue)
+        }
+        for (slot in 0 until slots) {
+            val value = valueAt(slot)
+            if (value != 0) {
+                action(keyAt(slot), value - 1)
+            }
+        }
+    }
+
+    private fun keyAt(slot: Int) = table.getLong(slot * SLOT_SIZE)
+
+    private fun valueAt(slot: Int) = table.getInt(slot * SLOT_SIZE + 8)
+
+    private fun home(key: Long) = OpenAddressing.home(key, mask)
+
+    // The home slot of the entry in the slot or -1 if the slot is free
+    private fun homeAt(slot: Int) = if (valueAt(slot) == 0) -1 else home(keyAt(slot))
+
+    // Deletion without tombstones: moves following entries of the probe sequence into the gap
+    private fun shiftBack(removed: Int) {
+        val gap = OpenAddressing.shiftBack(removed, mask, { homeAt(it) }) { from, to ->
+            table.putLong(to * SLOT_SIZE, keyAt(from))
+            table.putInt(to * SLOT_SIZE + 8, valueAt(from))
+        }
+        table.putInt(gap * SLOT_SIZE + 8, 0)
+    }
+
+    companion object {
+        /**
+         * Returned if there is no value.
+         */
+        const val NONE = -1
+
+        private const val SLOT_SIZE = 12
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import net.dv8tion.jda.api.entities.Message
+import java.io.Closeable
+import java.nio.ByteBuffer
+
+/**
+ * [MessageCache] serializing its messages into off-heap memory, so cached messages do not fill the old generation.
+ * Messages are appended to a ring buffer of [capacity] bytes and the oldest messages are evicted when it is full.
+ * The ids are mapped to their position in the ring by an off-heap index holding at most [maximumSize] entries.
+ * A lightweight [Message] view is only deserialized when a message is requested.
+ *
+ * [keys] and [values] return snapshots of the cache.
+ * The off-heap memory is released when the cache gets [closed][close], otherwise it is freed once the cache is collected.
+ * @property capacity the size of the ring buffer in bytes
+ * @property maximumSize the maximum amount of cached messages
+ * @see MessageCache.activate
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class OffHeapMessageCache @JvmOverloads constructor(
+    val capacity: Int = 64 * 1024 * 1024,
+    val maximumSize: Int = 500_000
+) : MessageCache, Closeable {
+
+    // Every record consists of the length of the message, its id and the serialized message
+    private val data = ByteBuffer.allocateDirect(capacity)
+    private val index = OffHeapLongIndex(maximumSize)
+    private var head = 0
+    private var tail = 0
+    private var records = 0
+    private var evictions = 0L
+    private var closed = false
+    @Volatile
+    private var metrics = MessageCacheMetrics.NONE
+
+    init {
+        require(capacity >= RECORD_HEADER) { "Capacity must be at least $RECORD_HEADER bytes" }
+        require(maximumSize > 0) { "Maximum size must be greater than 0" }
+    }
+
+    /**
+     * The amount of messages which got evicted to make room for new ones.
+     */
+    val evictionCount: Long
+        @Synchronized get() = evictions
+
+    /**
+     * The amount of bytes occupied by records, including records of removed messages which were not overwritten yet.
+     */
+    val usedBytes: Int
+        @Synchronized get() = when {
+            records == 0 -> 0
+            tail < head -> head - tail
+            else -> capacity - tail + head
+        }
+
+    override val size: Int
+        @Synchronized get() {
+            checkOpen()
+            return index.size
+        }
+
+    override val keys: MutableSet<Long>
+        @Synchronized get() {
+            checkOpen()
+            val keys = HashSet<Long>(index.size)
+            index.forEach { key, _ -> keys.add(key) }
+            return keys
+        }
+
+    override val values: MutableCollection<Message>
+        @Synchronized get() {
+            checkOpen()
+            val values = ArrayList<Message>(index.size)
+            index.forEach { key, offset -> values.add(read(key, offset)) }
+            return values
+        }
+
+    override fun isEmpty() = size == 0
+
+    // Only the ids are copied, every message is read on its own so the lock is not held while the action runs
+    override fun forEachMessage(action: (Message) -> Unit) {
+        val ids = synchronized(this) {
+            checkOpen()
+            val ids = LongArray(index.size)
+            var count = 0
+            index.forEach { key, _ -> ids[count++] = key }
+            ids
+        }
+        ids.forEach { id -> get(id)?.let(action) }
+    }
+
+    @Synchronized
+    override fun contains(id: Long): Boolean {
+        checkOpen()
+        return index[id] != OffHeapLongIndex.NONE
+    }
+
+    @Synchronized
+    override fun get(key: Long): Message? {
+        checkOpen()
+        val offset = index[key]
+        if (offset == OffHeapLongIndex.NONE) {
+            return null
+        }
+        return read(key, offset)
+    }
+
+    @Synchronized
+    override fun put(key: Long, value: Message): Message? {
+        val message = value as? CachedMessage ?: CachedMessage(value)
+        val length = message.serializedSize
+        require(RECORD_HEADER + length <= capacity) { "Message is larger than the cache" }
+
+        val previous = get(key)
+        if (previous == null) {
+            while (index.size >= maximumSize) {
+                evictOldest(MessageCacheMetrics.EvictionCause.SIZE)
+            }
+        }
+        val offset = allocate(RECORD_HEADER + length)
+        data.putInt(offset, length)
+        data.putLong(offset + 4, key)
+        val view = data.duplicate()
+        view.position(offset + RECORD_HEADER)
+        message.writeTo(view)
+        records++
+        index.put(key, offset)
+        return previous
+    }
+
+    @Synchronized
+    override fun replaceMessage(message: Message) = super.replaceMessage(message)
+
+    @Synchronized
+    override fun cacheMessageIfAbsent(message: Message) = super.cacheMessageIfAbsent(message)
+
+    override fun reportEvictionsTo(metrics: MessageCacheMetrics) {
+        this.metrics = metrics
+    }
+
+    @Synchronized
+    override fun remove(key: Long): Message? {
+        checkOpen()
+        val offset = index.remove(key)
+        if (offset == OffHeapLongIndex.NONE) {
+            return null
+        }
+        // The space of the record is reclaimed once the ring wraps around
+        return read(key, offset)
+    }
+
+    @Synchronized
+    override fun clear() {
+        checkOpen()
+        index.clear()
+        head = 0
+        tail = 0
+        records = 0
+    }
+
+    /**
+     * Releases the off-heap memory of the cache.
+     * Using the cache afterwards throws an [IllegalStateException].
+     */
+    @Synchronized
+    override fun close() {
+        if (closed) {
+            return
+        }
+        closed = true
+        index.free()
+        DirectBuffers.free(data)
+    }
+
+    // Accessing the released memory could crash the JVM
+    private fun checkOpen() = check(!closed) { "The cache is closed" }
+
+    private fun read(id: Long, offset: Int): CachedMessage {
+        val view = data.duplicate()
+        view.position(offset + RECORD_HEADER)
+        return CachedMessage.readFrom(view, id)
+    }
+
+    // Finds room for a record of the given size at the head, evicting the oldest records that are in the way
+    private fun allocate(size: Int): Int {
+        while (true) {
+            if (records == 0) {
+                head = 0
+                tail = 0
+                break
+            }
+            if (head + size <= capacity) {
+                if (tail < head || tail >= head + size) {
+                    break
+                }
+                evictOldest(MessageCacheMetrics.EvictionCause.CAPACITY)
+            } else if (tail >= head) {
+                evictOldest(MessageCacheMetrics.EvictionCause.CAPACITY)
+            } else {
+                if (head + 4 <= capacity) {
+                    data.putInt(head, WRAP)
+                }
+                head = 0
+            }
+        }
+        val offset = head
+        head += size
+        return offset
+    }
+
+    private fun evictOldest(cause: MessageCacheMetrics.EvictionCause) {
+        val length = data.getInt(tail)
+        val id = data.getLong(tail + 4)
+        // Records of removed or replaced messages are no longer indexed
+        if (index[id] == tail) {
+            index.remove(id)
+            evictions++
+            if (metrics !== MessageCacheMetrics.NONE) {
+                metrics.recordEviction(cause, read(id, tail))
+            }
+        }
+        tail += RECORD_HEADER + length
+        records--
+        if (records > 0 && (tail + 4 > capacity || data.getInt(tail) == WRAP)) {
+            tail = 0
+        }
+    }
+
+    private companion object {
+        const val RECORD_HEADER = 4 + 8
+        const val WRAP = -1
+    }
+}
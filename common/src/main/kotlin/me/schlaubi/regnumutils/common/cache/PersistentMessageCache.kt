@@ -0,0 +1,426 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import me.schlaubi.regnumutils.common.collections.LongLongMap
+import net.dv8tion.jda.api.entities.Message
+import java.io.Closeable
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * [MessageCache] persisting its messages in memory-mapped segment files in the [directory], so it survives restarts.
+ * Messages are appended to the newest segment and located using an id index, which is rebuilt by scanning the
+ * mapped segments when the cache is created.
+ *
+ * Replaced and removed messages are marked as dead in place. Segments mostly consisting of dead messages are compacted
+ * into the newest segment, and segments that were not written to for longer than the maximum age or exceed
+ * [maximumSegments] are dropped as a whole.
+ *
+ * Segment files which can not be read, because they are corrupt or written in another format version, are deleted.
+ *
+ * [keys] and [values] return snapshots of the cache. [close] the cache to flush it to disk and unmap its segments,
+ * it can not be used afterwards.
+ * @property directory the directory containing the segment files
+ * @property segmentSize the size of a segment file in bytes
+ * @param maxAge the time after which a segment gets dropped or `0` if segments should never expire
+ * @param unit the [TimeUnit] of maxAge
+ * @property maximumSegments the maximum amount of segment files
+ * @see MessageCache.activate
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class PersistentMessageCache @JvmOverloads constructor(
+    val directory: Path,
+    val segmentSize: Int = 16 * 1024 * 1024,
+    maxAge: Long = 0,
+    unit: TimeUnit = TimeUnit.HOURS,
+    val maximumSegments: Int = 64
+) : MessageCache, Closeable {
+
+    private val maxAgeMillis = unit.toMillis(maxAge)
+    private val segments = TreeMap<Int, Segment>()
+    private val index = LongLongMap(missingValue = NONE)
+    private var active: Segment
+    private var compactions = 0L
+    private var drops = 0L
+    private var closed = false
+    @Volatile
+    private var metrics = MessageCacheMetrics.NONE
+
+    init {
+        require(segmentSize > HEADER + RECORD_HEADER) { "Segment size must be greater than ${HEADER + RECORD_HEADER}" }
+        require(maximumSegments > 0) { "Maximum segments must be greater than 0" }
+        Files.createDirectories(directory)
+        Files.list(directory).use { files ->
+            files.filter { it.fileName.toString().endsWith(SUFFIX) }
+                .sorted()
+                .forEach { load(it) }
+        }
+        active = segments.lastEntry()?.value ?: createSegment()
+        dropSegments(System.currentTimeMillis())
+    }
+
+    /**
+     * The amount of segment files.
+     */
+    val segmentCount: Int
+        @Synchronized get() = segments.size
+
+    /**
+     * The amount of segments which got compacted.
+     */
+    val compactionCount: Long
+        @Synchronized get() = compactions
+
+    /**
+     * The amount of segments which got dropped because of their age or [maximumSegments].
+     */
+    val droppedSegmentCount: Long
+        @Synchronized get() = drops
+
+    override val size: Int
+        @Synchronized get() {
+            checkOpen()
+            return index.size
+        }
+
+    override val keys: MutableSet<Long>
+        @Synchronized get() {
+            checkOpen()
+            return index.keys().toMutableSet()
+        }
+
+    override val values: MutableCollection<Message>
+        @Synchronized get() {
+            checkOpen()
+            val values = ArrayList<Message>(index.size)
+            index.forEach { id, location -> values.add(read(id, location)) }
+            return values
+        }
+
+    override fun isEmpty() = size == 0
+
+    // Only the ids are copied, every message is read on its own so the lock is not held while the action runs
+    override fun forEachMessage(action: (Message) -> Unit) {
+        val ids = synchronized(this) {
+            checkOpen()
+            index.keys()
+        }
+        ids.forEach { id -> get(id)?.let(action) }
+    }
+
+    @Synchronized
+    override fun contains(id: Long): Boolean {
+        checkOpen()
+        return id in index
+    }
+
+    @Synchronized
+    override fun get(key: Long): Message? {
+        checkOpen()
+        val location = index[key]
+        return if (location == NONE) null else read(key, location)
+    }
+
+    @Synchronized
+    override fun put(key: Long, value: Message): Message? {
+        checkOpen()
+        val message = value as? CachedMessage ?: CachedMessage(value)
+        val length = message.serializedSize
+        require(HEADER + RECORD_HEADER + length <= segmentSize) { "Message is larger than a segment" }
+
+        val previousLocation = index[key]
+        val previous = if (previousLocation == NONE) null else read(key, previousLocation)
+        val segment = writableSegment(RECORD_HEADER + length)
+        val offset = segment.position
+        val view = segment.buffer.duplicate()
+        view.position(offset + 4)
+        view.putLong(key)
+        message.writeTo(view)
+        append(segment, key, offset, length)
+        if (previousLocation != NONE) {
+            markDead(previousLocation)?.let { compactIfSparse(it) }
+        }
+        return previous
+    }
+
+    @Synchronized
+    override fun replaceMessage(message: Message) = super.replaceMessage(message)
+
+    @Synchronized
+    override fun cacheMessageIfAbsent(message: Message) = super.cacheMessageIfAbsent(message)
+
+    override fun reportEvictionsTo(metrics: MessageCacheMetrics) {
+        this.metrics = metrics
+    }
+
+    @Synchronized
+    override fun remove(key: Long): Message? {
+        checkOpen()
+        val location = index.remove(key)
+        if (location == NONE) {
+            return null
+        }
+        val message = read(key, location)
+        markDead(location)?.let { compactIfSparse(it) }
+        return message
+    }
+
+    @Synchronized
+    override fun clear() {
+        checkOpen()
+        segments.values.toList().forEach { delete(it) }
+        index.clear()
+        active = createSegment()
+    }
+
+    /**
+     * Writes all changes to disk.
+     */
+    @Synchronized
+    fun flush() {
+        checkOpen()
+        segments.values.forEach { it.buffer.force() }
+    }
+
+    /**
+     * Flushes the cache and unmaps its segments.
+     * Using the cache afterwards throws an [IllegalStateException].
+     */
+    @Synchronized
+    override fun close() {
+        if (closed) {
+            return
+        }
+        flush()
+        closed = true
+        segments.values.forEach { unmap(it.channel, it.buffer) }
+        segments.clear()
+        index.clear()
+    }
+
+    // Accessing unmapped segments could crash the JVM
+    private fun checkOpen() = check(!closed) { "The cache is closed" }
+
+    private fun read(id: Long, location: Long): CachedMessage {
+        val segment = segments[segmentOf(location)]!!
+        val view = segment.buffer.duplicate()
+        view.position(offsetOf(location) + RECORD_HEADER)
+        return CachedMessage.readFrom(view, id)
+    }
+
+    // The length is written last so records which were not written completely are ignored when loading
+    private fun append(segment: Segment, id: Long, offset: Int, length: Int) {
+        segment.buffer.putInt(offset, length)
+        segment.position += RECORD_HEADER + length
+        segment.liveBytes += RECORD_HEADER + length
+        segment.lastWrite = System.currentTimeMillis()
+        index[id] = locationOf(segment.sequence, offset)
+    }
+
+    private fun writableSegment(size: Int): Segment {
+        if (active.position + size <= active.capacity) {
+            return active
+        }
+        active = createSegment()
+        dropSegments(System.currentTimeMillis())
+        return active
+    }
+
+    // Marks the record as dead and returns its segment
+    private fun markDead(location: Long): Segment? {
+        val segment = segments[segmentOf(location)] ?: return null
+        val offset = offsetOf(location)
+        val length = segment.buffer.getInt(offset)
+        if (length > 0) {
+            segment.buffer.putInt(offset, -length)
+            segment.liveBytes -= RECORD_HEADER + length
+        }
+        return segment
+    }
+
+    private fun compactIfSparse(segment: Segment) {
+        if (segment !== active && segment.liveBytes * 2 < segment.position - HEADER) {
+            compact(segment)
+        }
+    }
+
+    // Moves all live records into the active segment and deletes the segment
+    private fun compact(segment: Segment) {
+        val buffer = segment.buffer
+        forEachRecord(segment) { offset, id, length ->
+            if (index[id] != locationOf(segment.sequence, offset)) {
+                return@forEachRecord
+            }
+            val target = writableSegment(RECORD_HEADER + length)
+            if (!segments.containsKey(segment.sequence)) {
+                // The segment got dropped and unmapped while making room for its records
+                return
+            }
+            val targetOffset = target.position
+            val source = buffer.duplicate()
+            source.position(offset + 4)
+            source.limit(offset + RECORD_HEADER + length)
+            val view = target.buffer.duplicate()
+            view.position(targetOffset + 4)
+            view.put(source)
+            append(target, id, targetOffset, length)
+        }
+        if (segments.containsKey(segment.sequence)) {
+            delete(segment)
+        }
+        compactions++
+    }
+
+    private fun dropSegments(now: Long) {
+        // The active segment is never dropped, it just received the write which made room for it
+        while (segments.size > maximumSegments) {
+            val oldest = segments.values.firstOrNull { it !== active } ?: break
+            drop(oldest, MessageCacheMetrics.EvictionCause.CAPACITY)
+        }
+        if (maxAgeMillis > 0) {
+            segments.values
+                .filter { it !== active && now - it.lastWrite >= maxAgeMillis }
+                .forEach { drop(it, MessageCacheMetrics.EvictionCause.EXPIRED) }
+        }
+    }
+
+    private fun drop(segment: Segment, cause: MessageCacheMetrics.EvictionCause) {
+        forEachRecord(segment) { offset, id, _ ->
+            val location = locationOf(segment.sequence, offset)
+            if (index[id] == location) {
+                if (metrics !== MessageCacheMetrics.NONE) {
+                    metrics.recordEviction(cause, read(id, location))
+                }
+                index.remove(id)
+            }
+        }
+        delete(segment)
+        drops++
+    }
+
+    // Mapped files can not be deleted on Windows, so the segment is unmapped first
+    private fun delete(segment: Segment) {
+        segments.remove(segment.sequence)
+        unmap(segment.channel, segment.buffer)
+        Files.deleteIfExists(segment.path)
+    }
+
+    private fun unmap(channel: FileChannel, buffer: MappedByteBuffer) {
+        channel.close()
+        DirectBuffers.free(buffer)
+    }
+
+    private fun createSegment(): Segment {
+        val sequence = if (segments.isEmpty()) 1 else segments.lastKey() + 1
+        val path = directory.resolve(String.format("%010d%s", sequence, SUFFIX))
+        val channel = FileChannel.open(
+            path,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        )
+        val buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize.toLong())
+        buffer.putInt(0, MAGIC)
+        buffer.putInt(4, VERSION)
+        val segment = Segment(sequence, path, channel, buffer)
+        segment.lastWrite = System.currentTimeMillis()
+        segments[sequence] = segment
+        return segment
+    }
+
+    private fun load(path: Path) {
+        val sequence = path.fileName.toString().removeSuffix(SUFFIX).toIntOrNull() ?: return
+        val channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+        val buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size())
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            // The sequence of the file could be chosen for a new segment otherwise
+            unmap(channel, buffer)
+            Files.delete(path)
+            return
+        }
+        val segment = Segment(sequence, path, channel, buffer)
+        segments[sequence] = segment
+        segment.position = forEachRecord(segment) { offset, id, length ->
+            segment.liveBytes += RECORD_HEADER + length
+            val previous = index.put(id, locationOf(sequence, offset))
+            if (previous != NONE) {
+                markDead(previous)
+            }
+        }
+    }
+
+    // Calls the action for every live record and returns the position after the last record
+    private inline fun forEachRecord(segment: Segment, action: (offset: Int, id: Long, length: Int) -> Unit): Int {
+        val buffer = segment.buffer
+        var position = HEADER
+        while (position + RECORD_HEADER <= segment.capacity) {
+            val length = buffer.getInt(position)
+            val size = Math.abs(length)
+            if (length == 0 || position + RECORD_HEADER + size > segment.capacity) {
+                break
+            }
+            if (length > 0) {
+                action(position, buffer.getLong(position + 4), length)
+            }
+            position += RECORD_HEADER + size
+        }
+        return position
+    }
+
+    private class Segment(
+        val sequence: Int,
+        val path: Path,
+        val channel: FileChannel,
+        val buffer: MappedByteBuffer
+    ) {
+        val capacity = buffer.capacity()
+        var position = HEADER
+        var liveBytes = 0
+
+        var lastWrite: Long
+            get() = buffer.getLong(8)
+            set(value) {
+                buffer.putLong(8, value)
+            }
+    }
+
+    private companion object {
+        const val SUFFIX = ".segment"
+        const val MAGIC = 0x52554d43 // RUMC
+        const val VERSION = 1
+        // Magic, version and the time of the last write
+        const val HEADER = 4 + 4 + 8
+        // Length and id
+        const val RECORD_HEADER = 4 + 8
+        const val NONE = -1L
+
+        fun locationOf(segment: Int, offset: Int) = (segment.toLong() shl 32) or offset.toLong()
+
+        fun segmentOf(location: Long) = (location ushr 32).toInt()
+
+        fun offsetOf(location: Long) = location.toInt()
+    }
+}
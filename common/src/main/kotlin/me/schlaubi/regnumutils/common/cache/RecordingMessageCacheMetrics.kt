@@ -0,0 +1,179 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.cache
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * [MessageCacheMetrics] which keep all metrics in memory, so they can be read or exported periodically.
+ * Guilds and channels keep their counter once they had a cached message until the metrics get cleared.
+ * @see MessageCache.instrument
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class RecordingMessageCacheMetrics : MessageCacheMetrics {
+
+    private val hits = Array(MessageCacheMetrics.LookupType.values().size) { LongAdder() }
+    private val misses = Array(MessageCacheMetrics.LookupType.values().size) { LongAdder() }
+    private val evictions = Array(MessageCacheMetrics.EvictionCause.values().size) { LongAdder() }
+    private val bytes = LongAdder()
+    private val shared = LongAdder()
+    private val guilds = ConcurrentHashMap<Long, LongAdder>()
+    private val channels = ConcurrentHashMap<Long, LongAdder>()
+
+    /**
+     * The latencies of lookups by id.
+     */
+    val getLatency = LatencyHistogram()
+
+    /**
+     * The latencies of adding messages.
+     */
+    val putLatency = LatencyHistogram()
+
+    /**
+     * The amount of lookups which found a message.
+     */
+    val hitCount: Long
+        get() = hits.map { it.sum() }.sum()
+
+    /**
+     * The amount of lookups which did not find a message.
+     */
+    val missCount: Long
+        get() = misses.map { it.sum() }.sum()
+
+    /**
+     * The ratio of lookups which found a message.
+     */
+    val hitRate: Double
+        get() = hitRate(hitCount, missCount)
+
+    /**
+     * The amount of messages which got evicted.
+     */
+    val evictionCount: Long
+        get() = evictions.map { it.sum() }.sum()
+
+    /**
+     * The estimated amount of bytes retained by the cached messages.
+     */
+    val retainedBytes: Long
+        get() = bytes.sum() - shared.sum()
+
+    /**
+     * The amount of bytes the cache shares between messages instead of storing them again.
+     */
+    val deduplicatedBytes: Long
+        get() = shared.sum()
+
+    /**
+     * Returns the amount of lookups of the [type] which found a message.
+     */
+    fun hitCount(type: MessageCacheMetrics.LookupType) = hits[type.ordinal].sum()
+
+    /**
+     * Returns the amount of lookups of the [type] which did not find a message.
+     */
+    fun missCount(type: MessageCacheMetrics.LookupType) = misses[type.ordinal].sum()
+
+    /**
+     * Returns the ratio of lookups of the [type] which found a message.
+     */
+    fun hitRate(type: MessageCacheMetrics.LookupType) = hitRate(hitCount(type), missCount(type))
+
+    /**
+     * Returns the amount of messages which got evicted because of the [cause].
+     */
+    fun evictionCount(cause: MessageCacheMetrics.EvictionCause) = evictions[cause.ordinal].sum()
+
+    /**
+     * Returns the amount of cached messages of the guild with the [guildId].
+     */
+    fun guildSize(guildId: Long) = guilds[guildId]?.sum()?.toInt() ?: 0
+
+    /**
+     * Returns the amount of cached messages of the channel with the [channelId].
+     */
+    fun channelSize(channelId: Long) = channels[channelId]?.sum()?.toInt() ?: 0
+
+    /**
+     * Returns a snapshot of the amount of cached messages per guild id.
+     */
+    fun guildSizes(): Map<Long, Int> = guilds.toSizes()
+
+    /**
+     * Returns a snapshot of the amount of cached messages per channel id.
+     */
+    fun channelSizes(): Map<Long, Int> = channels.toSizes()
+
+    override fun recordLookup(type: MessageCacheMetrics.LookupType, hit: Boolean) =
+        (if (hit) hits else misses)[type.ordinal].increment()
+
+    override fun recordGetLatency(nanos: Long) = getLatency.record(nanos)
+
+    override fun recordPutLatency(nanos: Long) = putLatency.record(nanos)
+
+    override fun recordAdded(guildId: Long, channelId: Long, bytes: Int) {
+        this.bytes.add(bytes.toLong())
+        guilds.counter(guildId).increment()
+        channels.counter(channelId).increment()
+    }
+
+    override fun recordRemoved(guildId: Long, channelId: Long, bytes: Int) {
+        this.bytes.add(-bytes.toLong())
+        guilds.counter(guildId).decrement()
+        channels.counter(channelId).decrement()
+    }
+
+    override fun recordEviction(cause: MessageCacheMetrics.EvictionCause, guildId: Long, channelId: Long, bytes: Int) {
+        evictions[cause.ordinal].increment()
+        recordRemoved(guildId, channelId, bytes)
+    }
+
+    override fun recordDeduplicated(bytes: Long) = shared.add(bytes)
+
+    override fun recordCleared() {
+        bytes.reset()
+        shared.reset()
+        guilds.clear()
+        channels.clear()
+    }
+
+    override fun toString() =
+        "RecordingMessageCacheMetrics(hitRate=$hitRate, evictions=$evictionCount, retainedBytes=$retainedBytes, " +
+                "getLatency=$getLatency, putLatency=$putLatency)"
+
+    private fun hitRate(hits: Long, misses: Long) = (hits + misses).let { if (it == 0L) 1.0 else hits.toDouble() / it }
+
+    // Counters are never removed while recording, a removal could race with an increment of another thread
+    private fun ConcurrentHashMap<Long, LongAdder>.counter(id: Long) = get(id) ?: computeIfAbsent(id) { LongAdder() }
+
+    private fun ConcurrentHashMap<Long, LongAdder>.toSizes(): Map<Long, Int> {
+        val sizes = HashMap<Long, Int>(size)
+        forEach { (id, counter) ->
+            val size = counter.sum().toInt()
+            if (size > 0) {
+                sizes[id] = size
+            }
+        }
+        return sizes
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.collections
+
+/**
+ * Open-addressing hash set of primitive [Long]s.
+ * Lookups neither box the element nor scan linearly.
+ * This set is not thread-safe.
+ * @param expectedSize the amount of elements the set should be able to hold without resizing
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class LongHashSet @JvmOverloads constructor(expectedSize: Int = 16) : LongSet {
+
+    // 0 marks a free slot so whether the set contains 0 is stored separately
+    @PublishedApi
+    internal var elements: LongArray
+
+    @PublishedApi
+    internal var containsZero = false
+
+    private var mask: Int
+
+    override var size = 0
+        private set
+
+    init {
+        val capacity = OpenAddressing.capacityFor(expectedSize)
+        elements = LongArray(capacity)
+        mask = capacity - 1
+    }
+
+    /**
+     * Creates a set containing the [elements].
+     */
+    constructor(elements: Collection<Long>) : this(elements.size) {
+        elements.forEach { add(it) }
+    }
+
+    override operator fun contains(element: Long): Boolean {
+        if (element == 0L) {
+            return containsZero
+        }
+        var slot = home(element)
+        while (true) {
+            val current = elements[slot]
+            if (current == element) {
+                return true
+            }
+            if (current == 0L) {
+                return false
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Adds the [element].
+     * @return whether the set did not contain the [element] before
+     */
+    fun add(element: Long): Boolean {
+        if (element == 0L) {
+            if (containsZero) {
+                return false
+            }
+            containsZero = true
+            size++
+            return true
+        }
+        var slot = home(element)
+        while (true) {
+            val current = elements[slot]
+            if (current == element) {
+                return false
+            }
+            if (current == 0L) {
+                elements[slot] = element
+                if (++size > elements.size / 2) {
+                    rehash(elements.size * 2)
+                }
+                return true
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Adds all [elements].
+     */
+    fun addAll(elements: LongArray) = elements.forEach { add(it) }
+
+    /**
+     * Removes the [element].
+     * @return whether the set contained the [element]
+     */
+    fun remove(element: Long): Boolean {
+        if (element == 0L) {
+            if (!containsZero) {
+                return false
+            }
+            containsZero = false
+            size--
+            return true
+        }
+        var slot = home(element)
+        while (true) {
+            val current = elements[slot]
+            if (current == 0L) {
+                return false
+            }
+            if (current == element) {
+                shiftBack(slot)
+                size--
+                return true
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Removes all elements.
+     */
+    fun clear() {
+        elements.fill(0L)
+        containsZero = false
+        size = 0
+    }
+
+    override fun toArray(): LongArray {
+        val result = LongArray(size)
+        var i = 0
+        forEach { result[i++] = it }
+        return result
+    }
+
+    /**
+     * Performs the [action] for every element without boxing it.
+     * The set must not be modified by the [action].
+     */
+    inline fun forEach(action: (element: Long) -> Unit) {
+        if (containsZero) {
+            action(0L)
+        }
+        for (element in elements) {
+            if (element != 0L) {
+                action(element)
+            }
+        }
+    }
+
+    private fun home(element: Long) = OpenAddressing.home(element, mask)
+
+    // The home slot of the entry in the slot or -1 if the slot is free
+    private fun homeAt(slot: Int) = elements[slot].let { if (it == 0L) -1 else home(it) }
+
+    // Deletion without tombstones: moves following elements of the probe sequence into the gap
+    private fun shiftBack(removed: Int) {
+        val elements = elements
+        val gap = OpenAddressing.shiftBack(removed, mask, { homeAt(it) }) { from, to ->
+            elements[to] = elements[from]
+        }
+        elements[gap] = 0L
+    }
+
+    private fun rehash(capacity: Int) {
+        val old = elements
+        val elements = LongArray(capacity)
+        mask = capacity - 1
+        for (element in old) {
+            if (element != 0L) {
+                elements[OpenAddressing.freeSlot(home(element), mask) { elements[it] == 0L }] = element
+            }
+        }
+        this.elements = elements
+    }
+
+    override fun toString(): String {
+        val builder = StringBuilder("[")
+        forEach {
+            if (builder.length > 1) {
+                builder.append(", ")
+            }
+            builder.append(it)
+        }
+        return builder.append(']').toString()
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.collections
+
+/**
+ * Open-addressing hash map using primitive [Long] keys and values.
+ * Neither the keys nor the values are boxed.
+ * This map is not thread-safe.
+ * @param expectedSize the amount of entries the map should be able to hold without resizing
+ * @property missingValue the value returned for keys without a value
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class LongLongMap @JvmOverloads constructor(expectedSize: Int = 16, val missingValue: Long = -1L) {
+
+    // 0 marks a free slot so the value of the key 0 is stored separately
+    @PublishedApi
+    internal var keys: LongArray
+
+    @PublishedApi
+    internal var values: LongArray
+
+    @PublishedApi
+    internal var hasZeroKey = false
+
+    @PublishedApi
+    internal var zeroValue = 0L
+
+    private var mask: Int
+
+    /**
+     * The amount of entries in this map.
+     */
+    var size = 0
+        private set
+
+    init {
+        val capacity = OpenAddressing.capacityFor(expectedSize)
+        keys = LongArray(capacity)
+        values = LongArray(capacity)
+        mask = capacity - 1
+    }
+
+    /**
+     * Whether the map is empty or not.
+     */
+    fun isEmpty() = size == 0
+
+    /**
+     * Returns the value of the [key] or [missingValue] if there is none.
+     */
+    operator fun get(key: Long): Long {
+        if (key == 0L) {
+            return if (hasZeroKey) zeroValue else missingValue
+        }
+        var slot = home(key)
+        while (true) {
+            val current = keys[slot]
+            if (current == key) {
+                return values[slot]
+            }
+            if (current == 0L) {
+                return missingValue
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Checks whether there is a value for the [key].
+     */
+    operator fun contains(key: Long): Boolean {
+        if (key == 0L) {
+            return hasZeroKey
+        }
+        var slot = home(key)
+        while (true) {
+            val current = keys[slot]
+            if (current == key) {
+                return true
+            }
+            if (current == 0L) {
+                return false
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Associates the [value] with the [key].
+     * @return the previous value or [missingValue] if there was none
+     */
+    fun put(key: Long, value: Long): Long {
+        if (key == 0L) {
+            val previous = if (hasZeroKey) zeroValue else missingValue
+            if (!hasZeroKey) {
+                hasZeroKey = true
+                size++
+            }
+            zeroValue = value
+            return previous
+        }
+        var slot = home(key)
+        while (true) {
+            val current = keys[slot]
+            if (current == 0L) {
+                keys[slot] = key
+                values[slot] = value
+                if (++size > keys.size / 2) {
+                    rehash(keys.size * 2)
+                }
+                return missingValue
+            }
+            if (current == key) {
+                val previous = values[slot]
+                values[slot] = value
+                return previous
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * @see LongLongMap.put
+     */
+    operator fun set(key: Long, value: Long) = put(key, value).run { Unit }
+
+    /**
+     * Removes the value of the [key].
+     * @return the removed value or [missingValue] if there was none
+     */
+    fun remove(key: Long): Long {
+        if (key == 0L) {
+            if (!hasZeroKey) {
+                return missingValue
+            }
+            hasZeroKey = false
+            size--
+            return zeroValue
+        }
+        var slot = home(key)
+        while (true) {
+            val current = keys[slot]
+            if (current == 0L) {
+                return missingValue
+            }
+            if (current == key) {
+                val previous = values[slot]
+                shiftBack(slot)
+                size--
+                return previous
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    fun clear() {
+        keys.fill(0L)
+        hasZeroKey = false
+        size = 0
+    }
+
+    /**
+     * Returns a copy of all keys.
+     */
+    fun keys(): LongArray {
+        val result = LongArray(size)
+        var i = 0
+        forEach { key, _ -> result[i++] = key }
+        return result
+    }
+
+    /**
+     * Performs the [action] for every entry without boxing.
+     * The map must not be modified by the [action].
+     */
+    inline fun forEach(action: (key: Long, value: Long) -> Unit) {
+        if (hasZeroKey) {
+            action(0L, zeroValue)
+        }
+        val keys = keys
+        val values = values
+        for (i in keys.indices) {
+            val key = keys[i]
+            if (key != 0L) {
+                action(key, values[i])
+            }
+        }
+    }
+
+    private fun home(key: Long) = OpenAddressing.home(key, mask)
+
+    // The home slot of the entry in the slot or -1 if the slot is free
+    private fun homeAt(slot: Int) = keys[slot].let { if (it == 0L) -1 else home(it) }
+
+    // Deletion without tombstones: moves following entries of the probe sequence into the gap
+    private fun shiftBack(removed: Int) {
+        val keys = keys
+        val values = values
+        val gap = OpenAddressing.shiftBack(removed, mask, { homeAt(it) }) { from, to ->
+            keys[to] = keys[from]
+            values[to] = values[from]
+        }
+        keys[gap] = 0L
+    }
+
+    private fun rehash(capacity: Int) {
+        val oldKeys = keys
+        val oldValues = values
+        val keys = LongArray(capacity)
+        val values = LongArray(capacity)
+        mask = capacity - 1
+        for (i in oldKeys.indices) {
+            val key = oldKeys[i]
+            if (key != 0L) {
+                val slot = OpenAddressing.freeSlot(home(key), mask) { keys[it] == 0L }
+                keys[slot] = key
+                values[slot] = oldValues[i]
+            }
+        }
+        this.keys = keys
+        this.values = values
+    }
+
+    override fun toString(): String {
+        val builder = StringBuilder("{")
+        forEach { key, value ->
+            if (builder.length > 1) {
+                builder.append(", ")
+            }
+            builder.append(key).append('=').append(value)
+        }
+        return builder.append('}').toString()
+    }
+}
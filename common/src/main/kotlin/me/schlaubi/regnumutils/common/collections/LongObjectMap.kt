@@ -0,0 +1,239 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.collections
+
+/**
+ * Open-addressing hash map using primitive [Long] keys.
+ * Unlike a `MutableMap<Long, V>` it neither boxes its keys nor allocates a node per entry.
+ * This map is not thread-safe.
+ * @param expectedSize the amount of entries the map should be able to hold without resizing
+ */
+@Suppress("UNCHECKED_CAST", "unused", "MemberVisibilityCanBePrivate")
+class LongObjectMap<V : Any> @JvmOverloads constructor(expectedSize: Int = 16) {
+
+    // 0 marks a free slot so the value of the key 0 is stored separately
+    @PublishedApi
+    internal var keys: LongArray
+
+    @PublishedApi
+    internal var values: Array<Any?>
+
+    @PublishedApi
+    internal var zeroValue: V? = null
+
+    private var mask: Int
+
+    /**
+     * The amount of entries in this map.
+     */
+    var size = 0
+        private set
+
+    init {
+        val capacity = OpenAddressing.capacityFor(expectedSize)
+        keys = LongArray(capacity)
+        values = arrayOfNulls(capacity)
+        mask = capacity - 1
+    }
+
+    /**
+     * Whether the map is empty or not.
+     */
+    fun isEmpty() = size == 0
+
+    /**
+     * Returns the value of the [key] or `null` if there is none.
+     */
+    operator fun get(key: Long): V? {
+        if (key == 0L) {
+            return zeroValue
+        }
+        var slot = home(key)
+        while (true) {
+            val current = keys[slot]
+            if (current == key) {
+                return values[slot] as V
+            }
+            if (current == 0L) {
+                return null
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Whether there is a value for the [key] or not.
+     */
+    operator fun contains(key: Long) = get(key) != null
+
+    /**
+     * @see LongObjectMap.contains
+     */
+    fun containsKey(key: Long) = contains(key)
+
+    /**
+     * Associates the [value] with the [key].
+     * @return the previous value or `null` if there was none
+     */
+    fun put(key: Long, value: V): V? {
+        if (key == 0L) {
+            val previous = zeroValue
+            zeroValue = value
+            if (previous == null) {
+                size++
+            }
+            return previous
+        }
+        var slot = home(key)
+        while (true) {
+            val current = keys[slot]
+            if (current == 0L) {
+                keys[slot] = key
+                values[slot] = value
+                if (++size > keys.size / 2) {
+                    rehash(keys.size * 2)
+                }
+                return null
+            }
+            if (current == key) {
+                val previous = values[slot] as V
+                values[slot] = value
+                return previous
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * @see LongObjectMap.put
+     */
+    operator fun set(key: Long, value: V) = put(key, value).run { Unit }
+
+    /**
+     * Removes the value of the [key].
+     * @return the removed value or `null` if there was none
+     */
+    fun remove(key: Long): V? {
+        if (key == 0L) {
+            val previous = zeroValue
+            if (previous != null) {
+                zeroValue = null
+                size--
+            }
+            return previous
+        }
+        var slot = home(key)
+        while (true) {
+            val current = keys[slot]
+            if (current == 0L) {
+                return null
+            }
+            if (current == key) {
+                val previous = values[slot] as V
+                shiftBack(slot)
+                size--
+                return previous
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    fun clear() {
+        keys.fill(0L)
+        values.fill(null)
+        zeroValue = null
+        size = 0
+    }
+
+    /**
+     * Returns a copy of all keys.
+     */
+    fun keys(): LongArray {
+        val result = LongArray(size)
+        var i = 0
+        forEach { key, _ -> result[i++] = key }
+        return result
+    }
+
+    /**
+     * Performs the [action] for every entry without boxing the keys.
+     * The map must not be modified by the [action].
+     */
+    inline fun forEach(action: (key: Long, value: V) -> Unit) {
+        zeroValue?.let { action(0L, it) }
+        val keys = keys
+        val values = values
+        for (i in keys.indices) {
+            val key = keys[i]
+            if (key != 0L) {
+                action(key, values[i] as V)
+            }
+        }
+    }
+
+    private fun home(key: Long) = OpenAddressing.home(key, mask)
+
+    // The home slot of the entry in the slot or -1 if the slot is free
+    private fun homeAt(slot: Int) = keys[slot].let { if (it == 0L) -1 else home(it) }
+
+    // Deletion without tombstones: moves following entries of the probe sequence into the gap
+    private fun shiftBack(removed: Int) {
+        val keys = keys
+        val values = values
+        val gap = OpenAddressing.shiftBack(removed, mask, { homeAt(it) }) { from, to ->
+            keys[to] = keys[from]
+            values[to] = values[from]
+        }
+        keys[gap] = 0L
+        values[gap] = null
+    }
+
+    private fun rehash(capacity: Int) {
+        val oldKeys = keys
+        val oldValues = values
+        val keys = LongArray(capacity)
+        val values = arrayOfNulls<Any?>(capacity)
+        mask = capacity - 1
+        for (i in oldKeys.indices) {
+            val key = oldKeys[i]
+            if (key != 0L) {
+                val slot = OpenAddressing.freeSlot(home(key), mask) { keys[it] == 0L }
+                keys[slot] = key
+                values[slot] = oldValues[i]
+            }
+        }
+        this.keys = keys
+        this.values = values
+    }
+
+    override fun toString(): String {
+        val builder = StringBuilder("{")
+        forEach { key, value ->
+            if (builder.length > 1) {
+                builder.append(", ")
+            }
+            builder.append(key).append('=').append(value)
+        }
+        return builder.append('}').toString()
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.collections
+
+/**
+ * Read-only set of primitive [Long]s.
+ * @see LongHashSet
+ */
+interface LongSet {
+
+    /**
+     * The amount of elements in this set.
+     */
+    val size: Int
+
+    /**
+     * Whether the set is empty or not.
+     */
+    fun isEmpty() = size == 0
+
+    /**
+     * Checks whether the [element] is in this set.
+     */
+    operator fun contains(element: Long): Boolean
+
+    /**
+     * Returns a copy of all elements.
+     */
+    fun toArray(): LongArray
+
+    companion object {
+        private val empty = LongHashSet(0)
+
+        /**
+         * Returns an empty [LongSet].
+         */
+        @JvmStatic
+        fun empty(): LongSet = empty
+
+        /**
+         * Returns a [LongSet] containing the [elements].
+         */
+        @JvmStatic
+        fun of(vararg elements: Long): LongSet = LongHashSet(elements.size).apply { elements.forEach { add(it) } }
+
+        /**
+         * Returns a [LongSet] containing the [elements].
+         */
+        @JvmStatic
+        fun copyOf(elements: Collection<Long>): LongSet = LongHashSet(elements)
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.collections
+
+/**
+ * The linear probing shared by all open-addressing tables of this module.
+ * Tables keep their load factor at or below 0.5 so there is always a free slot terminating a probe
+ * and remove entries without tombstones by shifting the following entries of the probe sequence back.
+ */
+internal object OpenAddressing {
+
+    /**
+     * The smallest power of two capacity which holds [expectedSize] entries at a load factor of 0.5.
+     */
+    fun capacityFor(expectedSize: Int): Int {
+        var capacity = 4
+        while (capacity < expectedSize * 2) {
+            capacity = capacity shl 1
+        }
+        return capacity
+    }
+
+    /**
+     * The slot a probe for the [key] starts at.
+     */
+    fun home(key: Long, mask: Int): Int {
+        val hash = key * -7046029254386353131L
+        return (hash xor (hash ushr 32)).toInt() and mask
+    }
+
+    /**
+     * The slot a probe for an already computed [hash] starts at.
+     */
+    fun home(hash: Int, mask: Int): Int {
+        val h = hash * -0x61c88647
+        return (h xor (h ushr 16)) and mask
+    }
+
+    /**
+     * Finds the first free slot of the probe sequence starting at [home], used when rehashing.
+     */
+    inline fun freeSlot(home: Int, mask: Int, isFree: (slot: Int) -> Boolean): Int {
+        var slot = home
+        while (!isFree(slot)) {
+            slot = (slot + 1) and mask
+        }
+        return slot
+    }
+
+    /**
+     * Closes the gap of the entry [removed] from its slot by moving the following entries of the probe sequence
+     * which would otherwise become unreachable.
+     * @param homeOf the home slot of the entry in a slot or `-1` if the slot is free
+     * @param move moves the entry of the first slot into the second one
+     * @return the slot which is left over and has to be freed by the caller
+     */
+    inline fun shiftBack(removed: Int, mask: Int, homeOf: (slot: Int) -> Int, move: (from: Int, to: Int) -> Unit): Int {
+        var gap = removed
+        var slot = (gap + 1) and mask
+        while (true) {
+            val home = homeOf(slot)
+            if (home < 0) {
+                return gap
+            }
+            if ((slot - home) and mask >= (slot - gap) and mask) {
+                move(slot, gap)
+                gap = slot
+            }
+            slot = (slot + 1) and mask
+        }
+    }
+}
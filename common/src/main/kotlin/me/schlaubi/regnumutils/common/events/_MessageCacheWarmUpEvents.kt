@@ -0,0 +1,66 @@
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+package me.schlaubi.regnumutils.common.events
+
+import me.schlaubi.regnumutils.common.cache.MessageCacheWarmer
+
+/**
+ * Base class for events fired by the [MessageCacheWarmer].
+ * @property warmer the warmer which fired the event
+ */
+@Suppress("unused")
+sealed class MessageCacheWarmUpEvent(val warmer: MessageCacheWarmer)
+
+/**
+ * Event that is fired whenever the history of a channel was loaded into the cache.
+ * @property channelId the id of the channel
+ * @property messages the amount of cached messages of the channel
+ * @property failure the error which stopped the warm up of the channel or `null` if it succeeded
+ * @property remainingChannels the amount of channels which still need to be warmed up
+ */
+@Suppress("unused", "MemberVisibilityCanBePrivate")
+class MessageCacheChannelWarmedEvent(
+    warmer: MessageCacheWarmer,
+    val channelId: Long,
+    val messages: Int,
+    val failure: Throwable?,
+    val remainingChannels: Int
+) : MessageCacheWarmUpEvent(warmer) {
+
+    /**
+     * Whether the history of the channel was loaded completely or not.
+     */
+    val isSuccessful: Boolean
+        get() = failure == null
+}
+
+/**
+ * Event that is fired when the warm up of all channels is done.
+ * @property channels the amount of channels which got warmed up
+ * @property messages the amount of cached messages
+ * @property failedChannels the amount of channels whose history could not be loaded completely
+ */
+@Suppress("unused")
+class MessageCacheWarmedEvent(
+    warmer: MessageCacheWarmer,
+    val channels: Int,
+    val messages: Long,
+    val failedChannels: Int
+) : MessageCacheWarmUpEvent(warmer)
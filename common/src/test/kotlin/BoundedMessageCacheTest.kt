@@ -0,0 +1,127 @@
+import me.schlaubi.regnumutils.common.cache.BoundedMessageCache
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito
+import java.util.concurrent.TimeUnit
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests the eviction policies of the [BoundedMessageCache].
+ */
+class BoundedMessageCacheTest {
+
+    /**
+     * Tests that messages which got accessed again survive a burst of new messages.
+     */
+    @Test
+    fun promotion() {
+        val cache = BoundedMessageCache(5)
+        (1L..5L).forEach { cache += mockMessage(it, 1L) }
+        assertNotNull(cache[1L])
+        cache += mockMessage(6L, 1L)
+        cache += mockMessage(7L, 1L)
+
+        assertTrue(1L in cache)
+        assertFalse(2L in cache)
+        assertFalse(3L in cache)
+        assertEquals(2L, cache.evictionCount)
+    }
+
+    /**
+     * Tests that the least recently used protected message is demoted once the protected segment is full.
+     */
+    @Test
+    fun demotion() {
+        val cache = BoundedMessageCache(5)
+        (1L..5L).forEach { cache += mockMessage(it, 1L) }
+        // The protected segment holds four messages, accessing the fifth one demotes message 1
+        (1L..5L).forEach { assertNotNull(cache[it]) }
+        cache += mockMessage(6L, 1L)
+
+        assertFalse(1L in cache)
+        (2L..6L).forEach { assertTrue(it in cache) }
+    }
+
+    /**
+     * Tests that messages expire after the maximum age.
+     */
+    @Test
+    fun expiry() {
+        val cache = BoundedMessageCache(10, 50, TimeUnit.MILLISECONDS)
+        cache += mockMessage(1L, 1L)
+        assertNotNull(cache[1L])
+        Thread.sleep(100)
+
+        assertNull(cache[1L])
+        assertEquals(0, cache.size)
+        assertEquals(1L, cache.evictionCount)
+    }
+
+    /**
+     * Tests that every channel only keeps its latest messages.
+     */
+    @Test
+    fun channelLimit() {
+        val cache = BoundedMessageCache(10, maximumSizePerChannel = 2)
+        (1L..3L).forEach { cache += mockMessage(it, 1L) }
+        cache += mockMessage(4L, 2L)
+
+        assertFalse(1L in cache)
+        assertEquals(setOf(2L, 3L, 4L), cache.keys)
+    }
+
+    /**
+     * Tests that replacing a message keeps it in the cache without evicting others.
+     */
+    @Test
+    fun replace() {
+        val cache = BoundedMessageCache(2)
+        cache += mockMessage(1L, 1L)
+        cache += mockMessage(2L, 1L)
+        cache += mockMessage(1L, 1L, "edited")
+
+        assertEquals("edited", cache[1L]!!.contentRaw)
+        assertEquals(2, cache.size)
+        assertEquals(0L, cache.evictionCount)
+    }
+
+    private fun mockMessage(id: Long, channelId: Long, content: String = "message $id"): Message {
+        val channel = Mockito.mock(TextChannel::class.java)
+        Mockito.`when`(channel.idLong).thenReturn(channelId)
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.idLong).thenReturn(553636358283288589L)
+        val message = Mockito.mock(Message::class.java)
+        Mockito.`when`(message.idLong).thenReturn(id)
+        Mockito.`when`(message.contentRaw).thenReturn(content)
+        Mockito.`when`(message.contentDisplay).thenReturn(content)
+        Mockito.`when`(message.embeds).thenReturn(emptyList())
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.guild).thenReturn(guild)
+        return message
+    }
+}
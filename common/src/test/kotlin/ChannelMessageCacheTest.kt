@@ -0,0 +1,131 @@
+import me.schlaubi.regnumutils.common.cache.ChannelMessageCache
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests the per channel ring buffers and range queries of the [ChannelMessageCache].
+ */
+class ChannelMessageCacheTest {
+
+    /**
+     * Tests that every channel only keeps its latest messages.
+     */
+    @Test
+    fun channelLimit() {
+        val cache = ChannelMessageCache(3)
+        (1L..5L).forEach { cache += mockMessage(it, 1L) }
+        cache += mockMessage(6L, 2L)
+
+        assertEquals(3, cache.channelSize(1L))
+        assertEquals(1, cache.channelSize(2L))
+        assertEquals(setOf(3L, 4L, 5L, 6L), cache.keys)
+        assertEquals(2, cache.channelCount)
+    }
+
+    /**
+     * Tests that holes left by removed messages are filled before the oldest message is overwritten.
+     */
+    @Test
+    fun holes() {
+        val cache = ChannelMessageCache(4)
+        (1L..4L).forEach { cache += mockMessage(it, 1L) }
+        cache.remove(2L)
+        cache += mockMessage(5L, 1L)
+
+        assertEquals(setOf(1L, 3L, 4L, 5L), cache.keys)
+        assertEquals(listOf(5L, 4L, 3L, 1L), ids(cache.latest(1L)))
+
+        // The ring wrapped around after compacting, so message 1 is the oldest one
+        cache += mockMessage(6L, 1L)
+        assertFalse(1L in cache)
+        assertEquals(listOf(6L, 5L, 4L, 3L), ids(cache.latest(1L)))
+    }
+
+    /**
+     * Tests that removing the last message of a channel drops its ring.
+     */
+    @Test
+    fun removeLast() {
+        val cache = ChannelMessageCache(4)
+        cache += mockMessage(1L, 1L)
+        cache.remove(1L)
+
+        assertEquals(0, cache.channelCount)
+        assertTrue(cache.latest(1L).isEmpty())
+    }
+
+    /**
+     * Tests the ranges returned by [ChannelMessageCache.latest], [ChannelMessageCache.before] and
+     * [ChannelMessageCache.after].
+     */
+    @Test
+    fun ranges() {
+        val cache = ChannelMessageCache(10)
+        // Insert out of order, the ranges are ordered by id
+        listOf(13L, 10L, 19L, 11L, 15L, 12L, 18L, 14L, 17L, 16L).forEach { cache += mockMessage(it, 1L) }
+
+        assertEquals(listOf(19L, 18L), ids(cache.latest(1L, 2)))
+        assertEquals(listOf(14L, 13L, 12L), ids(cache.before(1L, 15L, 3)))
+        assertEquals(listOf(11L, 10L), ids(cache.before(1L, 12L)))
+        assertEquals(listOf(16L, 17L), ids(cache.after(1L, 15L, 2)))
+        assertEquals(listOf(18L, 19L), ids(cache.after(1L, 17L)))
+        assertTrue(cache.after(1L, 19L).isEmpty())
+        assertTrue(cache.before(2L, 15L).isEmpty())
+    }
+
+    /**
+     * Tests that clearing a channel keeps the messages of other channels.
+     */
+    @Test
+    fun clearChannel() {
+        val cache = ChannelMessageCache(4)
+        (1L..3L).forEach { cache += mockMessage(it, 1L) }
+        cache += mockMessage(4L, 2L)
+        cache.clearChannel(1L)
+
+        assertEquals(setOf(4L), cache.keys)
+        assertEquals(1, cache.channelCount)
+    }
+
+    private fun ids(messages: List<Message>) = messages.map { it.idLong }
+
+    private fun mockMessage(id: Long, channelId: Long): Message {
+        val channel = Mockito.mock(TextChannel::class.java)
+        Mockito.`when`(channel.idLong).thenReturn(channelId)
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.idLong).thenReturn(553636358283288589L)
+        val message = Mockito.mock(Message::class.java)
+        Mockito.`when`(message.idLong).thenReturn(id)
+        Mockito.`when`(message.contentRaw).thenReturn("message $id")
+        Mockito.`when`(message.contentDisplay).thenReturn("message $id")
+        Mockito.`when`(message.embeds).thenReturn(emptyList())
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.guild).thenReturn(guild)
+        return message
+    }
+}
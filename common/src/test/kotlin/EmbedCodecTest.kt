@@ -0,0 +1,93 @@
+import me.schlaubi.regnumutils.common.cache.EmbedCodec
+import net.dv8tion.jda.api.EmbedBuilder
+import net.dv8tion.jda.api.entities.EmbedType
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.IOException
+import java.time.Instant
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests the versioned format of the [EmbedCodec].
+ */
+class EmbedCodecTest {
+
+    /**
+     * Encodes an embed and decodes it again.
+     */
+    @Test
+    fun roundTrip() {
+        val timestamp = OffsetDateTime.ofInstant(Instant.ofEpochMilli(1560000000000L), ZoneOffset.UTC)
+        val embed = EmbedBuilder()
+            .setTitle("Regnum", "https://hawkbot.cc")
+            .setDescription("Grüße 👋")
+            .setTimestamp(timestamp)
+            .setColor(0x00ff00)
+            .setFooter("footer", null)
+            .addField("name", "value", true)
+            .build()
+
+        val bytes = EmbedCodec.encode(listOf(embed))!!
+        assertEquals(EmbedCodec.VERSION, bytes[0].toInt())
+        val decoded = EmbedCodec.decode(bytes).single()
+
+        assertEquals(EmbedType.RICH, decoded.type)
+        assertEquals(embed.title, decoded.title)
+        assertEquals(embed.url, decoded.url)
+        assertEquals(embed.description, decoded.description)
+        assertEquals(embed.timestamp, decoded.timestamp)
+        assertEquals(embed.colorRaw, decoded.colorRaw)
+        assertEquals(embed.footer!!.text, decoded.footer!!.text)
+        assertEquals(embed.fields, decoded.fields)
+    }
+
+    /**
+     * Encodes no embeds.
+     */
+    @Test
+    fun empty() {
+        assertTrue(EmbedCodec.decode(EmbedCodec.encode(emptyList())).isEmpty())
+    }
+
+    /**
+     * Refuses embeds encoded in another format version.
+     */
+    @Test(expected = IOException::class)
+    fun unsupportedVersion() {
+        val bytes = EmbedCodec.encode(listOf(EmbedBuilder().setDescription("pong").build()))!!
+        bytes[0] = (EmbedCodec.VERSION + 1).toByte()
+        EmbedCodec.decode(bytes)
+    }
+
+    /**
+     * Checks the format version without decoding the embeds.
+     */
+    @Test(expected = IOException::class)
+    fun checkVersion() {
+        val bytes = EmbedCodec.encode(listOf(EmbedBuilder().setDescription("pong").build()))!!
+        EmbedCodec.checkVersion(bytes)
+        bytes[0] = (EmbedCodec.VERSION + 1).toByte()
+        EmbedCodec.checkVersion(bytes)
+    }
+}
@@ -0,0 +1,128 @@
+import me.schlaubi.regnumutils.common.cache.CachedMessage
+import me.schlaubi.regnumutils.common.cache.MessageCacheAdmission
+import me.schlaubi.regnumutils.common.cache.MessageCacheAdmission.Field
+import me.schlaubi.regnumutils.common.cache.OffHeapMessageCache
+import me.schlaubi.regnumutils.common.collections.LongSet
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Test
+import org.mockito.Mockito
+import java.util.EnumSet
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests which messages the [MessageCacheAdmission] admits and which of their fields are retained.
+ */
+class MessageCacheAdmissionTest {
+
+    /**
+     * Tests the guild, channel and length rules.
+     */
+    @Test
+    fun admits() {
+        val admission = MessageCacheAdmission(LongSet.of(1L), LongSet.of(20L), 4)
+
+        assertTrue(admission.admits(mockMessage(1L, 10L, "pong")))
+        assertTrue(admission.admits(mockMessage(2L, 20L, "pong")))
+        assertFalse(admission.admits(mockMessage(2L, 10L, "pong")))
+        assertFalse(admission.admits(mockMessage(1L, 10L, "pi")))
+        assertTrue(MessageCacheAdmission.ALL.admits(mockMessage(2L, 10L, "")))
+    }
+
+    /**
+     * Tests that only the raw content is available if only it was retained.
+     */
+    @Test
+    fun rawOnly() {
+        val message = CachedMessage(mockMessage(1L, 10L, "**pong**", "pong"), EnumSet.of(Field.RAW))
+
+        assertEquals("**pong**", message.contentRaw)
+        assertUnsupported { message.contentDisplay }
+        assertUnsupported { message.embeds }
+    }
+
+    /**
+     * Tests that only the display content is available if only it was retained, even if it equals the raw content.
+     */
+    @Test
+    fun displayOnly() {
+        val message = CachedMessage(mockMessage(1L, 10L, "pong"), EnumSet.of(Field.DISPLAY))
+
+        assertEquals("pong", message.contentDisplay)
+        assertUnsupported { message.contentRaw }
+        assertUnsupported { message.embeds }
+    }
+
+    /**
+     * Tests that messages without embeds are distinguished from messages whose embeds were not retained.
+     */
+    @Test
+    fun embeds() {
+        val message = CachedMessage(mockMessage(1L, 10L, "pong"), EnumSet.of(Field.EMBEDS))
+
+        assertTrue(message.embeds.isEmpty())
+        assertUnsupported { message.contentRaw }
+    }
+
+    /**
+     * Tests that the retained fields survive the serialization of a cache.
+     */
+    @Test
+    fun serialized() {
+        OffHeapMessageCache(4096, 16).use { cache ->
+            cache[1L] = CachedMessage(mockMessage(1L, 10L, "**pong**", "pong"), EnumSet.of(Field.DISPLAY))
+            val message = cache[1L]!!
+
+            assertEquals("pong", message.contentDisplay)
+            assertUnsupported { message.contentRaw }
+            assertUnsupported { message.embeds }
+        }
+    }
+
+    private fun assertUnsupported(action: () -> Any) {
+        try {
+            action()
+            fail("Expected an UnsupportedOperationException")
+        } catch (e: UnsupportedOperationException) {
+            // The field was not retained
+        }
+    }
+
+    private fun mockMessage(guildId: Long, channelId: Long, content: String, display: String = content): Message {
+        val channel = Mockito.mock(TextChannel::class.java)
+        Mockito.`when`(channel.idLong).thenReturn(channelId)
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.idLong).thenReturn(guildId)
+        val message = Mockito.mock(Message::class.java)
+        Mockito.`when`(message.idLong).thenReturn(1L)
+        Mockito.`when`(message.contentRaw).thenReturn(content)
+        Mockito.`when`(message.contentDisplay).thenReturn(display)
+        Mockito.`when`(message.embeds).thenReturn(emptyList())
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.guild).thenReturn(guild)
+        return message
+    }
+}
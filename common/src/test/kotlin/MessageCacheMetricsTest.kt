@@ -0,0 +1,142 @@
+import me.schlaubi.regnumutils.common.cache.BoundedMessageCache
+import me.schlaubi.regnumutils.common.cache.MessageCacheMetrics
+import me.schlaubi.regnumutils.common.cache.RecordingMessageCacheMetrics
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito
+import java.util.concurrent.TimeUnit
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests if an instrumented cache reports its metrics to [RecordingMessageCacheMetrics].
+ */
+class MessageCacheMetricsTest {
+
+    /**
+     * Records lookups, sizes and evictions of a [BoundedMessageCache].
+     */
+    @Test
+    fun record() {
+        val metrics = RecordingMessageCacheMetrics()
+        val cache = BoundedMessageCache(2).instrument(metrics)
+
+        cache += mockMessage(1L, 10L, "pong")
+        cache += mockMessage(2L, 10L, "pong")
+        cache += mockMessage(3L, 20L, "pong")
+        assertEquals(1L, metrics.evictionCount(MessageCacheMetrics.EvictionCause.SIZE))
+        assertEquals(1, metrics.channelSize(10L))
+        assertEquals(1, metrics.channelSize(20L))
+        assertEquals(2, metrics.guildSize(553636358283288589L))
+        assertTrue(metrics.retainedBytes > 0)
+
+        cache[3L]
+        cache[1L]
+        cache.replaceMessage(mockMessage(2L, 10L, "ping"))
+        cache.remove(4L)
+        assertEquals(1L, metrics.hitCount(MessageCacheMetrics.LookupType.READ))
+        assertEquals(1L, metrics.missCount(MessageCacheMetrics.LookupType.READ))
+        assertEquals(1.0, metrics.hitRate(MessageCacheMetrics.LookupType.UPDATE), 0.0)
+        assertEquals(0.0, metrics.hitRate(MessageCacheMetrics.LookupType.DELETE), 0.0)
+        assertEquals(2L, metrics.getLatency.count)
+        assertEquals(3L, metrics.putLatency.count)
+
+        cache.remove(2L)
+        cache.remove(3L)
+        assertEquals(0L, metrics.retainedBytes)
+        assertTrue(metrics.channelSizes().isEmpty())
+    }
+
+    /**
+     * Does not count contents which are shared with other messages again.
+     */
+    @Test
+    fun deduplicated() {
+        val metrics = RecordingMessageCacheMetrics()
+        val cache = BoundedMessageCache(10, deduplicate = true).instrument(metrics)
+        val content = "x".repeat(100)
+
+        cache += mockMessage(1L, 10L, content)
+        val single = metrics.retainedBytes
+        cache += mockMessage(2L, 10L, content)
+        assertEquals(100L, cache.deduplicatedBytes)
+        assertEquals(100L, metrics.deduplicatedBytes)
+        assertEquals(2 * single - 100, metrics.retainedBytes)
+
+        cache.remove(1L)
+        assertEquals(single, metrics.retainedBytes)
+        cache.remove(2L)
+        assertEquals(0L, metrics.retainedBytes)
+    }
+
+    /**
+     * Keeps the retained bytes consistent when shared contents get evicted while adding or reading messages.
+     */
+    @Test
+    fun deduplicatedEvictions() {
+        val metrics = RecordingMessageCacheMetrics()
+        val cache = BoundedMessageCache(1, deduplicate = true).instrument(metrics)
+        val content = "x".repeat(100)
+
+        cache += mockMessage(1L, 10L, content)
+        val single = metrics.retainedBytes
+        cache += mockMessage(2L, 10L, content)
+        assertEquals(single, metrics.retainedBytes)
+        assertEquals(0L, metrics.deduplicatedBytes)
+
+        val expiringMetrics = RecordingMessageCacheMetrics()
+        val expiring = BoundedMessageCache(10, 1, TimeUnit.MILLISECONDS, deduplicate = true).instrument(expiringMetrics)
+        expiring += mockMessage(1L, 10L, content)
+        expiring += mockMessage(2L, 10L, content)
+        Thread.sleep(10)
+        assertEquals(0, expiring.size)
+        assertEquals(0L, expiringMetrics.retainedBytes)
+        assertEquals(2L, expiringMetrics.evictionCount(MessageCacheMetrics.EvictionCause.EXPIRED))
+    }
+
+    /**
+     * Does not wrap caches for the no-op metrics.
+     */
+    @Test
+    fun none() {
+        val cache = BoundedMessageCache()
+        assertSame(cache, cache.instrument(MessageCacheMetrics.NONE))
+    }
+
+    private fun mockMessage(id: Long, channelId: Long, content: String): Message {
+        val channel = Mockito.mock(TextChannel::class.java)
+        Mockito.`when`(channel.idLong).thenReturn(channelId)
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.idLong).thenReturn(553636358283288589L)
+        val message = Mockito.mock(Message::class.java)
+        Mockito.`when`(message.idLong).thenReturn(id)
+        Mockito.`when`(message.contentRaw).thenReturn(content)
+        Mockito.`when`(message.contentDisplay).thenReturn(content)
+        Mockito.`when`(message.embeds).thenReturn(emptyList())
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.guild).thenReturn(guild)
+        return message
+    }
+}
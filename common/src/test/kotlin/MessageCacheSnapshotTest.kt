@@ -0,0 +1,155 @@
+import me.schlaubi.regnumutils.common.cache.ChannelMessageCache
+import me.schlaubi.regnumutils.common.cache.ConcurrentMessageCache
+import me.schlaubi.regnumutils.common.cache.MessageCache
+import me.schlaubi.regnumutils.common.cache.MessageCacheAdmission
+import me.schlaubi.regnumutils.common.cache.MessageCacheSnapshot
+import me.schlaubi.regnumutils.common.collections.LongSet
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.mockito.Mockito
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.time.Instant
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests if a [MessageCache] survives a round trip through a [MessageCacheSnapshot].
+ */
+class MessageCacheSnapshotTest {
+
+    @Suppress("unused")
+    val folder = TemporaryFolder()
+        @Rule get() = field
+
+    /**
+     * Exports a cache and imports it into an empty one.
+     */
+    @Test
+    fun roundTrip() {
+        val editedAt = OffsetDateTime.ofInstant(Instant.ofEpochMilli(1560000000000L), ZoneOffset.UTC)
+        val cache = ConcurrentMessageCache()
+        cache += mockMessage(587624539553398795L, "pong", "pong", null, null)
+        cache += mockMessage(587624539553398796L, "pong", "pong", "5876245395", editedAt)
+        cache += mockMessage(
+            587624539553398801L,
+            "Grüße aus München 👋 <@416902379598774273>",
+            "Grüße aus München 👋 @Schlaubi",
+            null,
+            null
+        )
+        val path = folder.root.toPath().resolve("cache.snapshot")
+
+        assertEquals(3, cache.exportSnapshot(path))
+        val restored = ConcurrentMessageCache()
+        assertEquals(3, restored.importSnapshot(path))
+
+        assertEquals(cache.keys, restored.keys)
+        cache.values.forEach {
+            val message = restored[it.idLong]!!
+            assertEquals(it.contentRaw, message.contentRaw)
+            assertEquals(it.contentDisplay, message.contentDisplay)
+            assertEquals(it.nonce, message.nonce)
+            assertEquals(it.isEdited, message.isEdited)
+            assertEquals(it.timeEdited, message.timeEdited)
+        }
+    }
+
+    /**
+     * Streams a cache keeping its messages per channel and imports it without overwriting cached messages
+     * or caching messages which are not admitted.
+     */
+    @Test
+    fun admissionAndCachedMessages() {
+        val cache = ChannelMessageCache()
+        (1L..3L).forEach { cache += mockMessage(it, "message $it", "message $it", null, null) }
+        val path = folder.root.toPath().resolve("channel.snapshot")
+        assertEquals(3, cache.exportSnapshot(path))
+
+        val otherChannel = ConcurrentMessageCache()
+        otherChannel.importSnapshot(path, MessageCacheAdmission(channels = LongSet.of(1L)))
+        assertTrue(otherChannel.isEmpty())
+
+        val restored = ConcurrentMessageCache()
+        restored += mockMessage(2L, "edited", "edited", null, null)
+        assertEquals(3, restored.importSnapshot(path))
+        assertEquals(setOf(1L, 2L, 3L), restored.keys)
+        assertEquals("edited", restored[2L]!!.contentRaw)
+    }
+
+    /**
+     * Imports an empty snapshot.
+     */
+    @Test
+    fun empty() {
+        val path = folder.root.toPath().resolve("empty.snapshot")
+        assertEquals(0, ConcurrentMessageCache().exportSnapshot(path))
+        val restored = ConcurrentMessageCache()
+        assertEquals(0, restored.importSnapshot(path))
+        assertNull(restored[587624539553398795L])
+    }
+
+    /**
+     * Refuses snapshots written in another format version.
+     */
+    @Test(expected = IOException::class)
+    fun unsupportedVersion() {
+        val path = folder.root.toPath().resolve("future.snapshot")
+        Files.write(
+            path,
+            ByteBuffer.allocate(9).putInt(0x524d4353).putInt(MessageCacheSnapshot.VERSION + 1).put(0).array()
+        )
+        ConcurrentMessageCache().importSnapshot(path)
+    }
+
+    private fun mockMessage(
+        id: Long,
+        contentRaw: String,
+        contentDisplay: String,
+        nonce: String?,
+        editedAt: OffsetDateTime?
+    ): Message {
+        val channel = Mockito.mock(TextChannel::class.java)
+        Mockito.`when`(channel.idLong).thenReturn(553636382446223361L)
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.idLong).thenReturn(553636358283288589L)
+        val message = Mockito.mock(Message::class.java)
+        Mockito.`when`(message.idLong).thenReturn(id)
+        Mockito.`when`(message.contentRaw).thenReturn(contentRaw)
+        Mockito.`when`(message.contentDisplay).thenReturn(contentDisplay)
+        Mockito.`when`(message.nonce).thenReturn(nonce)
+        Mockito.`when`(message.isEdited).thenReturn(editedAt != null)
+        Mockito.`when`(message.timeEdited).thenReturn(editedAt)
+        Mockito.`when`(message.embeds).thenReturn(emptyList())
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.guild).thenReturn(guild)
+        return message
+    }
+}
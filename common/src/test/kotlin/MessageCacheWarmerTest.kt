@@ -0,0 +1,160 @@
+import me.schlaubi.regnumutils.common.cache.ChannelMessageCache
+import me.schlaubi.regnumutils.common.cache.ConcurrentMessageCache
+import me.schlaubi.regnumutils.common.cache.HistorySource
+import me.schlaubi.regnumutils.common.cache.MessageCacheAdmission
+import me.schlaubi.regnumutils.common.cache.MessageCacheWarmer
+import me.schlaubi.regnumutils.common.collections.LongSet
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests if the [MessageCacheWarmer] pages the history of a [HistorySource] into the cache.
+ */
+class MessageCacheWarmerTest {
+
+    private val executor = Executors.newFixedThreadPool(4)
+
+    /**
+     * Stops the executor of the fake history.
+     */
+    @After
+    fun after() {
+        executor.shutdownNow()
+    }
+
+    /**
+     * Warms up several channels including one which does not exist.
+     */
+    @Test
+    fun warm() {
+        val source = FakeHistorySource(mapOf(1L to 250, 2L to 30, 3L to 0))
+        val cache = ConcurrentMessageCache()
+        val warmer = MessageCacheWarmer(cache, source, null, 2, 200, 100)
+
+        val messages = warmer.warm(listOf(1L, 2L, 3L, 4L)).get(10, TimeUnit.SECONDS)
+
+        assertEquals(230L, messages)
+        assertEquals(230, cache.size)
+        assertEquals(3, warmer.warmedChannelCount)
+        assertEquals(1, warmer.failedChannelCount)
+        assertEquals(0, warmer.pendingChannelCount)
+        // Channel 1 needs two full pages, 2 and 3 one page each and 4 fails
+        assertEquals(5, source.requests.get())
+        assertTrue("More than 2 requests were in flight", source.maxInFlight.get() <= 2)
+    }
+
+    /**
+     * Keeps messages which were cached before the warm up.
+     */
+    @Test
+    fun keepsCachedMessages() {
+        val source = FakeHistorySource(mapOf(1L to 10))
+        val cache = ConcurrentMessageCache()
+        cache += mockMessage(1L, 5, "edited")
+
+        val messages = MessageCacheWarmer(cache, source).warm(listOf(1L)).get(10, TimeUnit.SECONDS)
+
+        assertEquals(9L, messages)
+        assertEquals(10, cache.size)
+        assertEquals("edited", cache[messageId(1L, 5)]!!.contentRaw)
+    }
+
+    /**
+     * Only caches the messages admitted by the admission rules.
+     */
+    @Test
+    fun admission() {
+        val source = FakeHistorySource(mapOf(1L to 30, 2L to 10))
+        val cache = ConcurrentMessageCache()
+        val admission = MessageCacheAdmission(channels = LongSet.of(1L), minimumLength = 10)
+        val warmer = MessageCacheWarmer(cache, source, null, 2, 100, 100, admission)
+
+        val messages = warmer.warm(listOf(1L, 2L)).get(10, TimeUnit.SECONDS)
+
+        // "message 0" to "message 9" are too short and channel 2 is not cached at all
+        assertEquals(20L, messages)
+        assertEquals((10..29).map { messageId(1L, it) }.toSet(), cache.keys)
+        assertEquals(2, warmer.warmedChannelCount)
+    }
+
+    /**
+     * Keeps the newest messages of the history in a cache evicting the oldest insertions.
+     */
+    @Test
+    fun keepsNewestMessages() {
+        val source = FakeHistorySource(mapOf(1L to 120))
+        val cache = ChannelMessageCache(50)
+
+        MessageCacheWarmer(cache, source, null, 1, 120, 50).warm(listOf(1L)).get(10, TimeUnit.SECONDS)
+
+        assertEquals((70..119).map { messageId(1L, it) }.toSet(), cache.keys)
+    }
+
+    // Local fake of the channel history endpoint answering asynchronously
+    private inner class FakeHistorySource(private val channels: Map<Long, Int>) : HistorySource {
+
+        val requests = AtomicInteger()
+        val maxInFlight = AtomicInteger()
+        private val inFlight = AtomicInteger()
+
+        override fun retrieveHistory(channelId: Long, before: Long, limit: Int): CompletableFuture<List<Message>> {
+            requests.incrementAndGet()
+            val current = inFlight.incrementAndGet()
+            maxInFlight.accumulateAndGet(current) { a, b -> maxOf(a, b) }
+            return CompletableFuture.supplyAsync({
+                Thread.sleep(5)
+                inFlight.decrementAndGet()
+                val size = channels[channelId] ?: throw IllegalArgumentException("Unknown text channel $channelId")
+                // Message i of a channel is older than message i + 1
+                val newest = if (before == 0L) size - 1 else ((before - messageId(channelId, 0)) - 1).toInt()
+                (newest downTo maxOf(0, newest - limit + 1)).map { mockMessage(channelId, it, "message $it") }
+            }, executor)
+        }
+    }
+
+    private fun messageId(channelId: Long, index: Int) = (channelId shl 32) + index
+
+    private fun mockMessage(channelId: Long, index: Int, content: String): Message {
+        val channel = Mockito.mock(TextChannel::class.java)
+        Mockito.`when`(channel.idLong).thenReturn(channelId)
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.idLong).thenReturn(553636358283288589L)
+        val message = Mockito.mock(Message::class.java)
+        Mockito.`when`(message.idLong).thenReturn(messageId(channelId, index))
+        Mockito.`when`(message.contentRaw).thenReturn(content)
+        Mockito.`when`(message.contentDisplay).thenReturn(content)
+        Mockito.`when`(message.embeds).thenReturn(emptyList())
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.guild).thenReturn(guild)
+        return message
+    }
+}
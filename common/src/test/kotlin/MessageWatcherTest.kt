@@ -0,0 +1,170 @@
+import cc.hawkbot.regnum.client.event.EventManager
+import me.schlaubi.regnumutils.common.cache.ConcurrentMessageCache
+import me.schlaubi.regnumutils.common.cache.MessageCacheAdmission
+import me.schlaubi.regnumutils.common.cache.MessageWatcher
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import net.dv8tion.jda.api.events.message.guild.GuildMessageDeleteEvent
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent
+import net.dv8tion.jda.api.events.message.guild.GuildMessageUpdateEvent
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.Mockito
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests that the [MessageWatcher] keeps the cache consistent when message events are reordered.
+ */
+class MessageWatcherTest {
+
+    private val guild = Mockito.mock(Guild::class.java)
+    private val channel = Mockito.mock(TextChannel::class.java)
+    private val eventManager = Mockito.mock(EventManager::class.java)
+    private val cache = ConcurrentMessageCache()
+    private val watcher = MessageWatcher(cache, eventManager, MessageCacheAdmission.ALL)
+
+    init {
+        Mockito.`when`(guild.idLong).thenReturn(553636358283288589L)
+        Mockito.`when`(channel.idLong).thenReturn(553636382446223361L)
+    }
+
+    /**
+     * Tests that an update reports the previously cached version.
+     */
+    @Test
+    fun update() {
+        watcher.onGuildMessageReceived(received(mockMessage(1L, "original")))
+        watcher.onGuildMessageUpdate(updated(mockMessage(1L, "edited")))
+
+        assertEquals("edited", cache[1L]!!.contentRaw)
+        assertEquals("original", firedUpdate().oldMessage!!.contentRaw)
+    }
+
+    /**
+     * Tests that a received message which got processed after its update does not overwrite the edited version.
+     */
+    @Test
+    fun receivedAfterUpdate() {
+        watcher.onGuildMessageUpdate(updated(mockMessage(1L, "edited")))
+        watcher.onGuildMessageReceived(received(mockMessage(1L, "original")))
+
+        assertEquals("edited", cache[1L]!!.contentRaw)
+        assertNull(firedUpdate().oldMessage)
+    }
+
+    /**
+     * Tests that a deletion reports and removes the cached version.
+     */
+    @Test
+    fun delete() {
+        watcher.onGuildMessageReceived(received(mockMessage(1L, "original")))
+        watcher.onGuildMessageDelete(deleted(1L))
+
+        assertTrue(cache.isEmpty())
+        val event = firedEvents().single() as me.schlaubi.regnumutils.common.events.GuildMessageDeleteEvent
+        assertEquals("original", event.oldMessage!!.contentRaw)
+    }
+
+    /**
+     * Tests that a received message or update which got processed after the deletion does not cache the message again.
+     */
+    @Test
+    fun receivedAfterDelete() {
+        watcher.onGuildMessageDelete(deleted(1L))
+        watcher.onGuildMessageReceived(received(mockMessage(1L, "original")))
+        watcher.onGuildMessageUpdate(updated(mockMessage(1L, "edited")))
+
+        assertTrue(cache.isEmpty())
+    }
+
+    /**
+     * Tests that a concurrent change of the same message waits until the event of the previous change got fired.
+     */
+    @Test
+    fun firesInOrder() {
+        var delete: CompletableFuture<Void>? = null
+        Mockito.doAnswer {
+            delete = CompletableFuture.runAsync { watcher.onGuildMessageDelete(deleted(1L)) }
+            // The deletion has to wait for the lock of the message which is held while firing
+            Thread.sleep(100)
+            assertFalse(delete!!.isDone)
+            null
+        }.`when`(eventManager).fireEvent(Mockito.any(me.schlaubi.regnumutils.common.events.GuildMessageUpdateEvent::class.java))
+
+        watcher.onGuildMessageReceived(received(mockMessage(1L, "original")))
+        watcher.onGuildMessageUpdate(updated(mockMessage(1L, "edited")))
+        delete!!.get(5, TimeUnit.SECONDS)
+
+        assertTrue(cache.isEmpty())
+        val events = firedEvents()
+        assertEquals(2, events.size)
+        assertTrue(events[0] is me.schlaubi.regnumutils.common.events.GuildMessageUpdateEvent)
+        val deletion = events[1] as me.schlaubi.regnumutils.common.events.GuildMessageDeleteEvent
+        assertEquals("edited", deletion.oldMessage!!.contentRaw)
+    }
+
+    private fun firedEvents() = Mockito.mockingDetails(eventManager).invocations
+        .filter { it.method.name == "fireEvent" }
+        .map { it.arguments[0] }
+
+    private fun firedUpdate() =
+        firedEvents().single() as me.schlaubi.regnumutils.common.events.GuildMessageUpdateEvent
+
+    private fun received(message: Message): GuildMessageReceivedEvent {
+        val event = Mockito.mock(GuildMessageReceivedEvent::class.java)
+        Mockito.`when`(event.message).thenReturn(message)
+        return event
+    }
+
+    private fun updated(message: Message): GuildMessageUpdateEvent {
+        val event = Mockito.mock(GuildMessageUpdateEvent::class.java)
+        Mockito.`when`(event.message).thenReturn(message)
+        Mockito.`when`(event.messageIdLong).thenReturn(message.idLong)
+        Mockito.`when`(event.guild).thenReturn(guild)
+        Mockito.`when`(event.channel).thenReturn(channel)
+        return event
+    }
+
+    private fun deleted(id: Long): GuildMessageDeleteEvent {
+        val event = Mockito.mock(GuildMessageDeleteEvent::class.java)
+        Mockito.`when`(event.messageIdLong).thenReturn(id)
+        Mockito.`when`(event.guild).thenReturn(guild)
+        Mockito.`when`(event.channel).thenReturn(channel)
+        return event
+    }
+
+    private fun mockMessage(id: Long, content: String): Message {
+        val message = Mockito.mock(Message::class.java)
+        Mockito.`when`(message.idLong).thenReturn(id)
+        Mockito.`when`(message.contentRaw).thenReturn(content)
+        Mockito.`when`(message.contentDisplay).thenReturn(content)
+        Mockito.`when`(message.embeds).thenReturn(emptyList())
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.guild).thenReturn(guild)
+        return message
+    }
+}
@@ -0,0 +1,131 @@
+import me.schlaubi.regnumutils.common.cache.OffHeapMessageCache
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Test
+import org.mockito.Mockito
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests the ring buffer of the [OffHeapMessageCache].
+ */
+class OffHeapMessageCacheTest {
+
+    /**
+     * Tests that cached messages are read back from off-heap memory.
+     */
+    @Test
+    fun roundTrip() {
+        OffHeapMessageCache(4096, 16).use { cache ->
+            cache += mockMessage(1L, "Grüße 👋")
+            cache += mockMessage(2L, "pong")
+
+            assertEquals("Grüße 👋", cache[1L]!!.contentRaw)
+            assertEquals("pong", cache[2L]!!.contentRaw)
+            assertEquals(setOf(1L, 2L), cache.keys)
+        }
+    }
+
+    /**
+     * Tests that the oldest messages are evicted once the ring wraps around.
+     */
+    @Test
+    fun evictsOldestWhenFull() {
+        val record = recordSize()
+        OffHeapMessageCache(record * 4, 16).use { cache ->
+            (1L..6L).forEach { cache += mockMessage(it, "message $it") }
+
+            assertEquals(setOf(3L, 4L, 5L, 6L), cache.keys)
+            assertEquals(2L, cache.evictionCount)
+            assertEquals("message 6", cache[6L]!!.contentRaw)
+            assertEquals(record * 4, cache.usedBytes)
+        }
+    }
+
+    /**
+     * Tests that the oldest messages are evicted once the index is full.
+     */
+    @Test
+    fun evictsOldestWhenIndexFull() {
+        OffHeapMessageCache(4096, 2).use { cache ->
+            (1L..3L).forEach { cache += mockMessage(it, "message $it") }
+
+            assertEquals(setOf(2L, 3L), cache.keys)
+            assertEquals(1L, cache.evictionCount)
+        }
+    }
+
+    /**
+     * Tests that removed and replaced records are skipped when they are overwritten.
+     */
+    @Test
+    fun removedRecords() {
+        val record = recordSize()
+        OffHeapMessageCache(record * 3, 16).use { cache ->
+            (1L..3L).forEach { cache += mockMessage(it, "message $it") }
+            assertEquals("message 1", cache.remove(1L)!!.contentRaw)
+            cache += mockMessage(2L, "edited 2")
+            cache += mockMessage(4L, "message 4")
+
+            assertNull(cache[1L])
+            assertEquals("edited 2", cache[2L]!!.contentRaw)
+            assertEquals(setOf(2L, 3L, 4L), cache.keys)
+            assertFalse(1L in cache)
+            // Neither the removed nor the replaced record count as evictions
+            assertEquals(0L, cache.evictionCount)
+        }
+    }
+
+    /**
+     * Tests that a closed cache can not be used anymore.
+     */
+    @Test(expected = IllegalStateException::class)
+    fun closed() {
+        val cache = OffHeapMessageCache(4096, 16)
+        cache += mockMessage(1L, "pong")
+        cache.close()
+        cache.close()
+        cache[1L]
+    }
+
+    private fun recordSize() = OffHeapMessageCache(4096, 16).use { cache ->
+        cache += mockMessage(1L, "message 1")
+        cache.usedBytes
+    }
+
+    private fun mockMessage(id: Long, content: String): Message {
+        val channel = Mockito.mock(TextChannel::class.java)
+        Mockito.`when`(channel.idLong).thenReturn(553636382446223361L)
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.idLong).thenReturn(553636358283288589L)
+        val message = Mockito.mock(Message::class.java)
+        Mockito.`when`(message.idLong).thenReturn(id)
+        Mockito.`when`(message.contentRaw).thenReturn(content)
+        Mockito.`when`(message.contentDisplay).thenReturn(content)
+        Mockito.`when`(message.embeds).thenReturn(emptyList())
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.guild).thenReturn(guild)
+        return message
+    }
+}
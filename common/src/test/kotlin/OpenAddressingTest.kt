@@ -0,0 +1,181 @@
+import me.schlaubi.regnumutils.common.cache.OffHeapLongIndex
+import me.schlaubi.regnumutils.common.collections.LongHashSet
+import me.schlaubi.regnumutils.common.collections.LongLongMap
+import me.schlaubi.regnumutils.common.collections.LongObjectMap
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.*
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Compares the open-addressing collections with [HashMap] and [HashSet] under random operations.
+ * Keys are drawn from a small range including `0` and negative keys so probes collide, tables rehash
+ * and removals have to shift entries back.
+ */
+class OpenAddressingTest {
+
+    /**
+     * Runs random puts and removes against a [LongObjectMap].
+     */
+    @Test
+    fun longObjectMap() {
+        val random = Random(42)
+        val map = LongObjectMap<String>(4)
+        val expected = HashMap<Long, String>()
+        repeat(OPERATIONS) {
+            val key = randomKey(random)
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key))
+            } else {
+                val value = "v$it"
+                assertEquals(expected.put(key, value), map.put(key, value))
+            }
+            assertEquals(expected.size, map.size)
+        }
+        expected.forEach { (key, value) -> assertEquals(value, map[key]) }
+        var visited = 0
+        map.forEach { key, value ->
+            assertEquals(expected[key], value)
+            visited++
+        }
+        assertEquals(expected.size, visited)
+        assertNull(map[Long.MIN_VALUE])
+    }
+
+    /**
+     * Runs random puts and removes against a [LongLongMap].
+     */
+    @Test
+    fun longLongMap() {
+        val random = Random(7)
+        val map = LongLongMap(4, -1L)
+        val expected = HashMap<Long, Long>()
+        repeat(OPERATIONS) {
+            val key = randomKey(random)
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) ?: -1L, map.remove(key))
+            } else {
+                val value = random.nextInt(1000).toLong()
+                assertEquals(expected.put(key, value) ?: -1L, map.put(key, value))
+            }
+            assertEquals(expected.size, map.size)
+        }
+        expected.forEach { (key, value) ->
+            assertTrue(key in map)
+            assertEquals(value, map[key])
+        }
+        assertEquals(expected.keys, map.keys().toSet())
+    }
+
+    /**
+     * Runs random adds and removes against a [LongHashSet].
+     */
+    @Test
+    fun longHashSet() {
+        val random = Random(13)
+        val set = LongHashSet(4)
+        val expected = HashSet<Long>()
+        repeat(OPERATIONS) {
+            val element = randomKey(random)
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(element), set.remove(element))
+            } else {
+                assertEquals(expected.add(element), set.add(element))
+            }
+            assertEquals(expected.size, set.size)
+        }
+        for (element in -RANGE..RANGE) {
+            assertEquals(element in expected, element in set)
+        }
+        assertEquals(expected, set.toArray().toSet())
+    }
+
+    /**
+     * Runs random puts and removes against an [OffHeapLongIndex] sized for all keys.
+     */
+    @Test
+    fun offHeapLongIndex() {
+        val random = Random(21)
+        val index = OffHeapLongIndex(RANGE.toInt() * 2 + 1)
+        val expected = HashMap<Long, Int>()
+        repeat(OPERATIONS) {
+            val key = randomKey(random)
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key) ?: OffHeapLongIndex.NONE, index.remove(key))
+            } else {
+                val value = random.nextInt(1000)
+                assertEquals(expected.put(key, value) ?: OffHeapLongIndex.NONE, index.put(key, value))
+            }
+            assertEquals(expected.size, index.size)
+        }
+        expected.forEach { (key, value) -> assertEquals(value, index[key]) }
+    }
+
+    /**
+     * Tests that the key `0`, which marks free slots, is stored like every other key.
+     */
+    @Test
+    fun zeroKey() {
+        val map = LongObjectMap<String>()
+        assertNull(map.put(0L, "zero"))
+        assertEquals("zero", map[0L])
+        assertEquals(1, map.size)
+        assertEquals("zero", map.remove(0L))
+        assertFalse(0L in map)
+
+        val set = LongHashSet()
+        assertTrue(set.add(0L))
+        assertFalse(set.add(0L))
+        assertTrue(0L in set)
+        assertTrue(set.remove(0L))
+        assertEquals(0, set.size)
+
+        val longs = LongLongMap()
+        assertEquals(-1L, longs.put(0L, 5L))
+        assertEquals(5L, longs[0L])
+        assertEquals(5L, longs.remove(0L))
+        assertEquals(-1L, longs[0L])
+    }
+
+    /**
+     * Tests that clearing leaves usable tables behind.
+     */
+    @Test
+    fun clear() {
+        val map = LongObjectMap<String>()
+        (1L..100L).forEach { map[it] = it.toString() }
+        map.clear()
+        assertEquals(0, map.size)
+        assertNull(map[50L])
+        map[50L] = "again"
+        assertEquals("again", map[50L])
+    }
+
+    private fun randomKey(random: Random) = random.nextInt(RANGE.toInt() * 2 + 1) - RANGE
+
+    private companion object {
+        const val OPERATIONS = 50_000
+        const val RANGE = 512L
+    }
+}
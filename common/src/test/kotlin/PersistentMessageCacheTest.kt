@@ -0,0 +1,227 @@
+import me.schlaubi.regnumutils.common.cache.CachedMessage
+import me.schlaubi.regnumutils.common.cache.PersistentMessageCache
+import net.dv8tion.jda.api.entities.Guild
+import net.dv8tion.jda.api.entities.Message
+import net.dv8tion.jda.api.entities.TextChannel
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.mockito.Mockito
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.TimeUnit
+
+/*
+ * Regnum - A Discord bot clustering system made for Hawk
+ *
+ * Copyright (C) 2019  Michael Rittmeister
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see https://www.gnu.org/licenses/.
+ */
+
+/**
+ * Tests the segment files of the [PersistentMessageCache].
+ */
+class PersistentMessageCacheTest {
+
+    @Suppress("unused")
+    val folder = TemporaryFolder()
+        @Rule get() = field
+
+    // The length and id of a record followed by the message, all test messages have the same size
+    private val recordSize = 4 + 8 + CachedMessage(mockMessage(1L)).serializedSize
+
+    /**
+     * Reopens a cache and reads the messages written before.
+     */
+    @Test
+    fun reopen() {
+        val directory = folder.root.toPath()
+        PersistentMessageCache(directory, 4096).use { cache ->
+            (1L..3L).forEach { cache += mockMessage(it) }
+            cache.remove(2L)
+            cache += mockMessage(3L, "edited")
+        }
+
+        PersistentMessageCache(directory, 4096).use { cache ->
+            assertEquals(setOf(1L, 3L), cache.keys)
+            assertEquals("message 1", cache[1L]!!.contentRaw)
+            assertEquals("edited", cache[3L]!!.contentRaw)
+        }
+    }
+
+    /**
+     * Reopens a cache whose segment got truncated in the middle of a record.
+     */
+    @Test
+    fun truncatedSegment() {
+        val directory = folder.root.toPath()
+        PersistentMessageCache(directory, 4096).use { cache ->
+            (1L..3L).forEach { cache += mockMessage(it) }
+        }
+        FileChannel.open(segment(directory, 1), StandardOpenOption.WRITE).use {
+            it.truncate(HEADER + 2L * recordSize + 5)
+        }
+
+        PersistentMessageCache(directory, 4096).use { cache ->
+            assertEquals(setOf(1L, 2L), cache.keys)
+            cache += mockMessage(4L)
+        }
+        PersistentMessageCache(directory, 4096).use { cache ->
+            assertEquals(setOf(1L, 2L, 4L), cache.keys)
+            assertEquals("message 4", cache[4L]!!.contentRaw)
+        }
+    }
+
+    /**
+     * Replaces a segment file which is too short to be a segment.
+     */
+    @Test
+    fun corruptSegment() {
+        val directory = folder.root.toPath()
+        Files.write(segment(directory, 1), byteArrayOf(1, 2, 3))
+
+        PersistentMessageCache(directory, 4096).use { cache ->
+            assertEquals(0, cache.size)
+            cache += mockMessage(1L)
+            assertEquals("message 1", cache[1L]!!.contentRaw)
+        }
+        assertEquals(4096L, Files.size(segment(directory, 1)))
+    }
+
+    /**
+     * Compacts a segment once most of its messages got removed.
+     */
+    @Test
+    fun compaction() {
+        val directory = folder.root.toPath()
+        val segmentSize = HEADER + 3 * recordSize
+        PersistentMessageCache(directory, segmentSize).use { cache ->
+            (1L..6L).forEach { cache += mockMessage(it) }
+            cache.remove(1L)
+            assertEquals(0L, cache.compactionCount)
+            cache.remove(2L)
+
+            assertEquals(1L, cache.compactionCount)
+            assertEquals(2, cache.segmentCount)
+            assertFalse(Files.exists(segment(directory, 1)))
+            assertEquals("message 3", cache[3L]!!.contentRaw)
+        }
+
+        PersistentMessageCache(directory, segmentSize).use { cache ->
+            assertEquals(setOf(3L, 4L, 5L, 6L), cache.keys)
+        }
+    }
+
+    /**
+     * Drops the oldest segment once there are too many segments.
+     */
+    @Test
+    fun dropsByCount() {
+        val directory = folder.root.toPath()
+        PersistentMessageCache(directory, HEADER + 2 * recordSize, maximumSegments = 2).use { cache ->
+            (1L..5L).forEach { cache += mockMessage(it) }
+
+            assertEquals(setOf(3L, 4L, 5L), cache.keys)
+            assertEquals(1L, cache.droppedSegmentCount)
+            assertEquals(2, cache.segmentCount)
+            assertFalse(Files.exists(segment(directory, 1)))
+        }
+    }
+
+    /**
+     * Never drops the active segment, even if only a single segment is allowed.
+     */
+    @Test
+    fun keepsActiveSegment() {
+        val directory = folder.root.toPath()
+        PersistentMessageCache(directory, HEADER + 2 * recordSize, maximumSegments = 1).use { cache ->
+            (1L..5L).forEach { cache += mockMessage(it) }
+
+            assertEquals(setOf(5L), cache.keys)
+            assertEquals(1, cache.segmentCount)
+            assertEquals("message 5", cache[5L]!!.contentRaw)
+        }
+    }
+
+    /**
+     * Drops segments which were not written to for longer than the maximum age.
+     */
+    @Test
+    fun dropsByAge() {
+        val directory = folder.root.toPath()
+        PersistentMessageCache(directory, HEADER + 2 * recordSize, 50, TimeUnit.MILLISECONDS).use { cache ->
+            (1L..2L).forEach { cache += mockMessage(it) }
+            Thread.sleep(100)
+            cache += mockMessage(3L)
+
+            assertEquals(setOf(3L), cache.keys)
+            assertEquals(1L, cache.droppedSegmentCount)
+        }
+    }
+
+    /**
+     * Deletes all segment files when the cache gets cleared.
+     */
+    @Test
+    fun clear() {
+        val directory = folder.root.toPath()
+        PersistentMessageCache(directory, HEADER + 2 * recordSize).use { cache ->
+            (1L..5L).forEach { cache += mockMessage(it) }
+            cache.clear()
+
+            assertEquals(0, cache.size)
+            assertEquals(1, cache.segmentCount)
+            assertEquals(1L, Files.list(directory).use { it.count() })
+        }
+    }
+
+    /**
+     * Tests that a closed cache can not be used anymore.
+     */
+    @Test(expected = IllegalStateException::class)
+    fun closed() {
+        val cache = PersistentMessageCache(folder.root.toPath(), 4096)
+        cache += mockMessage(1L)
+        cache.close()
+        cache.close()
+        cache[1L]
+    }
+
+    private fun segment(directory: Path, sequence: Int) = directory.resolve(String.format("%010d.segment", sequence))
+
+    private fun mockMessage(id: Long, content: String = "message $id"): Message {
+        val channel = Mockito.mock(TextChannel::class.java)
+        Mockito.`when`(channel.idLong).thenReturn(553636382446223361L)
+        val guild = Mockito.mock(Guild::class.java)
+        Mockito.`when`(guild.idLong).thenReturn(553636358283288589L)
+        val message = Mockito.mock(Message::class.java)
+        Mockito.`when`(message.idLong).thenReturn(id)
+        Mockito.`when`(message.contentRaw).thenReturn(content)
+        Mockito.`when`(message.contentDisplay).thenReturn(content)
+        Mockito.`when`(message.embeds).thenReturn(emptyList())
+        Mockito.`when`(message.channel).thenReturn(channel)
+        Mockito.`when`(message.guild).thenReturn(guild)
+        return message
+    }
+
+    private companion object {
+        // Magic, version and the time of the last write
+        const val HEADER = 4 + 4 + 8
+    }
+}